@@ -0,0 +1,33 @@
+package com.wearcontrolgames.unitywearapi;
+
+import android.util.Log;
+
+/**
+ * Sends the core's logging to Logcat.
+ */
+class AndroidLogSink implements WearLog.Sink {
+    @Override
+    public boolean isVerbose(String tag) {
+        try {
+            return Log.isLoggable(tag, Log.VERBOSE);
+        } catch (IllegalArgumentException e) {
+            // Before API 24 tags longer than 23 characters can't be checked.
+            return false;
+        }
+    }
+
+    @Override
+    public void v(String tag, String message) {
+        Log.v(tag, message);
+    }
+
+    @Override
+    public void i(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable throwable) {
+        Log.e(tag, message, throwable);
+    }
+}
@@ -0,0 +1,100 @@
+package com.wearcontrolgames.unitywearapi;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Runs the watch's accelerometer and gyroscope through a {@link GestureRecognizer} and sends each
+ * recognized gesture to the paired phone as a GESTURE event, so the raw samples never leave the
+ * watch. Sensor callbacks arrive on a thread of their own, not the UI or Unity thread.
+ */
+public class GestureSensor implements SensorEventListener, GestureRecognizer.Listener {
+    private static final String TAG = "com.google.unitywear.GestureSensor";
+
+    // 50 Hz is plenty for arm movements, and keeps the sensors from draining the battery.
+    static final int SAMPLING_PERIOD_MICROS = 20000;
+
+    private final SensorManager sensorManager;
+    private final WearDataLayerCore dataLayer;
+    private final GestureRecognizer recognizer = new GestureRecognizer(this);
+    private HandlerThread thread;
+    private volatile int playerNum;
+
+    public GestureSensor(Context context, WearDataLayerCore dataLayer) {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.dataLayer = dataLayer;
+    }
+
+    /**
+     * Starts listening to the sensors and sending gestures for the player. Returns false if the
+     * watch has no accelerometer.
+     */
+    public synchronized boolean start(int playerNum) {
+        this.playerNum = playerNum;
+        if (thread != null) {
+            return true;
+        }
+        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (accelerometer == null) {
+            WearLog.e(TAG, "No accelerometer, gestures won't be recognized");
+            return false;
+        }
+        thread = new HandlerThread("WearGestureSensor");
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        sensorManager.registerListener(this, accelerometer, SAMPLING_PERIOD_MICROS, handler);
+        Sensor gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        if (gyroscope != null) {
+            sensorManager.registerListener(this, gyroscope, SAMPLING_PERIOD_MICROS, handler);
+        } else {
+            WearLog.i(TAG, "No gyroscope, wrist twists won't be recognized");
+        }
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        sensorManager.unregisterListener(this);
+        thread.quitSafely();
+        thread = null;
+        recognizer.reset();
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        switch (event.sensor.getType()) {
+            case Sensor.TYPE_ACCELEROMETER:
+                recognizer.addAccelerometer(
+                        event.timestamp, event.values[0], event.values[1], event.values[2]);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                recognizer.addGyroscope(
+                        event.timestamp, event.values[0], event.values[1], event.values[2]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onGesture(WearEvent.GestureType type, float confidence, long timestampNanos) {
+        // Sensor timestamps are on the elapsed realtime clock, events carry wall clock times.
+        long ageMicros = (SystemClock.elapsedRealtimeNanos() - timestampNanos) / 1000;
+        WearLog.v(TAG, "Recognized " + type + " with confidence " + confidence);
+        dataLayer.sendUpdate(new WearEvent(WearEvent.EventType.GESTURE)
+                .setPlayerNum(playerNum)
+                .setGesture(type, confidence, WearClock.nowMicros() - Math.max(0, ageMicros)));
+    }
+}
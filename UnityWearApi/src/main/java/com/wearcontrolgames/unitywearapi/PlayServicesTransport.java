@@ -0,0 +1,238 @@
+package com.wearcontrolgames.unitywearapi;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.wearable.CapabilityClient;
+import com.google.android.gms.wearable.CapabilityInfo;
+import com.google.android.gms.wearable.ChannelClient;
+import com.google.android.gms.wearable.DataClient;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageClient;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link WearTransport} backed by the Play Services Wearable clients.
+ *
+ * The clients deliver their callbacks on a background looper owned by this transport rather than
+ * the main looper, so inbound messages never wait behind, or hold up, the game's UI thread. Task
+ * completions run on the same looper, since what they trigger, such as releasing send buffers,
+ * rate accounting and node cache updates, doesn't belong on the UI thread either.
+ */
+public class PlayServicesTransport implements WearTransport,
+        DataClient.OnDataChangedListener,
+        MessageClient.OnMessageReceivedListener,
+        CapabilityClient.OnCapabilityChangedListener {
+    private static final String TAG = "com.google.unitywear.PlayServicesTransport";
+
+    private final DataClient dataClient;
+    private final MessageClient messageClient;
+    private final CapabilityClient capabilityClient;
+    private final ChannelClient channelClient;
+    private final HandlerThread callbackThread;
+    private final Executor callbackExecutor;
+    private final Context context;
+    private final String capability;
+
+    private Receiver receiver;
+
+    public PlayServicesTransport(Context context, String capability) {
+        this.context = context;
+        this.capability = capability;
+        callbackThread = new HandlerThread("WearInbound");
+        callbackThread.start();
+        callbackExecutor = new Handler(callbackThread.getLooper())::post;
+        Wearable.WearableOptions options = new Wearable.WearableOptions.Builder()
+                .setLooper(callbackThread.getLooper())
+                .build();
+        dataClient = Wearable.getDataClient(context, options);
+        messageClient = Wearable.getMessageClient(context, options);
+        capabilityClient = Wearable.getCapabilityClient(context, options);
+        channelClient = Wearable.getChannelClient(context, options);
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        boolean first = this.receiver == null;
+        this.receiver = receiver;
+        if (first) {
+            dataClient.addListener(this);
+            messageClient.addListener(this);
+            capabilityClient.addListener(this, capability);
+            channelClient.registerChannelCallback(channelCallback);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> getLocalNodeId() {
+        // TODO: Add in handling if we can't get the node id for some reason.
+        return toFuture(Wearable.getNodeClient(context).getLocalNode()).thenApply(Node::getId);
+    }
+
+    @Override
+    public CompletableFuture<Integer> sendMessage(String nodeId, String path, byte[] data) {
+        return toFuture(messageClient.sendMessage(nodeId, path, data));
+    }
+
+    @Override
+    public String putDataItem(String path, String senderNodeId, String event, long timestampMillis) {
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create(path);
+        putDataMapReq.getDataMap().putLong(WearDataLayer.TIMESTAMP_KEY, timestampMillis);
+        putDataMapReq.getDataMap().putString(WearDataLayer.EVENT_KEY, event);
+        putDataMapReq.getDataMap().putString(WearDataLayer.NODE_ID_KEY, senderNodeId);
+        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
+        putDataReq.setUrgent();
+        dataClient.putDataItem(putDataReq);
+        return putDataMapReq.getUri().toString();
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteDataItems(String uri) {
+        return toFuture(dataClient.deleteDataItems(Uri.parse(uri)));
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteDataItemsWithPrefix(String uriPrefix) {
+        return toFuture(dataClient.deleteDataItems(Uri.parse(uriPrefix), DataClient.FILTER_PREFIX));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getDataItemUris() {
+        return toFuture(dataClient.getDataItems()).thenApply(dataItems -> {
+            List<String> uris = new ArrayList<>();
+            for (DataItem item : dataItems) {
+                uris.add(item.getUri().toString());
+            }
+            dataItems.release();
+            return uris;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getReachableNodes() {
+        return toFuture(capabilityClient.getCapability(capability, CapabilityClient.FILTER_REACHABLE))
+                .thenApply(PlayServicesTransport::nodeIdsOf);
+    }
+
+    @Override
+    public CompletableFuture<Channel> openChannel(String nodeId, String path) {
+        return toFuture(channelClient.openChannel(nodeId, path)).thenCompose(channel ->
+                toFuture(channelClient.getOutputStream(channel))
+                        .<Channel>thenApply(output -> new OpenChannel(channel, output))
+                        .whenComplete((open, error) -> {
+                            if (error != null) {
+                                channelClient.close(channel);
+                            }
+                        }));
+    }
+
+    // Only called for channels other nodes open to us.
+    private final ChannelClient.ChannelCallback channelCallback =
+            new ChannelClient.ChannelCallback() {
+                @Override
+                public void onChannelOpened(@NonNull ChannelClient.Channel channel) {
+                    toFuture(channelClient.getInputStream(channel)).thenAccept(input ->
+                            receiver.onChannelOpened(
+                                    channel.getNodeId(), channel.getPath(), input));
+                }
+            };
+
+    private final class OpenChannel implements Channel {
+        private final ChannelClient.Channel channel;
+        private final OutputStream output;
+
+        OpenChannel(ChannelClient.Channel channel, OutputStream output) {
+            this.channel = channel;
+            this.output = output;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void close() {
+            channelClient.close(channel);
+        }
+    }
+
+    @Override
+    public void onDataChanged(@NonNull DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            if (event.getType() == DataEvent.TYPE_CHANGED) {
+                DataItem item = event.getDataItem();
+                DataMap map = DataMapItem
+                        .fromDataItem(item)
+                        .getDataMap();
+                String rawEvent = map.getString(WearDataLayer.EVENT_KEY);
+                if (rawEvent == null || rawEvent.isEmpty()) {
+                    // Not one of ours.
+                    continue;
+                }
+                receiver.onDataItemChanged(
+                        item.getUri().toString(),
+                        map.getString(WearDataLayer.NODE_ID_KEY),
+                        rawEvent);
+            } else if (event.getType() == DataEvent.TYPE_DELETED) {
+                receiver.onDataItemDeleted(event.getDataItem().getUri().toString());
+            }
+        }
+    }
+
+    @Override
+    public void onMessageReceived(@NonNull MessageEvent messageEvent) {
+        receiver.onMessageReceived(
+                messageEvent.getSourceNodeId(), messageEvent.getPath(), messageEvent.getData());
+    }
+
+    @Override
+    public void onCapabilityChanged(@NonNull CapabilityInfo capabilityInfo) {
+        receiver.onReachableNodesChanged(nodeIdsOf(capabilityInfo));
+    }
+
+    private static Set<String> nodeIdsOf(CapabilityInfo info) {
+        Set<String> ids = new HashSet<>();
+        for (Node node : info.getNodes()) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    private <T> CompletableFuture<T> toFuture(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // Without an executor the listener would run on the main looper.
+        task.addOnCompleteListener(callbackExecutor, completed -> {
+            if (completed.isSuccessful()) {
+                future.complete(completed.getResult());
+            } else {
+                Exception e = completed.getException();
+                Log.e(TAG, "Play Services task failed", e);
+                future.completeExceptionally(e != null ? e : new IllegalStateException());
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,61 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fanning one event out to a growing number of listeners, either all subscribed to everything or
+ * each to another player's position updates, which the event skips.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+    @Param({"1", "4", "16"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean otherPlayers;
+
+    private LoopbackNetwork network;
+    private WearDataLayerCore layer;
+    private WearEvent event;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        network = new LoopbackNetwork();
+        layer = new WearDataLayerCore(network.createNode("phone"));
+        // Keeps event logging out of the measurement.
+        layer.setHotPathEnabled(true);
+        event = WearEventCodecBenchmark.sampleEvent(WearEvent.EventType.POSITION_UPDATE);
+        for (int i = 0; i < listenerCount; i++) {
+            if (otherPlayers) {
+                layer.addListener(blackhole::consume,
+                        EnumSet.of(WearEvent.EventType.POSITION_UPDATE), event.playerNum + 1 + i);
+            } else {
+                layer.addListener(blackhole::consume);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        layer.dispatchUpdate(event);
+    }
+}
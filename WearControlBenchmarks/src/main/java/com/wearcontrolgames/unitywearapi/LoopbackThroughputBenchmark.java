@@ -0,0 +1,95 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end send to receive of position updates between a paired watch and phone over a zero
+ * latency loopback transport. Each operation sends one sample and waits for the phone's listener
+ * to see it, so this measures the cost of the whole pipeline: scheduling, encoding, the transport
+ * hop, decoding and dispatch. With channelStreaming the watch streams its updates over a channel
+ * instead of sending a message each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoopbackThroughputBenchmark {
+    private static final int PLAYER = 0;
+
+    @Param({"false", "true"})
+    public boolean hotPath;
+
+    @Param({"false", "true"})
+    public boolean channelStreaming;
+
+    private LoopbackNetwork network;
+    private WearDataLayerCore phone;
+    private WearDataLayerCore watch;
+
+    private volatile double lastReceived = -1;
+    private double nextSample = 0;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        network = new LoopbackNetwork();
+        phone = new WearDataLayerCore(network.createNode("phone"));
+        watch = new WearDataLayerCore(network.createNode("watch"));
+        phone.setHotPathEnabled(hotPath);
+        watch.setHotPathEnabled(hotPath);
+        watch.setChannelStreamingEnabled(channelStreaming);
+        pair();
+        phone.addListener(event -> {
+            if (event.eventType == WearEvent.EventType.POSITION_UPDATE) {
+                lastReceived = event.posX;
+            }
+        });
+    }
+
+    /**
+     * Runs the normal handshake: the phone requests, the watch responds, the phone accepts.
+     */
+    private void pair() throws InterruptedException {
+        CountDownLatch paired = new CountDownLatch(1);
+        phone.addListener(event -> {
+            if (event.eventType == WearEvent.EventType.PAIR_RESPONSE) {
+                phone.acceptPair("ANALOG", PLAYER);
+            }
+        });
+        watch.addListener(event -> {
+            if (event.eventType == WearEvent.EventType.PAIR_REQUEST) {
+                watch.respondToPair(PLAYER);
+            } else if (event.eventType == WearEvent.EventType.PAIR_ACCEPTED) {
+                paired.countDown();
+            }
+        });
+        phone.requestPair("benchmark", PLAYER);
+        if (!paired.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Watch and phone didn't pair");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Benchmark
+    public double sendAndReceive() {
+        double sample = ++nextSample;
+        watch.sendPosition(PLAYER, sample, -sample);
+        while (lastReceived != sample) {
+            Thread.yield();
+        }
+        return sample;
+    }
+}
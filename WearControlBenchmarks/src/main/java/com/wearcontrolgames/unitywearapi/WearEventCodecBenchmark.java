@@ -0,0 +1,138 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing each event type in the JSON and binary formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WearEventCodecBenchmark {
+    @Param({
+            "PAIR_REQUEST",
+            "PAIR_RESPONSE",
+            "PAIR_ACCEPTED",
+            "PAIR_REJECTED",
+            "DISCONNECT",
+            "POSITION_UPDATE",
+            "GESTURE",
+            "PAUSE_GAME",
+            "UNPAUSE_GAME",
+            "RESTART_GAME",
+            "NODES_AVAILABLE",
+            "NODES_UNAVAILABLE",
+            "POSITION_BATCH",
+            "PING",
+            "PONG",
+            "KEYFRAME_ACK",
+            "ACK"
+    })
+    public String eventType;
+
+    private WearEvent event;
+    private String json;
+    private byte[] binary;
+    private ByteBuffer frame;
+    private WearEventPool pool;
+
+    @Setup
+    public void setUp() {
+        event = sampleEvent(WearEvent.EventType.valueOf(eventType));
+        json = event.serialize();
+        binary = WearEventCodec.encode(event);
+        frame = ByteBuffer.allocate(binary.length);
+        pool = new WearEventPool();
+    }
+
+    /**
+     * An event with every field its type carries filled in, like the ones the data layer sends.
+     */
+    static WearEvent sampleEvent(WearEvent.EventType type) {
+        WearEvent event = new WearEvent(type).setPlayerNum(2);
+        switch (type) {
+            case PAIR_REQUEST:
+                event.setTargetController("racing_wheel").setProtocolVersion(WearEventCodec.VERSION);
+                break;
+            case PAIR_RESPONSE:
+                event.setProtocolVersion(WearEventCodec.VERSION);
+                break;
+            case PAIR_ACCEPTED:
+                event.setControllerType("ANALOG").setProtocolVersion(WearEventCodec.VERSION);
+                break;
+            case POSITION_UPDATE:
+                event.setPosition(0.42, -0.17);
+                break;
+            case POSITION_BATCH:
+                for (int i = 0; i < 8; i++) {
+                    event.addSample(0.1 * i, -0.1 * i, i * 5000);
+                }
+                break;
+            case PING:
+                event.setSentTimeMicros(1600000000000000L);
+                break;
+            case PONG:
+                event.setSentTimeMicros(1600000000004000L).setEchoTimeMicros(1600000000000000L);
+                break;
+            case KEYFRAME_ACK:
+                event.setKeyframeId(1234);
+                break;
+            case ACK:
+                event.setSequence(1234, 1);
+                break;
+            case GESTURE:
+                event.setGesture(WearEvent.GestureType.FLICK_LEFT, 0.8f, 1600000000000000L);
+                break;
+            default:
+                break;
+        }
+        return event;
+    }
+
+    @Benchmark
+    public String serializeJson() {
+        return event.serialize();
+    }
+
+    @Benchmark
+    public WearEvent deserializeJson() {
+        return WearEvent.deserialize(json);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return WearEventCodec.encode(event);
+    }
+
+    @Benchmark
+    public WearEvent decodeBinary() {
+        return WearEventCodec.decode(binary);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinaryReused() {
+        frame.clear();
+        WearEventCodec.encode(event, frame);
+        return frame;
+    }
+
+    @Benchmark
+    public WearEvent decodeBinaryPooled() {
+        frame.clear();
+        frame.put(binary);
+        frame.flip();
+        WearEvent decoded = WearEventCodec.decode(frame, pool);
+        pool.recycle(decoded);
+        return decoded;
+    }
+}
@@ -0,0 +1,63 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What happened to a control event sent with
+ * {@link WearDataLayerCore#broadcastControlEvent(WearEvent.EventType, long)}. Every paired node the
+ * event was messaged to ends up in exactly one of the three sets.
+ */
+public final class BroadcastResult {
+    /** Paired nodes the message was delivered to. */
+    public final Set<String> reached;
+    /** Paired nodes the message couldn't be sent to. */
+    public final Set<String> failed;
+    /** Paired nodes that hadn't answered yet when the timeout ran out. */
+    public final Set<String> timedOut;
+    /**
+     * True if the event was also put in the data map, for nodes that aren't paired or that are
+     * too old to take it as a message.
+     */
+    public final boolean sentToDataMap;
+
+    /**
+     * outcomes maps each target that has answered to whether it was reached.
+     */
+    BroadcastResult(Set<String> targets, Map<String, Boolean> outcomes, boolean sentToDataMap) {
+        Set<String> reached = new HashSet<>();
+        Set<String> failed = new HashSet<>();
+        Set<String> timedOut = new HashSet<>();
+        for (String target : targets) {
+            Boolean outcome = outcomes.get(target);
+            if (outcome == null) {
+                timedOut.add(target);
+            } else if (outcome) {
+                reached.add(target);
+            } else {
+                failed.add(target);
+            }
+        }
+        this.reached = Collections.unmodifiableSet(reached);
+        this.failed = Collections.unmodifiableSet(failed);
+        this.timedOut = Collections.unmodifiableSet(timedOut);
+        this.sentToDataMap = sentToDataMap;
+    }
+
+    /**
+     * True if every paired node the event was messaged to got it.
+     */
+    public boolean allReached() {
+        return failed.isEmpty() && timedOut.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastResult{reached=" + reached
+                + ", failed=" + failed
+                + ", timedOut=" + timedOut
+                + ", sentToDataMap=" + sentToDataMap + "}";
+    }
+}
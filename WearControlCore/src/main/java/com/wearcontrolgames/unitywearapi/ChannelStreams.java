@@ -0,0 +1,246 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams encoded events to paired nodes over one persistent channel per node, instead of paying
+ * for a separate MessageClient call per event. Each event is written as a varint length followed
+ * by the same frame a message would carry. Writes are buffered and only flushed once the send
+ * scheduler runs out of work, so a burst of updates goes out together.
+ *
+ * Nothing here ever blocks sending: while a node's channel is still opening, or after it broke,
+ * {@link #write} returns false and the event goes out as a message instead. A broken channel is
+ * reopened on a later write, backing off from {@link #INITIAL_REOPEN_MILLIS} up to
+ * {@link #MAX_REOPEN_MILLIS} while it keeps failing.
+ */
+class ChannelStreams {
+    private static final String TAG = "com.google.unitywear.ChannelStreams";
+
+    static final String PATH = "/wear_control_stream";
+    static final int BUFFER_SIZE = 4096;
+    // Anything longer can't be one of our frames, so the stream must be corrupt.
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+    static final long INITIAL_REOPEN_MILLIS = 500;
+    static final long MAX_REOPEN_MILLIS = 30000;
+
+    interface FrameHandler {
+        /**
+         * Called on the channel's reader thread with one frame between the buffer's position and
+         * limit. The buffer is reused for the next frame once this returns.
+         */
+        void onFrame(String nodeId, ByteBuffer frame);
+    }
+
+    private static final class Outbound {
+        WearTransport.Channel channel;
+        // Null unless the channel is open.
+        OutputStream output;
+        boolean opening;
+        boolean unflushed;
+        long reopenAtNanos;
+        long reopenDelayMillis = INITIAL_REOPEN_MILLIS;
+    }
+
+    private final WearTransport transport;
+    private final ConcurrentHashMap<String, Outbound> outbound = new ConcurrentHashMap<>();
+
+    ChannelStreams(WearTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Writes the frame to the node's channel. Returns false if there is no open channel to write
+     * it to, in which case one is opened in the background unless it failed recently. Called on
+     * the send scheduler's thread.
+     */
+    boolean write(String nodeId, byte[] frame) {
+        Outbound stream = outbound.get(nodeId);
+        if (stream == null) {
+            stream = outbound.computeIfAbsent(nodeId, id -> new Outbound());
+        }
+        synchronized (stream) {
+            if (stream.output == null) {
+                open(nodeId, stream);
+                return false;
+            }
+            try {
+                writeVarint(stream.output, frame.length);
+                stream.output.write(frame);
+                stream.unflushed = true;
+                return true;
+            } catch (IOException e) {
+                broken(nodeId, stream, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Pushes out everything written since the last flush. Called on the send scheduler's thread
+     * whenever it has nothing left to send.
+     */
+    void flush() {
+        for (Map.Entry<String, Outbound> entry : outbound.entrySet()) {
+            Outbound stream = entry.getValue();
+            synchronized (stream) {
+                if (!stream.unflushed || stream.output == null) {
+                    continue;
+                }
+                stream.unflushed = false;
+                try {
+                    stream.output.flush();
+                } catch (IOException e) {
+                    broken(entry.getKey(), stream, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the node's channel, e.g. once nobody on it is paired to us anymore.
+     */
+    void close(String nodeId) {
+        Outbound stream = outbound.remove(nodeId);
+        if (stream != null) {
+            synchronized (stream) {
+                closeQuietly(stream);
+            }
+        }
+    }
+
+    void closeAll() {
+        for (String nodeId : outbound.keySet()) {
+            close(nodeId);
+        }
+    }
+
+    /**
+     * Reads frames from a channel the node opened to us on a new thread, until it closes.
+     */
+    void read(String nodeId, InputStream input, FrameHandler handler) {
+        Thread reader = new Thread(
+                () -> readFrames(nodeId, input, handler), "WearChannelReader-" + nodeId);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void open(String nodeId, Outbound stream) {
+        if (stream.opening || System.nanoTime() - stream.reopenAtNanos < 0) {
+            return;
+        }
+        stream.opening = true;
+        transport.openChannel(nodeId, PATH).whenComplete((channel, error) -> {
+            synchronized (stream) {
+                stream.opening = false;
+                if (outbound.get(nodeId) != stream) {
+                    // Closed while it was opening.
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    return;
+                }
+                if (error != null) {
+                    WearLog.e(TAG, "Couldn't open a channel to " + nodeId, error);
+                    backOff(stream);
+                    return;
+                }
+                WearLog.i(TAG, "Streaming to " + nodeId);
+                stream.channel = channel;
+                stream.output = new BufferedOutputStream(channel.getOutputStream(), BUFFER_SIZE);
+                stream.reopenDelayMillis = INITIAL_REOPEN_MILLIS;
+            }
+        });
+    }
+
+    private void broken(String nodeId, Outbound stream, IOException e) {
+        WearLog.e(TAG, "Channel to " + nodeId + " broke, falling back to messages", e);
+        closeQuietly(stream);
+        backOff(stream);
+    }
+
+    private static void backOff(Outbound stream) {
+        stream.reopenAtNanos =
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stream.reopenDelayMillis);
+        stream.reopenDelayMillis = Math.min(stream.reopenDelayMillis * 2, MAX_REOPEN_MILLIS);
+    }
+
+    private static void closeQuietly(Outbound stream) {
+        if (stream.channel != null) {
+            stream.channel.close();
+        }
+        stream.channel = null;
+        stream.output = null;
+        stream.unflushed = false;
+    }
+
+    private static void readFrames(String nodeId, InputStream input, FrameHandler handler) {
+        ByteBuffer frame = ByteBuffer.allocate(256);
+        try (InputStream in = new BufferedInputStream(input, BUFFER_SIZE)) {
+            int length;
+            while ((length = readVarint(in)) >= 0) {
+                if (length == 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (frame.capacity() < length) {
+                    frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+                }
+                readFully(in, frame.array(), length);
+                frame.clear();
+                frame.limit(length);
+                handler.onFrame(nodeId, frame);
+            }
+            WearLog.i(TAG, "Channel from " + nodeId + " closed");
+        } catch (IOException e) {
+            WearLog.e(TAG, "Channel from " + nodeId + " failed", e);
+        }
+    }
+
+    private static void writeVarint(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    /**
+     * Returns -1 if the stream ended cleanly before the varint started.
+     */
+    private static int readVarint(InputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Channel closed inside a frame length");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed frame length");
+    }
+
+    private static void readFully(InputStream input, byte[] into, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = input.read(into, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Channel closed inside a frame");
+            }
+            read += count;
+        }
+    }
+}
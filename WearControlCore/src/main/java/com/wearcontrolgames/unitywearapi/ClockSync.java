@@ -0,0 +1,205 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Estimates how far each paired node's clock is from ours, and how fast the two drift apart, from
+ * PING/PONG round trips, NTP style. Both clocks are {@link WearClock}s, which only ever advance
+ * with System.nanoTime(), so the offset is stable apart from the drift between the two crystals.
+ *
+ * Each round trip gives the four NTP timestamps: t0 when our PING went out and t3 when the PONG
+ * arrived, both on our clock, and t1 when the PING arrived and t2 when the PONG went out, on the
+ * node's. The offset is ((t1 - t0) + (t2 - t3)) / 2 and is off by at most half of the round
+ * trip's network delay, (t3 - t0) - (t2 - t1). Peers older than
+ * {@link WearEventCodec#VERSION_CLOCK_SYNC} don't send t1, so it is taken to equal t2 and the
+ * turnaround time counts as delay.
+ *
+ * The last {@link #WINDOW} samples of each node are kept. Samples delayed much more than the best
+ * one in the window are left out, since queues in the link make them uneven, and once the rest
+ * span ten seconds a least squares line through them gives the offset now and the drift. Until
+ * then the offset of the least delayed sample is used. The estimate is swapped in as a whole, so
+ * reading it from any thread is lock free.
+ */
+class ClockSync {
+    static final int WINDOW = 16;
+    // A line isn't fitted through fewer samples than this, or ones spanning less than
+    // MIN_DRIFT_SPAN_MICROS, since a millisecond of jitter over a second looks like 1000 ppm.
+    static final int MIN_DRIFT_SAMPLES = 4;
+    private static final long MIN_DRIFT_SPAN_MICROS = TimeUnit.SECONDS.toMicros(10);
+    // Samples with more delay than the best one plus a quarter of it and this are left out.
+    static final long DELAY_SLACK_MICROS = 500;
+    // Watch and phone crystals are good to well within this. Anything larger is noise.
+    static final double MAX_DRIFT_PPM = 200;
+    // Until a node has this many samples it is asked for one every FAST_INTERVAL_MILLIS.
+    static final int FAST_SAMPLES = 8;
+    static final long FAST_INTERVAL_MILLIS = 250;
+    static final long INTERVAL_MILLIS = 2000;
+
+    /**
+     * The node's clock relative to ours at one moment, and how fast that changes.
+     */
+    static final class Estimate {
+        // Our clock when the offset was exactly offsetMicros.
+        final long referenceMicros;
+        // The node's clock minus ours.
+        final double offsetMicros;
+        // How many microseconds the offset grows by per second, i.e. parts per million.
+        final double driftPpm;
+        // The smallest round trip delay in the window, the offset's error is at most half this.
+        final long delayMicros;
+
+        Estimate(long referenceMicros, double offsetMicros, double driftPpm, long delayMicros) {
+            this.referenceMicros = referenceMicros;
+            this.offsetMicros = offsetMicros;
+            this.driftPpm = driftPpm;
+            this.delayMicros = delayMicros;
+        }
+
+        /**
+         * The node's clock minus ours at localMicros on our clock.
+         */
+        double offsetAt(long localMicros) {
+            return offsetMicros + driftPpm * (localMicros - referenceMicros) / 1e6;
+        }
+
+        /**
+         * Converts a time on the node's clock to ours.
+         */
+        long toLocal(long remoteMicros) {
+            // The offset barely moves within one offset's distance, so this needs no iterating.
+            return remoteMicros - Math.round(offsetAt(remoteMicros - (long) offsetMicros));
+        }
+    }
+
+    private static final class Node {
+        final long[] times = new long[WINDOW];
+        final double[] offsets = new double[WINDOW];
+        final long[] delays = new long[WINDOW];
+        int count;
+        int next;
+        long requestedMicros;
+        volatile Estimate estimate;
+    }
+
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a round trip to the node. t1 is 0 if the node didn't report it. Calls for one node
+     * must not overlap.
+     */
+    void addSample(String nodeId, long t0, long t1, long t2, long t3) {
+        if (t1 <= 0) {
+            t1 = t2;
+        }
+        long delay = (t3 - t0) - (t2 - t1);
+        if (t3 < t0 || delay < 0) {
+            // The PONG answers a PING from before one of us restarted.
+            return;
+        }
+        Node node = node(nodeId);
+        synchronized (node) {
+            node.times[node.next] = (t0 + t3) / 2;
+            node.offsets[node.next] = ((t1 - t0) + (t2 - t3)) / 2.0;
+            node.delays[node.next] = delay;
+            node.next = (node.next + 1) % WINDOW;
+            node.count = Math.min(node.count + 1, WINDOW);
+            node.estimate = fit(node);
+        }
+    }
+
+    @Nullable
+    Estimate estimate(String nodeId) {
+        Node node = nodes.get(nodeId);
+        return node == null ? null : node.estimate;
+    }
+
+    /**
+     * Converts a time on the node's clock to ours, or returns 0 if there is no estimate yet.
+     */
+    long toLocal(String nodeId, long remoteMicros) {
+        Estimate estimate = estimate(nodeId);
+        return estimate == null ? 0 : estimate.toLocal(remoteMicros);
+    }
+
+    /**
+     * Whether it's time to send the node another PING, and if so notes that one is going out.
+     * Called from a single thread.
+     */
+    boolean sampleDue(String nodeId, long nowMicros) {
+        Node node = node(nodeId);
+        // Checks come every FAST_INTERVAL_MILLIS, give or take, so allow for them coming early.
+        long interval = TimeUnit.MILLISECONDS.toMicros(
+                (node.count < FAST_SAMPLES ? FAST_INTERVAL_MILLIS : INTERVAL_MILLIS)
+                        - FAST_INTERVAL_MILLIS / 2);
+        if (node.requestedMicros != 0 && nowMicros - node.requestedMicros < interval) {
+            return false;
+        }
+        node.requestedMicros = nowMicros;
+        return true;
+    }
+
+    /**
+     * Forgets the node, e.g. because it restarted and its clock was set up again.
+     */
+    void clear(String nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    void clear() {
+        nodes.clear();
+    }
+
+    private Node node(String nodeId) {
+        Node node = nodes.get(nodeId);
+        return node != null ? node : nodes.computeIfAbsent(nodeId, id -> new Node());
+    }
+
+    /**
+     * Called with the node locked.
+     */
+    private static Estimate fit(Node node) {
+        long minDelay = Long.MAX_VALUE;
+        int best = 0;
+        for (int i = 0; i < node.count; i++) {
+            if (node.delays[i] < minDelay) {
+                minDelay = node.delays[i];
+                best = i;
+            }
+        }
+        long maxDelay = minDelay + minDelay / 4 + DELAY_SLACK_MICROS;
+        long reference = node.times[(node.next + WINDOW - 1) % WINDOW];
+        int used = 0;
+        double sumX = 0;
+        double sumY = 0;
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < node.count; i++) {
+            if (node.delays[i] <= maxDelay) {
+                used++;
+                sumX += node.times[i] - reference;
+                sumY += node.offsets[i];
+                first = Math.min(first, node.times[i]);
+            }
+        }
+        if (used < MIN_DRIFT_SAMPLES || reference - first < MIN_DRIFT_SPAN_MICROS) {
+            return new Estimate(node.times[best], node.offsets[best], 0, minDelay);
+        }
+        double meanX = sumX / used;
+        double meanY = sumY / used;
+        double sxx = 0;
+        double sxy = 0;
+        for (int i = 0; i < node.count; i++) {
+            if (node.delays[i] <= maxDelay) {
+                double dx = node.times[i] - reference - meanX;
+                sxx += dx * dx;
+                sxy += dx * (node.offsets[i] - meanY);
+            }
+        }
+        double drift = Math.max(-MAX_DRIFT_PPM, Math.min(MAX_DRIFT_PPM, sxy / sxx * 1e6));
+        // The line's value at the newest sample.
+        double offset = meanY + drift / 1e6 * -meanX;
+        return new Estimate(reference, offset, drift, minDelay);
+    }
+}
@@ -0,0 +1,123 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the data items this node writes, so none of them outlive their purpose and keep
+ * syncing to every watch. Each item lives at its own path per player,
+ * {@code /wearcontrol/<player>/<name>}, so requests for different players never overwrite each
+ * other, and each has a time to live after which it is deleted. Deletes never wait on the
+ * transport.
+ */
+class DataItemTracker {
+    private static final String TAG = "com.google.unitywear.DataItemTracker";
+
+    static final String ROOT = "/wearcontrol";
+
+    // A pair request has to stay up until a watch gets around to answering it.
+    static final long PAIRING_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // Everything else only needs to reach the nodes that are around right now.
+    static final long EVENT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // Paths used before items were kept under ROOT, cleaned up in case an older build left them.
+    private static final String[] LEGACY_PATHS = {
+            "/pair_request",
+            "/pair_response",
+            "/pair_accept",
+            "/disconnect",
+            "/resume",
+            "/restart",
+            "/update"
+    };
+
+    private static final class Item {
+        final String uri;
+        final int playerNum;
+
+        Item(String uri, int playerNum) {
+            this.uri = uri;
+            this.playerNum = playerNum;
+        }
+    }
+
+    private final WearTransport transport;
+    private final ScheduledExecutorService timer;
+    // Path -> the item we last wrote there.
+    private final ConcurrentHashMap<String, Item> items = new ConcurrentHashMap<>();
+
+    DataItemTracker(WearTransport transport, ScheduledExecutorService timer) {
+        this.transport = transport;
+        this.timer = timer;
+    }
+
+    /**
+     * The path for the named item of a player. Events that aren't for a single player, like
+     * pausing the game, use -1.
+     */
+    static String pathFor(String name, int playerNum) {
+        return ROOT + "/" + (playerNum >= 0 ? Integer.toString(playerNum) : "all") + "/" + name;
+    }
+
+    /**
+     * Records an item we just put at the path and schedules its deletion. Writing to the path
+     * again before then replaces the item and restarts its time to live.
+     */
+    void track(String path, String uri, int playerNum, long ttlMillis) {
+        Item item = new Item(uri, playerNum);
+        items.put(path, item);
+        timer.schedule(() -> {
+            // Only if it hasn't been replaced or deleted since.
+            if (items.remove(path, item)) {
+                deleteUri(item.uri);
+            }
+        }, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deletes the named item of the player, if we wrote one.
+     */
+    void delete(String name, int playerNum) {
+        Item item = items.remove(pathFor(name, playerNum));
+        if (item != null) {
+            deleteUri(item.uri);
+        }
+    }
+
+    /**
+     * Deletes every item we wrote for the player, apart from the named one.
+     */
+    void deletePlayer(int playerNum, String keepName) {
+        String keep = pathFor(keepName, playerNum);
+        for (Map.Entry<String, Item> entry : items.entrySet()) {
+            if (entry.getValue().playerNum == playerNum
+                    && !entry.getKey().equals(keep)
+                    && items.remove(entry.getKey(), entry.getValue())) {
+                deleteUri(entry.getValue().uri);
+            }
+        }
+    }
+
+    /**
+     * Deletes everything the library has written from any node, including items left over from
+     * earlier sessions, with one prefix delete instead of listing them first.
+     */
+    void deleteAll() {
+        items.clear();
+        transport.deleteDataItemsWithPrefix("wear:" + ROOT + "/").exceptionally(this::logFailure);
+        for (String path : LEGACY_PATHS) {
+            transport.deleteDataItems("wear:" + path).exceptionally(this::logFailure);
+        }
+    }
+
+    private void deleteUri(String uri) {
+        transport.deleteDataItems(uri).exceptionally(this::logFailure);
+    }
+
+    private Integer logFailure(Throwable error) {
+        WearLog.e(TAG, "Couldn't delete data items", error);
+        return 0;
+    }
+}
@@ -0,0 +1,125 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Holds dispatched events as fixed size records until the game polls for them, so Unity can pick
+ * up a whole frame's worth of events with one JNI call instead of one callback per event.
+ *
+ * Records use the layout documented on WearDataLayerCore#pollEvents.
+ */
+class EventPollQueue {
+    static final int RECORD_SIZE = 64;
+    static final int MAX_TARGET_LENGTH = 24;
+    static final int DEFAULT_CAPACITY = 512;
+
+    private static final int TYPE_OFFSET = 0;
+    private static final int PLAYER_OFFSET = 4;
+    private static final int CONTROLLER_OFFSET = 8;
+    private static final int TARGET_LENGTH_OFFSET = 12;
+    private static final int X_OFFSET = 16;
+    private static final int Y_OFFSET = 24;
+    private static final int TIMESTAMP_OFFSET = 32;
+    private static final int TARGET_OFFSET = 40;
+
+    private final int capacity;
+    private final byte[] records;
+    private final ByteBuffer view;
+    // Index of the oldest record and how many records are queued.
+    private int head;
+    private int count;
+    private long dropped;
+
+    EventPollQueue(int capacity) {
+        this.capacity = capacity;
+        records = new byte[capacity * RECORD_SIZE];
+        view = ByteBuffer.wrap(records).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Copies the event into the queue. When the queue is full new position updates are dropped,
+     * and any other event replaces the oldest record so pairing and control events aren't lost to
+     * a stream of positions.
+     */
+    synchronized void offer(WearEvent event) {
+        if (event.eventType == WearEvent.EventType.POSITION_BATCH) {
+            for (int i = 0; i < event.sampleCount; i++) {
+                long timestamp = event.timestampNanos == 0
+                        ? 0 : event.timestampNanos + event.sampleOffsetsMicros[i] * 1000L;
+                write(WearEvent.EventType.POSITION_UPDATE, event.playerNum, 0, null,
+                        event.samplesX[i], event.samplesY[i], timestamp);
+            }
+            return;
+        }
+        if (event.eventType == WearEvent.EventType.GESTURE) {
+            write(event.eventType, event.playerNum,
+                    event.gestureType == null ? 0 : event.gestureType.ordinal(), null,
+                    event.gestureConfidence, 0, event.timestampNanos);
+            return;
+        }
+        if (event.eventType == WearEvent.EventType.LINK_STATE) {
+            write(event.eventType, event.playerNum,
+                    event.linkState == null ? 0 : event.linkState.ordinal(), null,
+                    event.sendRate, 0, event.timestampNanos);
+            return;
+        }
+        write(event.eventType, event.playerNum,
+                event.controllerType == null ? 0 : event.controllerType.ordinal(),
+                event.targetController, event.posX, event.posY, event.timestampNanos);
+    }
+
+    /**
+     * Moves as many queued records as fit into the buffer, oldest first, and returns how many
+     * were moved. The buffer is cleared first and flipped afterwards, so it is ready to read.
+     */
+    synchronized int drainTo(ByteBuffer buffer) {
+        int drained = Math.min(count, buffer.capacity() / RECORD_SIZE);
+        buffer.clear();
+        int first = Math.min(drained, capacity - head);
+        buffer.put(records, head * RECORD_SIZE, first * RECORD_SIZE);
+        if (drained > first) {
+            buffer.put(records, 0, (drained - first) * RECORD_SIZE);
+        }
+        buffer.flip();
+        head = (head + drained) % capacity;
+        count -= drained;
+        return drained;
+    }
+
+    synchronized long droppedCount() {
+        return dropped;
+    }
+
+    private void write(WearEvent.EventType type, int playerNum,
+            int controllerOrdinal, String targetController,
+            double posX, double posY, long timestampNanos) {
+        if (count == capacity) {
+            dropped++;
+            if (type == WearEvent.EventType.POSITION_UPDATE) {
+                return;
+            }
+            head = (head + 1) % capacity;
+            count--;
+        }
+        int offset = ((head + count) % capacity) * RECORD_SIZE;
+        count++;
+
+        view.putInt(offset + TYPE_OFFSET, type.ordinal());
+        view.putInt(offset + PLAYER_OFFSET, playerNum);
+        view.putInt(offset + CONTROLLER_OFFSET, controllerOrdinal);
+        view.putDouble(offset + X_OFFSET, posX);
+        view.putDouble(offset + Y_OFFSET, posY);
+        view.putLong(offset + TIMESTAMP_OFFSET, timestampNanos);
+
+        int length = 0;
+        if (targetController != null) {
+            length = Math.min(targetController.length(), MAX_TARGET_LENGTH);
+            for (int i = 0; i < length; i++) {
+                char c = targetController.charAt(i);
+                records[offset + TARGET_OFFSET + i] = (byte) (c < 128 ? c : '?');
+            }
+        }
+        view.putInt(offset + TARGET_LENGTH_OFFSET, length);
+    }
+}
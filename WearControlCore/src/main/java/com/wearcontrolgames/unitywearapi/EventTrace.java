@@ -0,0 +1,117 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size ring of what happened to recent events, kept in primitive arrays so recording on
+ * the hot path is a few stores instead of formatting a log line. It is only turned into text when
+ * someone asks for it.
+ *
+ * Recording takes no lock, since the send, receive and dispatch threads all record. Each entry
+ * claims a ticket from a shared counter, writes the slot the ticket maps to, and then stamps the
+ * slot with the ticket. Dumping skips slots whose stamp doesn't match before and after reading
+ * them, i.e. ones being written or already overwritten by a newer entry, so a dump taken while
+ * events flow may leave out a few entries.
+ */
+class EventTrace {
+    enum Kind {
+        SENT,
+        RECEIVED,
+        DISPATCHED,
+        DROPPED
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final WearEvent.EventType[] EVENT_TYPES = WearEvent.EventType.values();
+
+    private final int mask;
+    private final long[] timesNanos;
+    private final byte[] kinds;
+    private final byte[] types;
+    private final int[] players;
+    private final int[] sizes;
+    private final String[] nodes;
+    // The ticket whose entry each slot holds, or -1 while it is being written.
+    private final AtomicLongArray stamps;
+    private final AtomicLong next = new AtomicLong();
+    // Tickets below this were cleared.
+    private volatile long start;
+
+    EventTrace(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        timesNanos = new long[capacity];
+        kinds = new byte[capacity];
+        types = new byte[capacity];
+        players = new int[capacity];
+        sizes = new int[capacity];
+        nodes = new String[capacity];
+        stamps = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            stamps.set(i, -1);
+        }
+    }
+
+    /**
+     * Records an entry. nodeId may be null and size is in bytes, or 0 if it doesn't apply.
+     */
+    void record(Kind kind, String nodeId, WearEvent.EventType type, int playerNum, int size) {
+        long ticket = next.getAndIncrement();
+        int index = (int) (ticket & mask);
+        stamps.set(index, -1);
+        timesNanos[index] = System.nanoTime();
+        kinds[index] = (byte) kind.ordinal();
+        types[index] = (byte) type.ordinal();
+        players[index] = playerNum;
+        sizes[index] = size;
+        nodes[index] = nodeId;
+        stamps.lazySet(index, ticket);
+    }
+
+    void clear() {
+        start = next.get();
+    }
+
+    /**
+     * Formats the entries oldest first, one per line, with times in milliseconds relative to the
+     * newest entry.
+     */
+    String dump() {
+        long end = next.get();
+        long first = Math.max(start, end - (mask + 1));
+        int count = (int) Math.max(0, end - first);
+        long[] times = new long[count];
+        String[] lines = new String[count];
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long ticket = first + i;
+            int index = (int) (ticket & mask);
+            if (stamps.get(index) != ticket) {
+                continue;
+            }
+            long time = timesNanos[index];
+            Kind kind = KINDS[kinds[index]];
+            WearEvent.EventType type = EVENT_TYPES[types[index]];
+            int player = players[index];
+            int size = sizes[index];
+            String node = nodes[index];
+            if (stamps.get(index) != ticket) {
+                continue;
+            }
+            times[i] = time;
+            lines[i] = String.format(" %-10s %-17s player=%d bytes=%d node=%s%n",
+                    kind, type, player, size, node);
+            newest = time;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (lines[i] != null) {
+                builder.append(String.format("%9.3f", (times[i] - newest) / 1e6)).append(lines[i]);
+            }
+        }
+        return builder.toString();
+    }
+}
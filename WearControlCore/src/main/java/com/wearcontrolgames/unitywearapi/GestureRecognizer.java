@@ -0,0 +1,315 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes gestures in the watch's accelerometer and gyroscope readings as they arrive, so a
+ * GESTURE event of a few bytes can cross the link instead of every sample.
+ *
+ * Each detector works on its own time window of samples, kept in a {@link SampleWindow} whose
+ * running sums are updated as samples come and go, so a sample costs the same however long the
+ * windows are:
+ * <ul>
+ *   <li>A flick is a sharp push along the screen's x or y axis followed by the stop in the
+ *   opposite direction. It is only reported once the arm has settled, so the first swing of a
+ *   shake doesn't count as one.</li>
+ *   <li>A shake is at least {@link #SHAKE_REVERSALS} reversals of strong acceleration within
+ *   {@link #SHAKE_WINDOW_MILLIS}.</li>
+ *   <li>A wrist twist is the watch rotating at least {@link #TWIST_RADIANS} around its x axis,
+ *   which runs along the forearm, within {@link #TWIST_WINDOW_MILLIS}.</li>
+ * </ul>
+ * Gravity is removed from the accelerometer readings with a low pass filter first. Confidence is
+ * how far past its threshold a gesture went: 0.5 right at it, up to 1 at twice it. Nothing else
+ * is reported for {@link #REFRACTORY_MILLIS} after a gesture.
+ *
+ * Nothing here depends on Android, so recorded sample traces can be run through it on a JVM with
+ * {@link #replay(Reader)}. It isn't thread safe, samples have to come from one thread.
+ */
+public class GestureRecognizer {
+    public interface Listener {
+        /**
+         * timestampNanos is on the same clock as the samples.
+         */
+        void onGesture(WearEvent.GestureType type, float confidence, long timestampNanos);
+    }
+
+    // Enough for the longest window at 200 Hz, the fastest rate Wear OS sensors usually run at.
+    static final int CAPACITY = 256;
+
+    // Accelerations are in m/s^2 with gravity removed, rotation in radians.
+    static final float FLICK_THRESHOLD = 12;
+    static final long FLICK_WINDOW_MILLIS = 300;
+    static final long FLICK_SETTLE_MILLIS = 150;
+    static final float SHAKE_THRESHOLD = 10;
+    static final int SHAKE_REVERSALS = 4;
+    static final long SHAKE_WINDOW_MILLIS = 1000;
+    static final float TWIST_RADIANS = 1.2f;
+    static final long TWIST_WINDOW_MILLIS = 400;
+    static final long REFRACTORY_MILLIS = 400;
+    // How much stronger the main axis has to be than the others for a flick or a twist.
+    static final float DOMINANCE = 1.5f;
+    private static final float GRAVITY_TIME_CONSTANT_SECONDS = 0.25f;
+    // Gaps longer than this between gyroscope readings aren't integrated over.
+    private static final long MAX_GYRO_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final int FLICK_IDLE = 0;
+    private static final int FLICK_PUSH = 1;
+    private static final int FLICK_STOP = 2;
+
+    private final Listener listener;
+
+    // x counts strong readings that reversed direction, y sums the squared acceleration.
+    private final SampleWindow shakeWindow = new SampleWindow(
+            CAPACITY, TimeUnit.MILLISECONDS.toNanos(SHAKE_WINDOW_MILLIS));
+    // The rotation around each axis since the previous gyroscope reading.
+    private final SampleWindow twistWindow = new SampleWindow(
+            CAPACITY, TimeUnit.MILLISECONDS.toNanos(TWIST_WINDOW_MILLIS));
+
+    private boolean hasGravity;
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+    private long lastAccelNanos;
+    private long lastGyroNanos;
+
+    // The direction of the last strong reading, to spot reversals.
+    private boolean hasStrong;
+    private float strongX;
+    private float strongY;
+    private float strongZ;
+
+    private int flickState = FLICK_IDLE;
+    // 0 for the x axis, 1 for y.
+    private int flickAxis;
+    private float flickSign;
+    private float flickPeak;
+    private long flickPushNanos;
+    private long flickStopNanos;
+
+    private boolean refractory;
+    private long refractoryUntilNanos;
+
+    public GestureRecognizer(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds an accelerometer reading in m/s^2, including gravity, like Android's
+     * TYPE_ACCELEROMETER.
+     */
+    public void addAccelerometer(long timestampNanos, float x, float y, float z) {
+        if (!hasGravity) {
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+            hasGravity = true;
+        } else {
+            float dt = Math.max(0, (timestampNanos - lastAccelNanos) / 1e9f);
+            float alpha = dt / (GRAVITY_TIME_CONSTANT_SECONDS + dt);
+            gravityX += alpha * (x - gravityX);
+            gravityY += alpha * (y - gravityY);
+            gravityZ += alpha * (z - gravityZ);
+        }
+        lastAccelNanos = timestampNanos;
+        if (inRefractory(timestampNanos)) {
+            // Nothing is collected either, so the tail of a gesture can't start another one.
+            return;
+        }
+        float lx = x - gravityX;
+        float ly = y - gravityY;
+        float lz = z - gravityZ;
+
+        float reversal = 0;
+        float squared = lx * lx + ly * ly + lz * lz;
+        if (squared > SHAKE_THRESHOLD * SHAKE_THRESHOLD) {
+            if (hasStrong && lx * strongX + ly * strongY + lz * strongZ < 0) {
+                reversal = 1;
+            }
+            strongX = lx;
+            strongY = ly;
+            strongZ = lz;
+            hasStrong = true;
+        }
+        shakeWindow.add(timestampNanos, reversal, squared, 0);
+        if (shakeWindow.sumX >= SHAKE_REVERSALS) {
+            float rms = (float) Math.sqrt(shakeWindow.sumY / shakeWindow.size());
+            float confidence = Math.max(
+                    confidence((float) shakeWindow.sumX, SHAKE_REVERSALS),
+                    confidence(rms, SHAKE_THRESHOLD));
+            recognize(WearEvent.GestureType.SHAKE, confidence, timestampNanos);
+            return;
+        }
+        updateFlick(timestampNanos, lx, ly);
+    }
+
+    /**
+     * Adds a gyroscope reading in radians per second, like Android's TYPE_GYROSCOPE.
+     */
+    public void addGyroscope(long timestampNanos, float x, float y, float z) {
+        long step = timestampNanos - lastGyroNanos;
+        lastGyroNanos = timestampNanos;
+        if (step <= 0 || step > MAX_GYRO_STEP_NANOS) {
+            return;
+        }
+        if (inRefractory(timestampNanos)) {
+            return;
+        }
+        float dt = step / 1e9f;
+        twistWindow.add(timestampNanos, x * dt, y * dt, z * dt);
+        float around = (float) Math.abs(twistWindow.sumX);
+        float other = (float) Math.max(Math.abs(twistWindow.sumY), Math.abs(twistWindow.sumZ));
+        if (around >= TWIST_RADIANS && around >= DOMINANCE * other) {
+            recognize(WearEvent.GestureType.WRIST_TWIST,
+                    confidence(around, TWIST_RADIANS), timestampNanos);
+        }
+    }
+
+    /**
+     * Forgets every sample and any gesture in progress.
+     */
+    public void reset() {
+        shakeWindow.clear();
+        twistWindow.clear();
+        hasGravity = false;
+        hasStrong = false;
+        lastGyroNanos = 0;
+        flickState = FLICK_IDLE;
+        refractory = false;
+    }
+
+    /**
+     * Feeds a recorded trace through the recognizer, calling the listener for every gesture in
+     * it. Each line is a sample, "a" for the accelerometer or "g" for the gyroscope, then the
+     * timestamp in nanoseconds and the x, y and z values, separated by commas:
+     * <pre>
+     *   a,1000000,0.1,0.2,9.8
+     *   g,1000500,0.01,-0.02,0.0
+     * </pre>
+     * Blank lines and lines starting with # are skipped. Returns how many samples were read.
+     */
+    public int replay(Reader trace) throws IOException {
+        BufferedReader reader = trace instanceof BufferedReader
+                ? (BufferedReader) trace : new BufferedReader(trace);
+        int samples = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            try {
+                if (parts.length != 5) {
+                    throw new IllegalArgumentException("Expected 5 values");
+                }
+                long timestamp = Long.parseLong(parts[1].trim());
+                float x = Float.parseFloat(parts[2].trim());
+                float y = Float.parseFloat(parts[3].trim());
+                float z = Float.parseFloat(parts[4].trim());
+                switch (parts[0].trim()) {
+                    case "a":
+                        addAccelerometer(timestamp, x, y, z);
+                        break;
+                    case "g":
+                        addGyroscope(timestamp, x, y, z);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown sensor " + parts[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad trace line " + lineNumber + ": " + line, e);
+            }
+            samples++;
+        }
+        return samples;
+    }
+
+    /**
+     * Follows a flick from the push to the stop, and reports it once the arm has settled.
+     */
+    private void updateFlick(long timestampNanos, float lx, float ly) {
+        float along;
+        switch (flickState) {
+            case FLICK_IDLE:
+                float ax = Math.abs(lx);
+                float ay = Math.abs(ly);
+                if (Math.max(ax, ay) < FLICK_THRESHOLD) {
+                    return;
+                }
+                if (ax >= DOMINANCE * ay) {
+                    flickAxis = 0;
+                    flickSign = Math.signum(lx);
+                } else if (ay >= DOMINANCE * ax) {
+                    flickAxis = 1;
+                    flickSign = Math.signum(ly);
+                } else {
+                    // Diagonal, so it's not clear which way it went.
+                    return;
+                }
+                flickPeak = Math.max(ax, ay);
+                flickPushNanos = timestampNanos;
+                flickState = FLICK_PUSH;
+                return;
+            case FLICK_PUSH:
+                along = (flickAxis == 0 ? lx : ly) * flickSign;
+                if (along > flickPeak) {
+                    flickPeak = along;
+                } else if (along <= -FLICK_THRESHOLD / 2) {
+                    flickStopNanos = timestampNanos;
+                    flickState = FLICK_STOP;
+                } else if (timestampNanos - flickPushNanos
+                        > TimeUnit.MILLISECONDS.toNanos(FLICK_WINDOW_MILLIS)) {
+                    // Never stopped, so it was a drift rather than a flick.
+                    flickState = FLICK_IDLE;
+                }
+                return;
+            case FLICK_STOP:
+                along = (flickAxis == 0 ? lx : ly) * flickSign;
+                if (along >= FLICK_THRESHOLD) {
+                    // Swinging back the same way again, which is a shake.
+                    flickState = FLICK_IDLE;
+                } else if (along <= -FLICK_THRESHOLD / 2) {
+                    flickStopNanos = timestampNanos;
+                } else if (timestampNanos - flickStopNanos
+                        > TimeUnit.MILLISECONDS.toNanos(FLICK_SETTLE_MILLIS)) {
+                    WearEvent.GestureType type = flickAxis == 0
+                            ? (flickSign > 0 ? WearEvent.GestureType.FLICK_RIGHT
+                                    : WearEvent.GestureType.FLICK_LEFT)
+                            : (flickSign > 0 ? WearEvent.GestureType.FLICK_UP
+                                    : WearEvent.GestureType.FLICK_DOWN);
+                    recognize(type, confidence(flickPeak, FLICK_THRESHOLD), flickPushNanos);
+                }
+                return;
+            default:
+                break;
+        }
+    }
+
+    private void recognize(WearEvent.GestureType type, float confidence, long timestampNanos) {
+        shakeWindow.clear();
+        twistWindow.clear();
+        hasStrong = false;
+        flickState = FLICK_IDLE;
+        refractory = true;
+        refractoryUntilNanos = Math.max(lastAccelNanos, lastGyroNanos)
+                + TimeUnit.MILLISECONDS.toNanos(REFRACTORY_MILLIS);
+        listener.onGesture(type, confidence, timestampNanos);
+    }
+
+    private boolean inRefractory(long timestampNanos) {
+        if (refractory && timestampNanos - refractoryUntilNanos < 0) {
+            return true;
+        }
+        refractory = false;
+        return false;
+    }
+
+    private static float confidence(float value, float threshold) {
+        return Math.min(1, value / (2 * threshold));
+    }
+}
@@ -0,0 +1,296 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands decoded inbound events from the transport's callback thread to a dedicated dispatch
+ * thread, so neither decoding nor slow listeners ever run on the app's main looper.
+ *
+ * Events go through one of two bounded single-producer/single-consumer rings depending on the
+ * {@link InboundOverflowPolicy} of their type. Types that may be dropped share one ring, so
+ * dropping the oldest entry never throws away an event that must not be dropped. Types with the
+ * {@link InboundOverflowPolicy#BLOCK} policy use the other ring, which the dispatch thread always
+ * drains first.
+ *
+ * Handlers on the dispatch thread post too, e.g. to report availability once pairing changes.
+ * The dispatch thread can't wait for itself to make room, and must not wait on a producer that is
+ * blocked on it, so whatever it posts goes on an unbounded queue of its own instead. That queue
+ * is drained before either ring, once the current handler returns.
+ *
+ * Tasks posted from other threads, such as the app's when it asks for availability, must not
+ * block either, so they go on an unbounded queue rather than into a ring. Each one remembers how
+ * far the lossless ring had got when it was posted and waits for the events before it.
+ */
+class InboundDispatcher {
+    private static final String TAG = "com.google.unitywear.InboundDispatcher";
+
+    static final int DEFAULT_CAPACITY = 256;
+    // How long a blocked producer waits before checking for space again.
+    private static final long BLOCKED_PARK_NANOS = 50000;
+
+    interface Handler {
+        /**
+         * Called on the dispatch thread for each event, in the order they were posted to the
+         * same ring. fromMessage is false for events read from data items.
+         */
+        void handle(String sourceNodeId, WearEvent event, boolean fromMessage);
+    }
+
+    /**
+     * A fixed size ring. The producer only ever moves the tail, except when it drops the oldest
+     * entry, which it does by racing the consumer for the head with a CAS. Whoever wins owns the
+     * entry, and the producer only overwrites a slot after winning.
+     */
+    private static final class Ring {
+        final int mask;
+        final String[] sources;
+        final WearEvent[] events;
+        final boolean[] fromMessage;
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong();
+
+        Ring(int capacity) {
+            mask = capacity - 1;
+            sources = new String[capacity];
+            events = new WearEvent[capacity];
+            fromMessage = new boolean[capacity];
+        }
+
+        boolean isFull() {
+            return tail.get() - head.get() > mask;
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+    }
+
+    /**
+     * Something the dispatch thread posted to itself.
+     */
+    private static final class Entry {
+        final String source;
+        final WearEvent event;
+        final boolean fromMessage;
+        final Runnable task;
+
+        Entry(String source, WearEvent event, boolean fromMessage, Runnable task) {
+            this.source = source;
+            this.event = event;
+            this.fromMessage = fromMessage;
+            this.task = task;
+        }
+    }
+
+    /**
+     * A task posted from another thread, to run once the lossless ring's head reaches after.
+     */
+    private static final class QueuedTask {
+        final Runnable task;
+        final long after;
+
+        QueuedTask(Runnable task, long after) {
+            this.task = task;
+            this.after = after;
+        }
+    }
+
+    private final Handler handler;
+    private final WearEventPool pool;
+    private final WearMetrics metrics;
+    private final Ring lossy;
+    private final Ring lossless;
+    private final InboundOverflowPolicy[] policies;
+
+    // Only touched by the worker.
+    private final ArrayDeque<Entry> reentrant = new ArrayDeque<>();
+    // In the order they were posted.
+    private final ConcurrentLinkedQueue<QueuedTask> tasks = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+    private volatile boolean sleeping = false;
+
+    InboundDispatcher(Handler handler, WearEventPool pool, WearMetrics metrics, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.handler = handler;
+        this.pool = pool;
+        this.metrics = metrics;
+        lossy = new Ring(capacity);
+        lossless = new Ring(capacity);
+
+        policies = new InboundOverflowPolicy[WearEvent.EventType.values().length];
+        for (WearEvent.EventType type : WearEvent.EventType.values()) {
+            policies[type.ordinal()] = InboundOverflowPolicy.BLOCK;
+        }
+        policies[WearEvent.EventType.POSITION_UPDATE.ordinal()] = InboundOverflowPolicy.DROP_OLDEST;
+        policies[WearEvent.EventType.POSITION_BATCH.ordinal()] = InboundOverflowPolicy.DROP_OLDEST;
+
+        worker = new Thread(this::run, "WearInboundDispatch");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Changes the policy for a type. Only events posted afterwards are affected.
+     */
+    synchronized void setOverflowPolicy(WearEvent.EventType type, InboundOverflowPolicy policy) {
+        policies[type.ordinal()] = policy;
+    }
+
+    /**
+     * Queues an event for the dispatch thread. Producers are serialized, so this is safe to call
+     * from more than one thread, though transports only call it from one.
+     */
+    void post(String sourceNodeId, WearEvent event, boolean fromMessage) {
+        if (Thread.currentThread() == worker) {
+            reentrant.addLast(new Entry(sourceNodeId, event, fromMessage, null));
+            return;
+        }
+        postFromProducer(sourceNodeId, event, fromMessage);
+    }
+
+    private synchronized void postFromProducer(
+            String sourceNodeId, WearEvent event, boolean fromMessage) {
+        InboundOverflowPolicy policy = policies[event.eventType.ordinal()];
+        Ring ring = policy == InboundOverflowPolicy.BLOCK ? lossless : lossy;
+        if (!makeRoom(ring, policy)) {
+            metrics.recordDropped(sourceNodeId, event.eventType, event.playerNum);
+            pool.recycle(event);
+            return;
+        }
+        publish(ring, sourceNodeId, event, fromMessage);
+    }
+
+    /**
+     * Runs the task on the dispatch thread, after the events that can't be dropped posted before
+     * it. Never blocks, whichever thread it's called from.
+     */
+    void post(Runnable task) {
+        if (Thread.currentThread() == worker) {
+            reentrant.addLast(new Entry(null, null, false, task));
+            return;
+        }
+        // The offer is a full barrier, so like publish() the read of sleeping can't move before it.
+        tasks.offer(new QueuedTask(task, lossless.tail.get()));
+        if (sleeping) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Makes sure the ring has a free slot. Returns false if the new entry should be dropped
+     * instead.
+     */
+    private boolean makeRoom(Ring ring, InboundOverflowPolicy policy) {
+        while (ring.isFull()) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    long head = ring.head.get();
+                    int index = (int) (head & ring.mask);
+                    WearEvent oldest = ring.events[index];
+                    String source = ring.sources[index];
+                    if (ring.head.compareAndSet(head, head + 1) && oldest != null) {
+                        metrics.recordDropped(source, oldest.eventType, oldest.playerNum);
+                        pool.recycle(oldest);
+                    }
+                    break;
+                case BLOCK:
+                    if (!running) {
+                        return false;
+                    }
+                    LockSupport.unpark(worker);
+                    LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void publish(Ring ring, String sourceNodeId, WearEvent event, boolean fromMessage) {
+        long tail = ring.tail.get();
+        int index = (int) (tail & ring.mask);
+        ring.sources[index] = sourceNodeId;
+        ring.events[index] = event;
+        ring.fromMessage[index] = fromMessage;
+        // A full volatile write rather than lazySet: the read of sleeping below must not be
+        // reordered before it, or we could miss the worker going to sleep on the old tail while
+        // it misses the new one, and the event would wait for the next post.
+        ring.tail.set(tail + 1);
+        if (sleeping) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            Entry entry = reentrant.pollFirst();
+            if (entry != null) {
+                handle(entry.source, entry.event, entry.fromMessage, entry.task);
+                continue;
+            }
+            QueuedTask queued = tasks.peek();
+            if (queued != null && lossless.head.get() - queued.after >= 0) {
+                tasks.poll();
+                handle(null, null, false, queued.task);
+                continue;
+            }
+            if (drainOne(lossless) || drainOne(lossy)) {
+                continue;
+            }
+            sleeping = true;
+            // Check again after announcing we're going to sleep, so a post that raced with us
+            // either lands before this check or sees sleeping and unparks us.
+            if (tasks.isEmpty() && lossless.isEmpty() && lossy.isEmpty() && running) {
+                LockSupport.park(this);
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Takes one entry off the ring and handles it. Returns false if the ring was empty.
+     */
+    private boolean drainOne(Ring ring) {
+        while (true) {
+            long head = ring.head.get();
+            if (head == ring.tail.get()) {
+                return false;
+            }
+            int index = (int) (head & ring.mask);
+            String source = ring.sources[index];
+            WearEvent event = ring.events[index];
+            boolean fromMessage = ring.fromMessage[index];
+            if (!ring.head.compareAndSet(head, head + 1)) {
+                // The producer dropped this entry to make room, try the next one.
+                continue;
+            }
+            handle(source, event, fromMessage, null);
+            return true;
+        }
+    }
+
+    private void handle(String source, WearEvent event, boolean fromMessage, Runnable task) {
+        try {
+            if (task != null) {
+                task.run();
+            } else {
+                handler.handle(source, event, fromMessage);
+            }
+        } catch (RuntimeException e) {
+            WearLog.e(TAG, "Inbound handler failed", e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.wearcontrolgames.unitywearapi;
+
+/**
+ * What happens to an inbound event when the dispatch queue is full because listeners can't keep
+ * up. Set per event type with {@link WearDataLayerCore#setInboundOverflowPolicy}.
+ */
+public enum InboundOverflowPolicy {
+    /** Throw away the oldest queued event that may be dropped. The default for position input. */
+    DROP_OLDEST,
+    /** Throw away the new event. */
+    DROP_NEWEST,
+    /** Never drop. The transport's callback thread waits for room. The default for everything else. */
+    BLOCK
+}
@@ -0,0 +1,244 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short jitter buffer of position samples per player, played back a fixed delay behind real
+ * time so samples that arrive unevenly can be interpolated smoothly. When the buffer runs dry the
+ * last known velocity is extrapolated for a limited time, after which the position holds.
+ *
+ * Samples are placed on our clock using the sender's timestamp when there is one, so the buffer
+ * smooths out the jitter the transport adds instead of reproducing it. The offset between the two
+ * clocks is estimated as the smallest difference seen between a sample's send and receive times,
+ * which is the sample that was delayed the least.
+ */
+class InputSmoother {
+    static final int CAPACITY = 32;
+
+    /** Set on a sampled position that lies between two received samples. */
+    static final int STATE_INTERPOLATED = 1;
+    /** Set on a sampled position that was extrapolated past the newest sample. */
+    static final int STATE_EXTRAPOLATED = 1 << 1;
+    /** Set once extrapolation has hit its limit and the position is holding still. */
+    static final int STATE_HOLDING = 1 << 2;
+
+    // int player, float x, float y, int state.
+    static final int RECORD_SIZE = 16;
+
+    // How fast the clock offset estimate creeps back up when it hasn't seen a faster sample in a
+    // while, as a fraction of the difference per sample. Lets it follow clock drift.
+    private static final int OFFSET_RELAX_SHIFT = 8;
+
+    static final class Settings {
+        final long delayNanos;
+        final long maxExtrapolationNanos;
+        final double snapDistance;
+
+        Settings(float delayMillis, float maxExtrapolationMillis, float snapDistance) {
+            if (delayMillis < 0 || maxExtrapolationMillis < 0 || snapDistance < 0) {
+                throw new IllegalArgumentException("Smoothing settings can't be negative");
+            }
+            delayNanos = (long) (delayMillis * 1000000);
+            maxExtrapolationNanos = (long) (maxExtrapolationMillis * 1000000);
+            this.snapDistance = snapDistance;
+        }
+    }
+
+    private static final class Track {
+        final long[] timesNanos = new long[CAPACITY];
+        final double[] xs = new double[CAPACITY];
+        final double[] ys = new double[CAPACITY];
+        int start;
+        int count;
+        // Our nanoTime minus the sender's clock, in microseconds. Valid once hasOffset is set.
+        long offsetMicros;
+        boolean hasOffset;
+
+        void clear() {
+            start = 0;
+            count = 0;
+        }
+
+        int index(int i) {
+            return (start + i) % CAPACITY;
+        }
+    }
+
+    private final Settings[] settings = new Settings[WearEvent.ControllerType.values().length];
+    private final ConcurrentHashMap<Integer, WearEvent.ControllerType> controllerTypes =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Track> tracks = new ConcurrentHashMap<>();
+
+    InputSmoother() {
+        setSettings(WearEvent.ControllerType.UNKNOWN, 50, 50, 0.5f);
+        setSettings(WearEvent.ControllerType.SLIDER, 40, 40, 0.5f);
+        setSettings(WearEvent.ControllerType.ANALOG, 50, 60, 0.75f);
+        // A d-pad jumps between positions, so there's nothing to smooth.
+        setSettings(WearEvent.ControllerType.DPAD, 0, 0, 0);
+    }
+
+    void setSettings(WearEvent.ControllerType type, float delayMillis,
+            float maxExtrapolationMillis, float snapDistance) {
+        settings[type.ordinal()] =
+                new Settings(delayMillis, maxExtrapolationMillis, snapDistance);
+    }
+
+    void setControllerType(int playerNum, WearEvent.ControllerType type) {
+        if (type != null) {
+            controllerTypes.put(playerNum, type);
+        }
+    }
+
+    void clearPlayer(int playerNum) {
+        tracks.remove(playerNum);
+        controllerTypes.remove(playerNum);
+    }
+
+    void clearAll() {
+        tracks.clear();
+    }
+
+    /**
+     * Adds a dispatched POSITION_UPDATE to its player's buffer.
+     */
+    void add(WearEvent event, long nowNanos) {
+        Track track = tracks.get(event.playerNum);
+        if (track == null) {
+            track = tracks.computeIfAbsent(event.playerNum, id -> new Track());
+        }
+        Settings settings = settingsFor(event.playerNum);
+        synchronized (track) {
+            long timeNanos = sampleTime(track, event, nowNanos);
+            if (track.count > 0) {
+                int newest = track.index(track.count - 1);
+                if (timeNanos <= track.timesNanos[newest]) {
+                    // Out of order or a duplicate, playback has already moved past it.
+                    return;
+                }
+                double dx = event.posX - track.xs[newest];
+                double dy = event.posY - track.ys[newest];
+                if (dx * dx + dy * dy > settings.snapDistance * settings.snapDistance) {
+                    // Too far to slide there, so jump.
+                    track.clear();
+                }
+            }
+            if (track.count == CAPACITY) {
+                track.start = track.index(1);
+                track.count--;
+            }
+            int index = track.index(track.count++);
+            track.timesNanos[index] = timeNanos;
+            track.xs[index] = event.posX;
+            track.ys[index] = event.posY;
+        }
+    }
+
+    /**
+     * Writes the player's smoothed position for the given time into out as {x, y} and returns
+     * its STATE_* flags, or -1 if there is no sample for the player yet.
+     */
+    int sample(int playerNum, long nowNanos, double[] out) {
+        Track track = tracks.get(playerNum);
+        if (track == null) {
+            return -1;
+        }
+        Settings settings = settingsFor(playerNum);
+        synchronized (track) {
+            if (track.count == 0) {
+                return -1;
+            }
+            long playbackNanos = nowNanos - settings.delayNanos;
+            // Drop samples that playback has moved past, keeping one on either side of it.
+            while (track.count > 2 && track.timesNanos[track.index(1)] <= playbackNanos) {
+                track.start = track.index(1);
+                track.count--;
+            }
+            int oldest = track.index(0);
+            if (playbackNanos <= track.timesNanos[oldest]) {
+                out[0] = track.xs[oldest];
+                out[1] = track.ys[oldest];
+                return 0;
+            }
+            for (int i = 1; i < track.count; i++) {
+                int to = track.index(i);
+                if (playbackNanos <= track.timesNanos[to]) {
+                    int from = track.index(i - 1);
+                    double t = (double) (playbackNanos - track.timesNanos[from])
+                            / (track.timesNanos[to] - track.timesNanos[from]);
+                    out[0] = track.xs[from] + (track.xs[to] - track.xs[from]) * t;
+                    out[1] = track.ys[from] + (track.ys[to] - track.ys[from]) * t;
+                    return STATE_INTERPOLATED;
+                }
+            }
+            int newest = track.index(track.count - 1);
+            out[0] = track.xs[newest];
+            out[1] = track.ys[newest];
+            if (track.count < 2 || settings.maxExtrapolationNanos == 0) {
+                // Nothing to extrapolate from, or it's turned off.
+                return 0;
+            }
+            int previous = track.index(track.count - 2);
+            long ahead = playbackNanos - track.timesNanos[newest];
+            int state = STATE_EXTRAPOLATED;
+            if (ahead > settings.maxExtrapolationNanos) {
+                ahead = settings.maxExtrapolationNanos;
+                state |= STATE_HOLDING;
+            }
+            double t = (double) ahead / (track.timesNanos[newest] - track.timesNanos[previous]);
+            out[0] += (track.xs[newest] - track.xs[previous]) * t;
+            out[1] += (track.ys[newest] - track.ys[previous]) * t;
+            return state;
+        }
+    }
+
+    /**
+     * Writes a record per player with samples into the buffer, as many as fit, and returns how
+     * many were written.
+     */
+    int sampleAll(long nowNanos, ByteBuffer buffer, double[] scratch) {
+        int written = 0;
+        for (Integer playerNum : tracks.keySet()) {
+            if (buffer.remaining() < RECORD_SIZE) {
+                break;
+            }
+            int state = sample(playerNum, nowNanos, scratch);
+            if (state < 0) {
+                continue;
+            }
+            buffer.putInt(playerNum);
+            buffer.putFloat((float) scratch[0]);
+            buffer.putFloat((float) scratch[1]);
+            buffer.putInt(state);
+            written++;
+        }
+        return written;
+    }
+
+    private Settings settingsFor(int playerNum) {
+        WearEvent.ControllerType type = controllerTypes.get(playerNum);
+        return settings[(type != null ? type : WearEvent.ControllerType.UNKNOWN).ordinal()];
+    }
+
+    /**
+     * When the sample was taken, on our nanoTime clock.
+     */
+    private static long sampleTime(Track track, WearEvent event, long nowNanos) {
+        if (event.timestampNanos != 0) {
+            // Already placed on our clock, e.g. a sample unpacked from a batch.
+            return event.timestampNanos;
+        }
+        if (event.sentTimeMicros <= 0) {
+            return nowNanos;
+        }
+        long observed = TimeUnit.NANOSECONDS.toMicros(nowNanos) - event.sentTimeMicros;
+        if (!track.hasOffset || observed < track.offsetMicros) {
+            track.offsetMicros = observed;
+            track.hasOffset = true;
+        } else {
+            track.offsetMicros += (observed - track.offsetMicros) >> OFFSET_RELAX_SHIFT;
+        }
+        return TimeUnit.MICROSECONDS.toNanos(event.sentTimeMicros + track.offsetMicros);
+    }
+}
@@ -0,0 +1,97 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in microseconds. Bucket i counts values below 2^i, so
+ * percentiles are accurate to within a factor of two, which is plenty to tell a 5ms link from a
+ * 50ms one. Recording never allocates.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long seen;
+        while (micros < (seen = min.get()) && !min.compareAndSet(seen, micros)) {
+            // Retry until we've either lowered it or someone else went lower.
+        }
+        while (micros > (seen = max.get()) && !max.compareAndSet(seen, micros)) {
+            // Same for the maximum.
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMinMicros() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile, between 0 and 100.
+     */
+    public long getPercentileMicros(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                long upper = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upper, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    JSONObject toJson() throws JSONException {
+        return new JSONObject()
+                .put("count", getCount())
+                .put("minMicros", getMinMicros())
+                .put("maxMicros", getMaxMicros())
+                .put("meanMicros", getMeanMicros())
+                .put("p50Micros", getPercentileMicros(50))
+                .put("p90Micros", getPercentileMicros(90))
+                .put("p99Micros", getPercentileMicros(99));
+    }
+}
@@ -0,0 +1,149 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Which listeners get an event, worked out ahead of time for every event type and player, so
+ * dispatch is two array lookups and never tests a filter. Tables are immutable: subscribing or
+ * unsubscribing builds a new one, and dispatch walks whichever table was current when it started.
+ *
+ * Each event type has a row of listener arrays. Slot 0 is for events that aren't about a player,
+ * which every subscriber to the type gets. Slot 1 is for players nobody subscribed to by number,
+ * and slot 2 + n for player n. Players without subscribers of their own share slot 1's array.
+ */
+final class ListenerTable {
+    // Keeps the rows small enough to rebuild whenever a listener comes or goes.
+    static final int MAX_PLAYER = 1023;
+
+    static final class Subscription {
+        final WearDataLayerCore.Listener listener;
+        // Null for every type.
+        @Nullable
+        final EnumSet<WearEvent.EventType> eventTypes;
+        // WearDataLayerCore.ALL_PLAYERS for every player.
+        final int playerNum;
+
+        Subscription(WearDataLayerCore.Listener listener,
+                @Nullable Set<WearEvent.EventType> eventTypes, int playerNum) {
+            if (playerNum < WearDataLayerCore.ALL_PLAYERS || playerNum > MAX_PLAYER) {
+                throw new IllegalArgumentException("Can't subscribe to player " + playerNum);
+            }
+            this.listener = listener;
+            this.eventTypes = eventTypes == null || eventTypes.isEmpty()
+                    ? null : EnumSet.copyOf(eventTypes);
+            this.playerNum = playerNum;
+        }
+
+        boolean wantsType(WearEvent.EventType type) {
+            return eventTypes == null || eventTypes.contains(type);
+        }
+    }
+
+    private static final WearEvent.EventType[] TYPES = WearEvent.EventType.values();
+    private static final WearDataLayerCore.Listener[] NONE = new WearDataLayerCore.Listener[0];
+
+    // Declared after the constants its constructor reads.
+    static final ListenerTable EMPTY = new ListenerTable(new Subscription[0]);
+
+    // In the order they were first added, which is the order listeners are called in.
+    private final Subscription[] subscriptions;
+    private final WearDataLayerCore.Listener[][][] rows;
+
+    private ListenerTable(Subscription[] subscriptions) {
+        this.subscriptions = subscriptions;
+        int maxPlayer = -1;
+        boolean[] subscribed = new boolean[MAX_PLAYER + 1];
+        for (Subscription subscription : subscriptions) {
+            if (subscription.playerNum >= 0) {
+                subscribed[subscription.playerNum] = true;
+                maxPlayer = Math.max(maxPlayer, subscription.playerNum);
+            }
+        }
+        rows = new WearDataLayerCore.Listener[TYPES.length][][];
+        for (WearEvent.EventType type : TYPES) {
+            WearDataLayerCore.Listener[][] row = new WearDataLayerCore.Listener[maxPlayer + 3][];
+            row[0] = collect(type, Integer.MIN_VALUE);
+            row[1] = collect(type, WearDataLayerCore.ALL_PLAYERS);
+            for (int player = 0; player <= maxPlayer; player++) {
+                row[player + 2] = subscribed[player] ? collect(type, player) : row[1];
+            }
+            rows[type.ordinal()] = row;
+        }
+    }
+
+    /**
+     * The listeners for an event, in the order they should be called. Never null, and must not be
+     * modified.
+     */
+    WearDataLayerCore.Listener[] listenersFor(WearEvent.EventType type, int playerNum) {
+        WearDataLayerCore.Listener[][] row = rows[type.ordinal()];
+        return playerNum < 0 ? row[0] : playerNum + 2 < row.length ? row[playerNum + 2] : row[1];
+    }
+
+    /**
+     * A table with the subscription added, or replacing the listener's earlier one in place.
+     */
+    ListenerTable with(Subscription subscription) {
+        Subscription[] updated;
+        int existing = indexOf(subscription.listener);
+        if (existing >= 0) {
+            updated = subscriptions.clone();
+            updated[existing] = subscription;
+        } else {
+            updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            updated[subscriptions.length] = subscription;
+        }
+        return new ListenerTable(updated);
+    }
+
+    /**
+     * A table without the listener, or this one if it isn't subscribed.
+     */
+    ListenerTable without(WearDataLayerCore.Listener listener) {
+        int existing = indexOf(listener);
+        if (existing < 0) {
+            return this;
+        }
+        Subscription[] updated = new Subscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, updated, 0, existing);
+        System.arraycopy(subscriptions, existing + 1, updated, existing,
+                subscriptions.length - existing - 1);
+        return updated.length == 0 ? EMPTY : new ListenerTable(updated);
+    }
+
+    boolean contains(WearDataLayerCore.Listener listener) {
+        return indexOf(listener) >= 0;
+    }
+
+    private int indexOf(WearDataLayerCore.Listener listener) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The listeners for the type and player, where Integer.MIN_VALUE stands for events without a
+     * player and ALL_PLAYERS for players without subscribers of their own.
+     */
+    private WearDataLayerCore.Listener[] collect(WearEvent.EventType type, int player) {
+        List<WearDataLayerCore.Listener> matching = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.wantsType(type)
+                    && (player == Integer.MIN_VALUE
+                            || subscription.playerNum == WearDataLayerCore.ALL_PLAYERS
+                            || subscription.playerNum == player)) {
+                matching.add(subscription.listener);
+            }
+        }
+        return matching.isEmpty() ? NONE : matching.toArray(NONE);
+    }
+}
@@ -0,0 +1,119 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices paired nodes that have gone silent, e.g. a watch that walked out of range or whose app
+ * died, without waiting for a DISCONNECT that will never come.
+ *
+ * Anything that arrives from a node counts as a heartbeat, so a node streaming updates costs
+ * nothing extra. Once a node has been quiet for a whole interval it gets a PING, whose PONG
+ * counts as hearing from it, and since the other side does the same an idle link carries one
+ * PING and one PONG per interval. A node that stays quiet for {@link #SUSPECT_MISSES} intervals
+ * is suspect, and one quiet for the miss threshold is dead. Checks run every half interval, so a
+ * dead node is noticed at most half an interval after the threshold.
+ */
+class LivenessMonitor {
+    static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    static final int DEFAULT_MISS_THRESHOLD = 4;
+    // One PING went unanswered for a whole interval.
+    static final int SUSPECT_MISSES = 2;
+
+    enum State {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    interface Listener {
+        /**
+         * Asks for a heartbeat to be sent to the node. Called on the checking thread.
+         */
+        void onHeartbeatDue(String nodeId);
+
+        /**
+         * Called on the checking thread when the node's state changes. A dead node is forgotten
+         * right after, and only watched again once it's paired again.
+         */
+        void onStateChanged(String nodeId, State state);
+    }
+
+    private static final class Peer {
+        volatile long heardNanos;
+        long heartbeatNanos;
+        State state = State.ALIVE;
+
+        Peer(long now) {
+            heardNanos = now;
+            // The first heartbeat goes out as soon as the node has been quiet for an interval.
+            heartbeatNanos = now - TimeUnit.HOURS.toNanos(1);
+        }
+    }
+
+    private final Listener listener;
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private volatile long intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL_MILLIS);
+    private volatile int missThreshold = DEFAULT_MISS_THRESHOLD;
+
+    LivenessMonitor(Listener listener) {
+        this.listener = listener;
+    }
+
+    void configure(long intervalMillis, int missThreshold) {
+        if (intervalMillis <= 0 || missThreshold < SUSPECT_MISSES) {
+            throw new IllegalArgumentException("Bad liveness settings: every " + intervalMillis
+                    + " ms, dead after " + missThreshold);
+        }
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.missThreshold = missThreshold;
+    }
+
+    long intervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Records that something just arrived from the node. Safe to call from any thread, and cheap
+     * enough for every message.
+     */
+    void heardFrom(String nodeId) {
+        Peer peer = peers.get(nodeId);
+        if (peer != null) {
+            peer.heardNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Checks every node in watched, which should be the paired ones, and stops watching any
+     * others. Nodes new to the set count as just heard from. Called from a single thread.
+     */
+    void check(Set<String> watched) {
+        long now = System.nanoTime();
+        peers.keySet().retainAll(watched);
+        long interval = intervalNanos;
+        int threshold = missThreshold;
+        for (String nodeId : watched) {
+            Peer peer = peers.computeIfAbsent(nodeId, id -> new Peer(now));
+            long quiet = now - peer.heardNanos;
+            long misses = quiet / interval;
+            State state = misses >= threshold ? State.DEAD
+                    : misses >= SUSPECT_MISSES ? State.SUSPECT : State.ALIVE;
+            if (state == State.DEAD) {
+                peers.remove(nodeId);
+            } else if (misses >= 1 && now - peer.heartbeatNanos >= interval) {
+                peer.heartbeatNanos = now;
+                listener.onHeartbeatDue(nodeId);
+            }
+            if (state != peer.state) {
+                peer.state = state;
+                listener.onStateChanged(nodeId, state);
+            }
+        }
+    }
+
+    void clear() {
+        peers.clear();
+    }
+}
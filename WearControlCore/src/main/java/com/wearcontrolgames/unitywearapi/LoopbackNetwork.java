@@ -0,0 +1,159 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-process stand in for the Wear OS Data Layer. Each simulated device gets a
+ * {@link LoopbackTransport} from {@link #createNode(String)}, which can be handed to a
+ * {@link WearDataLayerCore}. Messages are delayed by a configurable latency and jitter and can be
+ * dropped at random. Messages between two nodes are still delivered in the order they were sent,
+ * like the real link. Data items are never dropped.
+ *
+ * All nodes advertise the wear control capability, and every node can reach every other one
+ * unless {@link #setReachable(String, boolean)} says otherwise.
+ */
+public class LoopbackNetwork {
+    private final Map<String, LoopbackTransport> nodes = new ConcurrentHashMap<>();
+    // Data items by uri, which is "wear://<sender node>/<path>".
+    private final Map<String, DataItem> dataItems = new ConcurrentHashMap<>();
+    private final Random random;
+
+    private volatile long latencyNanos = 0;
+    private volatile long jitterNanos = 0;
+    private volatile double lossRate = 0;
+    private volatile long messageIntervalNanos = 0;
+
+    static final class DataItem {
+        final String uri;
+        final String path;
+        final String senderNodeId;
+        final String event;
+
+        DataItem(String uri, String path, String senderNodeId, String event) {
+            this.uri = uri;
+            this.path = path;
+            this.senderNodeId = senderNodeId;
+            this.event = event;
+        }
+    }
+
+    public LoopbackNetwork() {
+        this(new Random());
+    }
+
+    /**
+     * Uses the given random source for jitter and loss, so runs can be repeated with a seed.
+     */
+    public LoopbackNetwork(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets the one way delay of every message and data item. Each delivery is delayed by
+     * latencyMicros plus or minus up to jitterMicros.
+     */
+    public LoopbackNetwork setLatency(long latencyMicros, long jitterMicros) {
+        this.latencyNanos = latencyMicros * 1000;
+        this.jitterNanos = jitterMicros * 1000;
+        return this;
+    }
+
+    /**
+     * Sets the chance, from 0 to 1, that a message is silently dropped.
+     */
+    public LoopbackNetwork setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * Limits how many messages per second each node can send, like a congested Bluetooth link.
+     * Messages over the limit wait their turn, and the send only completes once the message
+     * leaves. Zero or less removes the limit, which is the default.
+     */
+    public LoopbackNetwork setMessageRate(float messagesPerSecond) {
+        this.messageIntervalNanos = messagesPerSecond > 0 ? (long) (1e9 / messagesPerSecond) : 0;
+        return this;
+    }
+
+    public LoopbackTransport createNode(String nodeId) {
+        LoopbackTransport transport = new LoopbackTransport(this, nodeId);
+        nodes.put(nodeId, transport);
+        notifyReachabilityChanged();
+        return transport;
+    }
+
+    /**
+     * Takes a node out of (or back into) range of every other node.
+     */
+    public void setReachable(String nodeId, boolean reachable) {
+        LoopbackTransport transport = nodes.get(nodeId);
+        if (transport != null && transport.reachable != reachable) {
+            transport.reachable = reachable;
+            notifyReachabilityChanged();
+        }
+    }
+
+    /**
+     * Stops the delivery threads of every node.
+     */
+    public void shutdown() {
+        for (LoopbackTransport transport : nodes.values()) {
+            transport.shutdown();
+        }
+        nodes.clear();
+    }
+
+    boolean isLinked(String fromNodeId, String toNodeId) {
+        LoopbackTransport from = nodes.get(fromNodeId);
+        LoopbackTransport to = nodes.get(toNodeId);
+        return from != null && to != null && from.reachable && to.reachable;
+    }
+
+    LoopbackTransport node(String nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    List<String> reachableNodesFor(String nodeId) {
+        List<String> reachable = new ArrayList<>();
+        for (LoopbackTransport transport : nodes.values()) {
+            if (!transport.nodeId.equals(nodeId) && isLinked(nodeId, transport.nodeId)) {
+                reachable.add(transport.nodeId);
+            }
+        }
+        return reachable;
+    }
+
+    Map<String, DataItem> dataItems() {
+        return dataItems;
+    }
+
+    Iterable<LoopbackTransport> allNodes() {
+        return nodes.values();
+    }
+
+    long messageIntervalNanos() {
+        return messageIntervalNanos;
+    }
+
+    synchronized boolean shouldDrop() {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    synchronized long nextDelayNanos() {
+        long jitter = jitterNanos > 0
+                ? (long) ((random.nextDouble() * 2 - 1) * jitterNanos)
+                : 0;
+        return Math.max(0, latencyNanos + jitter);
+    }
+
+    private void notifyReachabilityChanged() {
+        for (LoopbackTransport transport : nodes.values()) {
+            transport.onReachabilityChanged();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One simulated device on a {@link LoopbackNetwork}. Everything this node receives is delivered on
+ * its own thread, the same way Play Services delivers on the app's main looper.
+ */
+public class LoopbackTransport implements WearTransport {
+    private static final String URI_PREFIX = "wear://";
+
+    private final LoopbackNetwork network;
+    final String nodeId;
+    volatile boolean reachable = true;
+
+    private final ScheduledExecutorService deliveryThread;
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    // When the last delivery from each sender is due, so deliveries from a sender keep their order.
+    private final Map<String, Long> lastDeliveryNanos = new HashMap<>();
+    // Deliveries from each sender that haven't run yet, oldest first.
+    private final Map<String, ArrayDeque<Runnable>> pendingDeliveries = new HashMap<>();
+    private Set<String> lastReachable = new HashSet<>();
+    // When this node's link is free to send the next message, if the network limits the rate.
+    private long linkFreeAtNanos;
+
+    private volatile Receiver receiver;
+
+    LoopbackTransport(LoopbackNetwork network, String nodeId) {
+        this.network = network;
+        this.nodeId = nodeId;
+        deliveryThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Loopback-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public CompletableFuture<String> getLocalNodeId() {
+        return CompletableFuture.completedFuture(nodeId);
+    }
+
+    @Override
+    public CompletableFuture<Integer> sendMessage(String targetNodeId, String path, byte[] data) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        LoopbackTransport target = network.node(targetNodeId);
+        if (target == null || !network.isLinked(nodeId, targetNodeId)) {
+            result.completeExceptionally(
+                    new IllegalStateException("Node " + targetNodeId + " is not reachable"));
+            return result;
+        }
+        // The receiver owns the array it gets, so don't let the sender reuse it under us.
+        byte[] copy = data.clone();
+        long waitNanos = reserveLink();
+        if (waitNanos >= 0 && !deliveryThread.isShutdown()) {
+            // Even a message that doesn't have to wait goes through the delivery thread, so it
+            // can't overtake one that's due but hasn't left yet.
+            deliveryThread.schedule(() -> leave(target, path, copy, result),
+                    waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            leave(target, path, copy, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns how long the next message has to wait for the link and books its turn, or -1 if the
+     * network doesn't limit the rate.
+     */
+    private synchronized long reserveLink() {
+        long interval = network.messageIntervalNanos();
+        if (interval <= 0) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        long leaveAt = Math.max(now, linkFreeAtNanos);
+        linkFreeAtNanos = leaveAt + interval;
+        return leaveAt - now;
+    }
+
+    private void leave(
+            LoopbackTransport target, String path, byte[] data, CompletableFuture<Integer> result) {
+        // Like MessageClient, a message counts as sent once it leaves, whether it arrives or not.
+        result.complete(nextRequestId.getAndIncrement());
+        if (network.shouldDrop()) {
+            return;
+        }
+        String targetNodeId = target.nodeId;
+        target.deliver(nodeId, () -> {
+            Receiver r = target.receiver;
+            if (r != null && network.isLinked(nodeId, targetNodeId)) {
+                r.onMessageReceived(nodeId, path, data);
+            }
+        });
+    }
+
+    @Override
+    public String putDataItem(String path, String senderNodeId, String event, long timestampMillis) {
+        String uri = URI_PREFIX + nodeId + path;
+        network.dataItems().put(uri, new LoopbackNetwork.DataItem(uri, path, senderNodeId, event));
+        for (LoopbackTransport target : network.allNodes()) {
+            if (target == this || network.isLinked(nodeId, target.nodeId)) {
+                target.deliver(nodeId, () -> {
+                    Receiver r = target.receiver;
+                    if (r != null) {
+                        r.onDataItemChanged(uri, senderNodeId, event);
+                    }
+                });
+            }
+        }
+        // Like PutDataMapRequest, the returned uri has no host so it matches the path on any node.
+        return "wear:" + path;
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteDataItems(String uri) {
+        return deleteMatching(uri, false);
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteDataItemsWithPrefix(String uriPrefix) {
+        return deleteMatching(uriPrefix, true);
+    }
+
+    private CompletableFuture<Integer> deleteMatching(String uri, boolean prefix) {
+        List<String> deleted = new ArrayList<>();
+        Iterator<LoopbackNetwork.DataItem> items = network.dataItems().values().iterator();
+        while (items.hasNext()) {
+            LoopbackNetwork.DataItem item = items.next();
+            if (matches(uri, prefix, item)) {
+                items.remove();
+                deleted.add(item.uri);
+            }
+        }
+        for (LoopbackTransport target : network.allNodes()) {
+            target.deliver(nodeId, () -> {
+                Receiver r = target.receiver;
+                if (r != null) {
+                    for (String deletedUri : deleted) {
+                        r.onDataItemDeleted(deletedUri);
+                    }
+                }
+            });
+        }
+        return CompletableFuture.completedFuture(deleted.size());
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getDataItemUris() {
+        return CompletableFuture.completedFuture(new ArrayList<>(network.dataItems().keySet()));
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getReachableNodes() {
+        return CompletableFuture.completedFuture(new HashSet<>(network.reachableNodesFor(nodeId)));
+    }
+
+    @Override
+    public CompletableFuture<Channel> openChannel(String targetNodeId, String path) {
+        CompletableFuture<Channel> result = new CompletableFuture<>();
+        LoopbackTransport target = network.node(targetNodeId);
+        if (target == null || !network.isLinked(nodeId, targetNodeId)) {
+            result.completeExceptionally(
+                    new IllegalStateException("Node " + targetNodeId + " is not reachable"));
+            return result;
+        }
+        LoopbackChannel channel;
+        try {
+            channel = new LoopbackChannel(target);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        target.deliver(nodeId, () -> {
+            Receiver r = target.receiver;
+            if (r != null && network.isLinked(nodeId, targetNodeId)) {
+                r.onChannelOpened(nodeId, path, channel.input);
+            } else {
+                channel.close();
+            }
+        });
+        result.complete(channel);
+        return result;
+    }
+
+    void onReachabilityChanged() {
+        Set<String> reachableNow = new HashSet<>(network.reachableNodesFor(nodeId));
+        synchronized (this) {
+            if (reachableNow.equals(lastReachable)) {
+                return;
+            }
+            lastReachable = reachableNow;
+        }
+        deliveryThread.execute(() -> {
+            Receiver r = receiver;
+            if (r != null) {
+                r.onReachableNodesChanged(reachableNow);
+            }
+        });
+    }
+
+    void shutdown() {
+        deliveryThread.shutdownNow();
+    }
+
+    /**
+     * Schedules the delivery after the network's latency, but never before the previous delivery
+     * from the same sender. Each scheduled run takes the sender's oldest pending delivery, so two
+     * deliveries that come due at the same moment still run in the order they were sent.
+     */
+    private void deliver(String senderNodeId, Runnable delivery) {
+        long now = System.nanoTime();
+        long due = now + network.nextDelayNanos();
+        synchronized (lastDeliveryNanos) {
+            Long last = lastDeliveryNanos.get(senderNodeId);
+            if (last != null && last > due) {
+                due = last;
+            }
+            lastDeliveryNanos.put(senderNodeId, due);
+            pendingDeliveries.computeIfAbsent(senderNodeId, id -> new ArrayDeque<>())
+                    .addLast(delivery);
+        }
+        if (!deliveryThread.isShutdown()) {
+            deliveryThread.schedule(
+                    () -> runNextDelivery(senderNodeId), due - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void runNextDelivery(String senderNodeId) {
+        Runnable next;
+        synchronized (lastDeliveryNanos) {
+            next = pendingDeliveries.get(senderNodeId).pollFirst();
+        }
+        next.run();
+    }
+
+    /**
+     * A channel to another node. Writes are delivered with the network's latency, in order with
+     * everything else this node sends, but are never dropped. Once the link drops, the next write
+     * fails and closes the channel, and the reading end sees it end.
+     */
+    private final class LoopbackChannel extends OutputStream implements Channel {
+        // Big enough that delivering never waits on a reader that keeps up.
+        private static final int PIPE_SIZE = 64 * 1024;
+
+        private final LoopbackTransport target;
+        final PipedInputStream input = new PipedInputStream(PIPE_SIZE);
+        // Only written to on the target's delivery thread.
+        private final PipedOutputStream pipe = new PipedOutputStream();
+        private volatile boolean closed;
+
+        LoopbackChannel(LoopbackTransport target) throws IOException {
+            this.target = target;
+            pipe.connect(input);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return this;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (closed || !network.isLinked(nodeId, target.nodeId)) {
+                close();
+                throw new IOException("Channel to " + target.nodeId + " is closed");
+            }
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            target.deliver(nodeId, () -> {
+                try {
+                    pipe.write(copy);
+                    // Wakes the reader, which otherwise polls about once a second.
+                    pipe.flush();
+                } catch (IOException e) {
+                    // The reader went away, so nobody is listening.
+                    close();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            target.deliver(nodeId, () -> {
+                try {
+                    pipe.close();
+                } catch (IOException e) {
+                    // Already closed.
+                }
+            });
+        }
+    }
+
+    /**
+     * Matches uris the way DataClient does: "wear://node/path" only matches that node's item,
+     * while "wear:/path" matches the path on every node.
+     */
+    private static boolean matches(String uri, boolean prefix, LoopbackNetwork.DataItem item) {
+        String candidate = uri.startsWith(URI_PREFIX) ? item.uri : "wear:" + item.path;
+        return prefix ? candidate.startsWith(uri) : candidate.equals(uri);
+    }
+}
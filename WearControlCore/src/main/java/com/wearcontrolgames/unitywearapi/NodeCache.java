@@ -0,0 +1,84 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The last known set of reachable nodes, so nothing ever has to wait on the transport to find out
+ * which nodes are around. The transport's reachability callbacks keep it current. On top of that,
+ * reading it after it has expired starts an asynchronous refresh and returns the old snapshot in
+ * the meantime.
+ */
+class NodeCache {
+    private static final String TAG = "com.google.unitywear.NodeCache";
+
+    static final long DEFAULT_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final WearTransport transport;
+    // Called after every update, on whichever thread delivered it.
+    private final Runnable onUpdate;
+
+    private volatile Set<String> nodes = Collections.emptySet();
+    private volatile boolean loaded = false;
+    private volatile long updatedAtNanos;
+    private volatile long expiryNanos = DEFAULT_EXPIRY_NANOS;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    NodeCache(WearTransport transport, Runnable onUpdate) {
+        this.transport = transport;
+        this.onUpdate = onUpdate;
+    }
+
+    void setExpiryNanos(long expiryNanos) {
+        this.expiryNanos = expiryNanos;
+    }
+
+    /**
+     * False until the first snapshot has arrived.
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns the current snapshot, starting a refresh first if it has expired.
+     */
+    Set<String> get() {
+        if (!loaded || System.nanoTime() - updatedAtNanos > expiryNanos) {
+            refresh();
+        }
+        return nodes;
+    }
+
+    void update(Set<String> reachable) {
+        nodes = Collections.unmodifiableSet(new HashSet<>(reachable));
+        updatedAtNanos = System.nanoTime();
+        loaded = true;
+        onUpdate.run();
+    }
+
+    /**
+     * Asks the transport for the reachable nodes without waiting for the answer. Does nothing if
+     * a refresh is already running.
+     */
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        transport.getReachableNodes().whenComplete((reachable, error) -> {
+            refreshing.set(false);
+            if (error == null) {
+                update(reachable);
+                return;
+            }
+            WearLog.e(TAG, "Couldn't refresh reachable nodes", error);
+            if (!loaded) {
+                // Nothing to fall back on, so report that nobody is around.
+                update(Collections.<String>emptySet());
+            }
+        });
+    }
+}
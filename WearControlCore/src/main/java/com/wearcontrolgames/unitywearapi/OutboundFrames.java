@@ -0,0 +1,66 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable payload buffers for the outbound hot path. {@code MessageClient.sendMessage} needs a
+ * byte array of exactly the payload length. Binary position updates are a fixed size for a given
+ * player number and batches only come in a handful of sizes, so we keep a small pool of buffers
+ * per payload size.
+ *
+ * Play Services reads the payload on its own thread after {@code sendMessage} returns, so a buffer
+ * only goes back in the pool through {@link #release} once its send has completed. Until then it
+ * belongs to the transport, and a burst of sends in flight just allocates fresh buffers.
+ */
+class OutboundFrames {
+    // Buffers kept per payload size, which covers what the link has in flight at controller rates.
+    static final int POOL_SIZE = 8;
+    // Anything larger than this isn't a hot path payload and just gets a fresh array.
+    private static final int MAX_FRAME_SIZE = 512;
+
+    // Free buffers by size, with pooled[size] of them at the front of pools[size].
+    private final byte[][][] pools = new byte[MAX_FRAME_SIZE + 1][][];
+    private final int[] pooled = new int[MAX_FRAME_SIZE + 1];
+
+    /**
+     * Encodes the event for a peer at the given protocol version into a recycled buffer and
+     * returns it, exactly the encoded length. Pass it to {@link #release} once nothing reads it
+     * any more.
+     */
+    byte[] encode(WearEvent event, int peerVersion) {
+        int size = WearEventCodec.encodedSize(event, peerVersion);
+        if (size > MAX_FRAME_SIZE) {
+            return WearEventCodec.encodeFor(event, peerVersion);
+        }
+        byte[] frame = null;
+        synchronized (this) {
+            if (pooled[size] > 0) {
+                frame = pools[size][--pooled[size]];
+                pools[size][pooled[size]] = null;
+            }
+        }
+        if (frame == null) {
+            frame = new byte[size];
+        }
+        WearEventCodec.encode(event, peerVersion, ByteBuffer.wrap(frame));
+        return frame;
+    }
+
+    /**
+     * Hands a buffer from {@link #encode} back for reuse. It must not be read again afterwards.
+     */
+    void release(byte[] frame) {
+        if (frame.length > MAX_FRAME_SIZE) {
+            return;
+        }
+        int size = frame.length;
+        synchronized (this) {
+            if (pools[size] == null) {
+                pools[size] = new byte[POOL_SIZE][];
+            }
+            if (pooled[size] < POOL_SIZE) {
+                pools[size][pooled[size]++] = frame;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps the local node id and every established pairing in a small properties file, so a data
+ * layer created after an app restart or a scene reload can resume its pairings with a single
+ * message instead of repeating the whole handshake. Pass it to
+ * {@link WearDataLayerCore#WearDataLayerCore(WearTransport, PairingStore)}.
+ *
+ * The file is rewritten as a whole whenever a pairing is established or ends, by writing a
+ * temporary file next to it and renaming that over it, so a crash never leaves half a file.
+ */
+public class PairingStore {
+    private static final String TAG = "com.google.unitywear.PairingStore";
+
+    /** The file name the Android library uses in the app's files directory. */
+    public static final String FILE_NAME = "wear_pairings.properties";
+
+    private static final String LOCAL_NODE_KEY = "local_node";
+    private static final String PLAYER_PREFIX = "player.";
+    private static final String NODE_SUFFIX = ".node";
+    private static final String CONTROLLER_SUFFIX = ".controller";
+    private static final String VERSION_SUFFIX = ".version";
+
+    /**
+     * A player paired to a node, along with what we knew about the node when it was paired.
+     */
+    static final class Pairing {
+        final int playerNum;
+        final String nodeId;
+        // Null if it never came up during pairing.
+        final WearEvent.ControllerType controllerType;
+        final int protocolVersion;
+
+        Pairing(int playerNum, String nodeId, WearEvent.ControllerType controllerType,
+                int protocolVersion) {
+            this.playerNum = playerNum;
+            this.nodeId = nodeId;
+            this.controllerType = controllerType;
+            this.protocolVersion = protocolVersion;
+        }
+    }
+
+    private final File file;
+    // Read once, then kept in step with what was last written.
+    private Properties properties;
+
+    public PairingStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The node id the transport reported last time, or null if nothing has been stored yet.
+     */
+    @Nullable
+    synchronized String loadLocalNodeId() {
+        return properties().getProperty(LOCAL_NODE_KEY);
+    }
+
+    /**
+     * Every stored pairing. Entries that can't be read are skipped.
+     */
+    synchronized List<Pairing> loadPairings() {
+        Properties stored = properties();
+        List<Pairing> pairings = new ArrayList<>();
+        for (String key : stored.stringPropertyNames()) {
+            if (!key.startsWith(PLAYER_PREFIX) || !key.endsWith(NODE_SUFFIX)) {
+                continue;
+            }
+            String prefix = key.substring(0, key.length() - NODE_SUFFIX.length());
+            try {
+                int playerNum = Integer.parseInt(prefix.substring(PLAYER_PREFIX.length()));
+                String controller = stored.getProperty(prefix + CONTROLLER_SUFFIX);
+                pairings.add(new Pairing(
+                        playerNum,
+                        stored.getProperty(key),
+                        controller == null ? null : WearEvent.ControllerType.valueOf(controller),
+                        Integer.parseInt(stored.getProperty(prefix + VERSION_SUFFIX, "0"))));
+            } catch (IllegalArgumentException e) {
+                WearLog.e(TAG, "Skipping stored pairing " + prefix, e);
+            }
+        }
+        return pairings;
+    }
+
+    /**
+     * Replaces everything stored with the local node id and the pairings. Failures are logged,
+     * the worst that can happen is a full handshake next time.
+     */
+    synchronized void save(@Nullable String localNodeId, Collection<Pairing> pairings) {
+        Properties updated = new Properties();
+        if (localNodeId != null) {
+            updated.setProperty(LOCAL_NODE_KEY, localNodeId);
+        }
+        for (Pairing pairing : pairings) {
+            String prefix = PLAYER_PREFIX + pairing.playerNum;
+            updated.setProperty(prefix + NODE_SUFFIX, pairing.nodeId);
+            if (pairing.controllerType != null) {
+                updated.setProperty(prefix + CONTROLLER_SUFFIX, pairing.controllerType.name());
+            }
+            updated.setProperty(prefix + VERSION_SUFFIX, Integer.toString(pairing.protocolVersion));
+        }
+        if (updated.equals(properties)) {
+            return;
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temporary)) {
+            updated.store(output, null);
+        } catch (IOException e) {
+            WearLog.e(TAG, "Couldn't write " + temporary, e);
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            WearLog.e(TAG, "Couldn't replace " + file);
+            return;
+        }
+        properties = updated;
+    }
+
+    private Properties properties() {
+        if (properties == null) {
+            properties = new Properties();
+            if (file.exists()) {
+                try (InputStream input = new FileInputStream(file)) {
+                    properties.load(input);
+                } catch (IOException | IllegalArgumentException e) {
+                    WearLog.e(TAG, "Couldn't read " + file + ", starting without pairings", e);
+                    properties = new Properties();
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,324 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * The pairing state of every player, on either side of the handshake.
+ *
+ * On the game's side a player goes Idle -> Requesting when the game broadcasts a pair request,
+ * Requesting -> AwaitingAccept when a controller responds, and AwaitingAccept -> Paired when the
+ * game accepts that controller. On the controller's side a player goes Idle -> AwaitingAccept when
+ * it responds to a request and AwaitingAccept -> Paired when the game's acceptance arrives.
+ *
+ * Pairings restored from a {@link PairingStore} start out Resuming, and become Paired again once
+ * the node answers a resume, on either side.
+ *
+ * Each player has its own entry, so players pairing at the same time don't disturb each other.
+ * Lookups are lock free and take constant time, including finding the player paired to a node.
+ * Transitions are serialized so the reverse index always matches the entries.
+ */
+class PairingTable {
+    enum State {
+        IDLE,
+        REQUESTING,
+        AWAITING_ACCEPT,
+        PAIRED,
+        RESUMING
+    }
+
+    private static final class Entry {
+        final State state;
+        // The peer for AWAITING_ACCEPT, PAIRED and RESUMING, null otherwise.
+        final String nodeId;
+        // What the game accepted the node as, if we know.
+        final WearEvent.ControllerType controllerType;
+
+        Entry(State state, String nodeId) {
+            this(state, nodeId, null);
+        }
+
+        Entry(State state, String nodeId, WearEvent.ControllerType controllerType) {
+            this.state = state;
+            this.nodeId = nodeId;
+            this.controllerType = controllerType;
+        }
+
+        boolean isKept() {
+            return state == State.PAIRED || state == State.RESUMING;
+        }
+    }
+
+    private static final Entry IDLE = new Entry(State.IDLE, null);
+
+    // Called with the table locked whenever a pairing worth keeping across restarts is
+    // established, resumed or ends.
+    private final Runnable onKeptChanged;
+
+    private final ConcurrentHashMap<Integer, Entry> players = new ConcurrentHashMap<>();
+    // Node -> player, for paired players only.
+    private final ConcurrentHashMap<String, Integer> playerByNode = new ConcurrentHashMap<>();
+    // Pair requests we've received and not yet answered, player -> requesting node.
+    private final ConcurrentHashMap<Integer, String> offers = new ConcurrentHashMap<>();
+    // The most recent offer, for controllers that answer with a different player number than
+    // the one requested.
+    private volatile String lastOffer;
+
+    PairingTable(Runnable onKeptChanged) {
+        this.onKeptChanged = onKeptChanged;
+    }
+
+    State stateOf(int playerNum) {
+        return entry(playerNum).state;
+    }
+
+    /**
+     * The node the player is paired to, or null if it isn't paired.
+     */
+    String pairedNode(int playerNum) {
+        Entry entry = entry(playerNum);
+        return entry.state == State.PAIRED ? entry.nodeId : null;
+    }
+
+    boolean isPairedTo(int playerNum, String nodeId) {
+        return nodeId != null && nodeId.equals(pairedNode(playerNum));
+    }
+
+    boolean isPairedNode(String nodeId) {
+        return playerByNode.containsKey(nodeId);
+    }
+
+    /**
+     * The player paired to the node, or -1 if nobody is.
+     */
+    int pairedPlayer(String nodeId) {
+        Integer playerNum = playerByNode.get(nodeId);
+        return playerNum == null ? -1 : playerNum;
+    }
+
+    /**
+     * A snapshot of every paired node and the player paired to it.
+     */
+    Map<String, Integer> pairedNodes() {
+        return new HashMap<>(playerByNode);
+    }
+
+    /**
+     * What the player's node was accepted as, or null if we don't know.
+     */
+    WearEvent.ControllerType controllerTypeOf(int playerNum) {
+        return entry(playerNum).controllerType;
+    }
+
+    /**
+     * A snapshot of every paired or resuming player, for storing.
+     */
+    List<PairingStore.Pairing> keptPairings(ToIntFunction<String> protocolVersionOf) {
+        List<PairingStore.Pairing> kept = new ArrayList<>();
+        for (Map.Entry<Integer, Entry> player : players.entrySet()) {
+            Entry entry = player.getValue();
+            if (entry.isKept()) {
+                kept.add(new PairingStore.Pairing(player.getKey(), entry.nodeId,
+                        entry.controllerType, protocolVersionOf.applyAsInt(entry.nodeId)));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * A snapshot of every resuming player and the node it was paired to.
+     */
+    Map<Integer, String> resumingNodes() {
+        Map<Integer, String> resuming = new HashMap<>();
+        for (Map.Entry<Integer, Entry> player : players.entrySet()) {
+            if (player.getValue().state == State.RESUMING) {
+                resuming.put(player.getKey(), player.getValue().nodeId);
+            }
+        }
+        return resuming;
+    }
+
+    // Game side.
+
+    synchronized void startRequest(int playerNum) {
+        set(playerNum, new Entry(State.REQUESTING, null));
+    }
+
+    /**
+     * Records a controller's response to our request. Returns false if a different controller
+     * already responded for the player, in which case this one should be rejected.
+     */
+    synchronized boolean recordResponse(int playerNum, String nodeId) {
+        Entry entry = entry(playerNum);
+        switch (entry.state) {
+            case REQUESTING:
+                set(playerNum, new Entry(State.AWAITING_ACCEPT, nodeId));
+                return true;
+            case AWAITING_ACCEPT:
+                return entry.nodeId.equals(nodeId);
+            default:
+                // Not something we asked for, pass it along without tracking it.
+                return true;
+        }
+    }
+
+    /**
+     * Pairs the player with the controller that responded. Returns that controller's node, or
+     * null if no controller is waiting to be accepted.
+     */
+    synchronized String accept(int playerNum, WearEvent.ControllerType controllerType) {
+        Entry entry = entry(playerNum);
+        if (entry.state != State.AWAITING_ACCEPT) {
+            return null;
+        }
+        set(playerNum, new Entry(State.PAIRED, entry.nodeId, controllerType));
+        return entry.nodeId;
+    }
+
+    // Controller side.
+
+    void recordOffer(int playerNum, String nodeId) {
+        offers.put(playerNum, nodeId);
+        lastOffer = nodeId;
+    }
+
+    /**
+     * Responds to the request offered for the player. Returns the requesting node, or null if
+     * there is no request to respond to.
+     */
+    synchronized String respond(int playerNum) {
+        String nodeId = offers.remove(playerNum);
+        if (nodeId == null) {
+            nodeId = lastOffer;
+        }
+        if (nodeId == null) {
+            return null;
+        }
+        set(playerNum, new Entry(State.AWAITING_ACCEPT, nodeId));
+        return nodeId;
+    }
+
+    /**
+     * Completes the pairing if we responded to this node for the player. Returns false if we
+     * didn't, and forgets any request we were waiting on for the player.
+     */
+    synchronized boolean confirmAccepted(
+            int playerNum, String nodeId, WearEvent.ControllerType controllerType) {
+        Entry entry = entry(playerNum);
+        if (entry.state == State.AWAITING_ACCEPT && entry.nodeId.equals(nodeId)) {
+            set(playerNum, new Entry(State.PAIRED, nodeId, controllerType));
+            if (nodeId.equals(lastOffer)) {
+                lastOffer = null;
+            }
+            return true;
+        }
+        if (entry.state == State.AWAITING_ACCEPT) {
+            set(playerNum, IDLE);
+        }
+        offers.remove(playerNum);
+        return false;
+    }
+
+    /**
+     * Removes and returns the request offered for the player, so it can be rejected.
+     */
+    synchronized String takeOffer(int playerNum) {
+        String nodeId = offers.remove(playerNum);
+        if (nodeId == null) {
+            nodeId = lastOffer;
+        }
+        if (nodeId != null && nodeId.equals(lastOffer)) {
+            lastOffer = null;
+        }
+        return nodeId;
+    }
+
+    // Both sides.
+
+    /**
+     * Puts back a stored pairing as resuming, unless the player has moved on since.
+     */
+    synchronized void restore(
+            int playerNum, String nodeId, WearEvent.ControllerType controllerType) {
+        if (entry(playerNum).state == State.IDLE) {
+            set(playerNum, new Entry(State.RESUMING, nodeId, controllerType));
+        }
+    }
+
+    /**
+     * Pairs the player with the node again if it was paired to it, or is resuming with it.
+     * Returns false otherwise, in which case the resume should be turned down.
+     */
+    synchronized boolean resume(int playerNum, String nodeId) {
+        Entry entry = entry(playerNum);
+        if (!entry.isKept() || !entry.nodeId.equals(nodeId)) {
+            return false;
+        }
+        if (entry.state == State.RESUMING) {
+            set(playerNum, new Entry(State.PAIRED, nodeId, entry.controllerType));
+        }
+        return true;
+    }
+
+    /**
+     * The other side turned us down. Anything short of an established pairing goes back to idle.
+     */
+    synchronized void rejected(int playerNum) {
+        if (entry(playerNum).state != State.PAIRED) {
+            set(playerNum, IDLE);
+        }
+        offers.remove(playerNum);
+    }
+
+    /**
+     * The node went silent. If the player is paired to it, it stops being paired and, if the node
+     * can resume, goes back to resuming so the node can pick the pairing up again if it comes
+     * back. Returns false if the player wasn't paired to the node.
+     */
+    synchronized boolean lost(int playerNum, String nodeId, boolean resumable) {
+        if (!isPairedTo(playerNum, nodeId)) {
+            return false;
+        }
+        set(playerNum, resumable
+                ? new Entry(State.RESUMING, nodeId, entry(playerNum).controllerType) : IDLE);
+        return true;
+    }
+
+    synchronized void disconnect(int playerNum) {
+        set(playerNum, IDLE);
+        offers.remove(playerNum);
+    }
+
+    /**
+     * Returns the player to idle if it is paired to the node. Returns false if it wasn't.
+     */
+    synchronized boolean disconnectFrom(int playerNum, String nodeId) {
+        if (!isPairedTo(playerNum, nodeId)) {
+            return false;
+        }
+        set(playerNum, IDLE);
+        return true;
+    }
+
+    private Entry entry(int playerNum) {
+        Entry entry = players.get(playerNum);
+        return entry == null ? IDLE : entry;
+    }
+
+    private void set(int playerNum, Entry entry) {
+        Entry previous = entry == IDLE ? players.remove(playerNum) : players.put(playerNum, entry);
+        if (previous != null && previous.state == State.PAIRED) {
+            playerByNode.remove(previous.nodeId, playerNum);
+        }
+        if (entry.state == State.PAIRED) {
+            playerByNode.put(entry.nodeId, playerNum);
+        }
+        if (entry.isKept() || (previous != null && previous.isKept())) {
+            onKeptChanged.run();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quantized delta encoding for streams of position updates.
+ *
+ * Each axis is quantized to a configurable number of bits over a fixed range, chosen per
+ * {@link WearEvent.ControllerType}. A stream for one player to one node starts with a keyframe
+ * carrying the full quantized position, which the receiver acknowledges with a KEYFRAME_ACK.
+ * After that each update is sent as the difference from the newest keyframe the receiver has
+ * acknowledged, which takes one or two bytes per axis. Until the first keyframe is
+ * acknowledged, or while the position is too far from the acknowledged one, updates carry the
+ * full quantized position without becoming a keyframe. Deltas never depend on each other, so a
+ * lost update only loses that update. A new keyframe goes out every {@link #KEYFRAME_INTERVAL}
+ * updates, when the position has drifted too far from the acknowledged one, or when the last
+ * keyframe wasn't acknowledged in time, so a receiver that missed keyframes catches up quickly.
+ * There is only ever one keyframe waiting for its acknowledgement, and its id is never reused
+ * for a different position.
+ */
+class PositionStreams {
+    // Updates between keyframes, even if every keyframe was acknowledged.
+    static final int KEYFRAME_INTERVAL = 30;
+    // Updates to wait for a keyframe's acknowledgement before giving up on it.
+    static final int ACK_TIMEOUT = 8;
+    // The largest delta that still fits in two varint bytes after zig-zag encoding. Small moves
+    // take a single byte.
+    static final int MAX_DELTA = 8191;
+    // Keyframe ids run from 1 to this and wrap around, so they stay a two byte varint.
+    private static final int MAX_KEYFRAME_ID = 0x3FFF;
+    // Keyframes remembered per stream, so deltas against the acknowledged keyframe still decode
+    // while a newer one is on its way.
+    private static final int RECENT_KEYFRAMES = 4;
+
+    static final class Quantization {
+        final int bits;
+        final float min;
+        final float max;
+        final int maxValue;
+
+        Quantization(int bits, float min, float max) {
+            if (!isValid(bits, min, max)) {
+                throw new IllegalArgumentException(
+                        "Bad quantization: " + bits + " bits over " + min + ".." + max);
+            }
+            this.bits = bits;
+            this.min = min;
+            this.max = max;
+            maxValue = (1 << bits) - 1;
+        }
+
+        static boolean isValid(int bits, float min, float max) {
+            return bits >= 2 && bits <= 24 && max > min;
+        }
+
+        boolean matches(int bits, float min, float max) {
+            return this.bits == bits && this.min == min && this.max == max;
+        }
+
+        int quantize(double value) {
+            double clamped = Math.max(min, Math.min(max, value));
+            return (int) Math.round((clamped - min) / (max - min) * maxValue);
+        }
+
+        double dequantize(int value) {
+            return min + (double) value / maxValue * (max - min);
+        }
+    }
+
+    /**
+     * Keyframes of one stream, in a small ring indexed by keyframe id.
+     */
+    private static final class Keyframes {
+        final int[] ids = new int[RECENT_KEYFRAMES];
+        final int[] xs = new int[RECENT_KEYFRAMES];
+        final int[] ys = new int[RECENT_KEYFRAMES];
+        final Quantization[] quantizations = new Quantization[RECENT_KEYFRAMES];
+
+        void put(int id, int x, int y, Quantization quantization) {
+            int slot = slotOf(id);
+            ids[slot] = id;
+            xs[slot] = x;
+            ys[slot] = y;
+            quantizations[slot] = quantization;
+        }
+
+        /**
+         * Returns the slot holding the keyframe, or -1 if it's not one of the recent ones.
+         */
+        int find(int id) {
+            int slot = slotOf(id);
+            return id != 0 && ids[slot] == id ? slot : -1;
+        }
+
+        private static int slotOf(int id) {
+            return id % RECENT_KEYFRAMES;
+        }
+    }
+
+    private static final class Outbound {
+        final Keyframes sent = new Keyframes();
+        int nextId;
+        // 0 until the receiver has acknowledged a keyframe.
+        int ackedId;
+        int updatesSinceAcked;
+        // The newest keyframe that hasn't been acknowledged yet, or 0.
+        int pendingId;
+        int updatesSincePending;
+    }
+
+    private final Quantization[] quantizations =
+            new Quantization[WearEvent.ControllerType.values().length];
+    // The quantization most recently received for each controller type, so full updates don't
+    // need a new one each. Only used on the dispatch thread.
+    private final Quantization[] receivedQuantizations =
+            new Quantization[WearEvent.ControllerType.values().length];
+    private final ConcurrentHashMap<Integer, WearEvent.ControllerType> controllerTypes =
+            new ConcurrentHashMap<>();
+    // Node -> player -> stream. Only used by the send scheduler's thread and acknowledgements.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Outbound>> outbound =
+            new ConcurrentHashMap<>();
+    // Node -> player -> keyframes we've received. Only used on the dispatch thread.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Keyframes>> inbound =
+            new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    PositionStreams() {
+        setQuantization(WearEvent.ControllerType.UNKNOWN, 16, -1, 1);
+        setQuantization(WearEvent.ControllerType.SLIDER, 12, -1, 1);
+        setQuantization(WearEvent.ControllerType.ANALOG, 14, -1, 1);
+        setQuantization(WearEvent.ControllerType.DPAD, 8, -1, 1);
+    }
+
+    synchronized void setQuantization(WearEvent.ControllerType type, int bits, float min,
+            float max) {
+        quantizations[type.ordinal()] = new Quantization(bits, min, max);
+    }
+
+    /**
+     * Remembers which controller the player is using, which picks the quantization for their
+     * updates.
+     */
+    void setControllerType(int playerNum, WearEvent.ControllerType type) {
+        if (type != null) {
+            controllerTypes.put(playerNum, type);
+        }
+    }
+
+    /**
+     * Forgets both directions of the player's streams, e.g. once they disconnect.
+     */
+    void clearPlayer(int playerNum) {
+        for (ConcurrentHashMap<Integer, Outbound> streams : outbound.values()) {
+            streams.remove(playerNum);
+        }
+        for (ConcurrentHashMap<Integer, Keyframes> streams : inbound.values()) {
+            streams.remove(playerNum);
+        }
+        controllerTypes.remove(playerNum);
+    }
+
+    /**
+     * Fills in the quantized fields of a POSITION_UPDATE that is about to be sent to the
+     * receiver, as a keyframe, a delta or a full position.
+     */
+    void quantize(String receiver, WearEvent event) {
+        WearEvent.ControllerType type = controllerTypes.get(event.playerNum);
+        Quantization quantization =
+                quantizations[(type != null ? type : WearEvent.ControllerType.UNKNOWN).ordinal()];
+        int x = quantization.quantize(event.posX);
+        int y = quantization.quantize(event.posY);
+
+        Outbound stream = outboundStream(receiver, event.playerNum);
+        synchronized (stream) {
+            stream.updatesSinceAcked++;
+            stream.updatesSincePending++;
+            int pending = stream.sent.find(stream.pendingId);
+            boolean awaitingAck = pending >= 0
+                    && stream.sent.quantizations[pending] == quantization
+                    && stream.updatesSincePending < ACK_TIMEOUT;
+            int acked = stream.sent.find(stream.ackedId);
+            if (acked >= 0 && stream.sent.quantizations[acked] == quantization) {
+                int dx = x - stream.sent.xs[acked];
+                int dy = y - stream.sent.ys[acked];
+                boolean keyframeDue = stream.updatesSinceAcked >= KEYFRAME_INTERVAL && !awaitingAck;
+                if (!keyframeDue && Math.abs(dx) <= MAX_DELTA && Math.abs(dy) <= MAX_DELTA) {
+                    event.setQuantizedDelta(stream.ackedId, dx, dy);
+                    return;
+                }
+            }
+            if (awaitingAck) {
+                event.setQuantizedPosition(0, quantization, x, y);
+                return;
+            }
+            int id = stream.nextId;
+            stream.nextId = id % MAX_KEYFRAME_ID + 1;
+            stream.sent.put(id, x, y, quantization);
+            stream.pendingId = id;
+            stream.updatesSincePending = 0;
+            event.setQuantizedPosition(id, quantization, x, y);
+        }
+    }
+
+    /**
+     * The receiver has the keyframe, so updates can be sent as deltas against it.
+     */
+    void onKeyframeAck(String receiver, int playerNum, int keyframeId) {
+        Outbound stream = outboundStream(receiver, playerNum);
+        synchronized (stream) {
+            if (stream.sent.find(keyframeId) < 0 || keyframeId == stream.ackedId) {
+                return;
+            }
+            // A late acknowledgement of an older keyframe is still fine to send deltas against,
+            // it just leaves the pending one waiting.
+            stream.ackedId = keyframeId;
+            stream.updatesSinceAcked = 0;
+            if (keyframeId == stream.pendingId) {
+                stream.pendingId = 0;
+            }
+        }
+    }
+
+    /**
+     * Turns a received quantized update back into a position. Returns false if it is a delta
+     * against a keyframe we don't have or carries an invalid quantization, in which case it has
+     * to be dropped.
+     */
+    boolean dequantize(String sender, WearEvent event) {
+        ConcurrentHashMap<Integer, Keyframes> streams = inbound.get(sender);
+        if (streams == null) {
+            streams = inbound.computeIfAbsent(sender, id -> new ConcurrentHashMap<>());
+        }
+        Keyframes keyframes = streams.get(event.playerNum);
+        if (keyframes == null) {
+            keyframes = streams.computeIfAbsent(event.playerNum, id -> new Keyframes());
+        }
+        int x;
+        int y;
+        Quantization quantization;
+        if (event.quantFull) {
+            quantization = receivedQuantization(event);
+            if (quantization == null) {
+                return false;
+            }
+            x = event.quantX;
+            y = event.quantY;
+            if (event.keyframeId != 0) {
+                keyframes.put(event.keyframeId, x, y, quantization);
+            }
+        } else {
+            int slot = keyframes.find(event.keyframeId);
+            if (slot < 0) {
+                return false;
+            }
+            quantization = keyframes.quantizations[slot];
+            x = keyframes.xs[slot] + event.quantX;
+            y = keyframes.ys[slot] + event.quantY;
+        }
+        event.setPosition(quantization.dequantize(x), quantization.dequantize(y));
+        return true;
+    }
+
+    /**
+     * The quantization a full update was sent with, or null if it makes no sense.
+     */
+    private Quantization receivedQuantization(WearEvent event) {
+        WearEvent.ControllerType type = controllerTypes.get(event.playerNum);
+        int index = (type != null ? type : WearEvent.ControllerType.UNKNOWN).ordinal();
+        Quantization quantization = receivedQuantizations[index];
+        if (quantization != null
+                && quantization.matches(event.quantBits, event.quantMin, event.quantMax)) {
+            return quantization;
+        }
+        if (!Quantization.isValid(event.quantBits, event.quantMin, event.quantMax)) {
+            return null;
+        }
+        quantization = new Quantization(event.quantBits, event.quantMin, event.quantMax);
+        receivedQuantizations[index] = quantization;
+        return quantization;
+    }
+
+    private Outbound outboundStream(String node, int playerNum) {
+        ConcurrentHashMap<Integer, Outbound> streams = outbound.get(node);
+        if (streams == null) {
+            streams = outbound.computeIfAbsent(node, id -> new ConcurrentHashMap<>());
+        }
+        Outbound stream = streams.get(playerNum);
+        if (stream == null) {
+            stream = streams.computeIfAbsent(playerNum, id -> {
+                Outbound created = new Outbound();
+                // Start somewhere random so a receiver still holding keyframes from an earlier
+                // session doesn't mistake them for ours.
+                synchronized (random) {
+                    created.nextId = random.nextInt(MAX_KEYFRAME_ID) + 1;
+                }
+                return created;
+            });
+        }
+        return stream;
+    }
+}
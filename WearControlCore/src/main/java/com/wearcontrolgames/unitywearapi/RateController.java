@@ -0,0 +1,231 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the rate position updates are sent to each node to how well the link to it is doing,
+ * AIMD style like TCP's congestion control.
+ *
+ * The link's health is judged from how long the transport takes to finish sending each message,
+ * which grows as messages queue up behind a poor Bluetooth link, from sends that fail, and from
+ * the round trip times of acknowledgements where the peer sends them. While messages keep
+ * finishing within {@link #TARGET_LATENCY_MILLIS} and nothing fails, the rate goes up by
+ * {@link #INCREASE_PER_SECOND} messages per second every second. A failure or a latency over the
+ * target cuts it by {@link #DECREASE_FACTOR}. Like TCP, news about messages that were handed over
+ * before the last cut is ignored, since those were sent at the old rate and the cut already
+ * accounts for them. The rate always stays between the configured bounds.
+ *
+ * Listeners are told when a node's {@link WearEvent.LinkState} changes, or when its rate moved by
+ * more than {@link #REPORT_CHANGE} since it was last reported.
+ */
+class RateController {
+    static final float DEFAULT_MIN_RATE = 10;
+    static final float DEFAULT_MAX_RATE = 60;
+    static final long TARGET_LATENCY_MILLIS = 150;
+    static final float INCREASE_PER_SECOND = 10;
+    static final float DECREASE_FACTOR = 0.5f;
+    static final float REPORT_CHANGE = 0.2f;
+    // Gaps in sending longer than this don't count towards increasing the rate.
+    private static final long MAX_INCREASE_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    // A node is only GOOD while its rate is at least this share of the maximum.
+    private static final float GOOD_SHARE = 0.75f;
+
+    interface Listener {
+        /**
+         * Called with the node's new state and rate, on whichever thread reported the sample
+         * that changed them.
+         */
+        void onRateChanged(String nodeId, WearEvent.LinkState state, float messagesPerSecond);
+    }
+
+    private static final class Link {
+        float rate;
+        long lastSampleNanos;
+        long decreasedAtNanos;
+        WearEvent.LinkState reportedState = WearEvent.LinkState.UNKNOWN;
+        float reportedRate;
+    }
+
+    private final Listener listener;
+    private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+    private volatile boolean enabled = false;
+    private volatile float minRate = DEFAULT_MIN_RATE;
+    private volatile float maxRate = DEFAULT_MAX_RATE;
+
+    RateController(Listener listener) {
+        this.listener = listener;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            links.clear();
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setBounds(float minPerSecond, float maxPerSecond) {
+        if (minPerSecond <= 0 || maxPerSecond < minPerSecond) {
+            throw new IllegalArgumentException(
+                    "Bad send rate bounds: " + minPerSecond + ".." + maxPerSecond);
+        }
+        minRate = minPerSecond;
+        maxRate = maxPerSecond;
+        for (Link link : links.values()) {
+            synchronized (link) {
+                link.rate = Math.max(minPerSecond, Math.min(maxPerSecond, link.rate));
+            }
+        }
+    }
+
+    /**
+     * How long to leave between position updates to the node, 0 if it isn't limited.
+     */
+    long intervalNanos(String nodeId) {
+        if (!enabled) {
+            return 0;
+        }
+        Link link = links.get(nodeId);
+        float rate = link == null ? maxRate : link.rate;
+        return (long) (1e9 / rate);
+    }
+
+    /**
+     * The node's current rate in messages per second, or 0 if it isn't limited.
+     */
+    float rateOf(String nodeId) {
+        if (!enabled) {
+            return 0;
+        }
+        Link link = links.get(nodeId);
+        return link == null ? maxRate : link.rate;
+    }
+
+    /**
+     * The node's state as last reported, or GOOD if it isn't limited or nothing has been
+     * reported yet.
+     */
+    WearEvent.LinkState stateOf(String nodeId) {
+        Link link = enabled ? links.get(nodeId) : null;
+        if (link == null) {
+            return WearEvent.LinkState.GOOD;
+        }
+        synchronized (link) {
+            return link.reportedState == WearEvent.LinkState.UNKNOWN
+                    ? WearEvent.LinkState.GOOD : link.reportedState;
+        }
+    }
+
+    /**
+     * Records that the transport just finished sending a message to the node that was handed over
+     * at sentAtNanos, on the System.nanoTime() clock.
+     */
+    void onSent(String nodeId, long sentAtNanos) {
+        onLatency(nodeId, sentAtNanos);
+    }
+
+    /**
+     * Records that the peer just acknowledged a message sent at sentAtNanos.
+     */
+    void onAcknowledged(String nodeId, long sentAtNanos) {
+        onLatency(nodeId, sentAtNanos);
+    }
+
+    /**
+     * Records that a message to the node sent at sentAtNanos couldn't be sent, or was never
+     * acknowledged.
+     */
+    void onFailed(String nodeId, long sentAtNanos) {
+        if (!enabled) {
+            return;
+        }
+        Link link = link(nodeId);
+        synchronized (link) {
+            if (sentAtNanos - link.decreasedAtNanos < 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            link.lastSampleNanos = now;
+            decrease(link, now);
+        }
+        report(nodeId, link);
+    }
+
+    /**
+     * Forgets the node, e.g. once nobody on it is paired to us anymore.
+     */
+    void clear(String nodeId) {
+        links.remove(nodeId);
+    }
+
+    private void onLatency(String nodeId, long sentAtNanos) {
+        if (!enabled) {
+            return;
+        }
+        Link link = link(nodeId);
+        synchronized (link) {
+            if (sentAtNanos - link.decreasedAtNanos < 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long latencyNanos = now - sentAtNanos;
+            if (latencyNanos > TimeUnit.MILLISECONDS.toNanos(TARGET_LATENCY_MILLIS)) {
+                decrease(link, now);
+            } else {
+                long step = Math.min(now - link.lastSampleNanos, MAX_INCREASE_STEP_NANOS);
+                link.rate = Math.min(maxRate, link.rate + INCREASE_PER_SECOND * step / 1e9f);
+            }
+            link.lastSampleNanos = now;
+        }
+        report(nodeId, link);
+    }
+
+    /**
+     * Called with the link locked.
+     */
+    private void decrease(Link link, long now) {
+        link.rate = Math.max(minRate, link.rate * DECREASE_FACTOR);
+        link.decreasedAtNanos = now;
+    }
+
+    private Link link(String nodeId) {
+        Link link = links.get(nodeId);
+        if (link == null) {
+            link = links.computeIfAbsent(nodeId, id -> {
+                Link created = new Link();
+                created.rate = maxRate;
+                created.lastSampleNanos = System.nanoTime();
+                // Nothing has been cut yet, so every message counts.
+                created.decreasedAtNanos = created.lastSampleNanos - TimeUnit.HOURS.toNanos(1);
+                return created;
+            });
+        }
+        return link;
+    }
+
+    private void report(String nodeId, Link link) {
+        WearEvent.LinkState state;
+        float rate;
+        synchronized (link) {
+            rate = link.rate;
+            if (rate >= GOOD_SHARE * maxRate) {
+                state = WearEvent.LinkState.GOOD;
+            } else if (rate > minRate) {
+                state = WearEvent.LinkState.DEGRADED;
+            } else {
+                state = WearEvent.LinkState.POOR;
+            }
+            if (state == link.reportedState
+                    && Math.abs(rate - link.reportedRate) <= REPORT_CHANGE * link.reportedRate) {
+                return;
+            }
+            link.reportedState = state;
+            link.reportedRate = rate;
+        }
+        listener.onRateChanged(nodeId, state, rate);
+    }
+}
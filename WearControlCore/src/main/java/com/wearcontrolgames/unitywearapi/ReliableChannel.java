@@ -0,0 +1,303 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reliable, ordered delivery of control events over the fire-and-forget MessageClient.
+ *
+ * Every event sent through here gets the next sequence number for its receiving node and is
+ * retransmitted with exponential backoff until the receiver sends back an ACK for it. The
+ * receiver acknowledges every event it gets, including duplicates, hands events to the data
+ * layer in sequence order and drops anything it has already seen. Sequence numbers are scoped to
+ * a random epoch picked when the stream to a node starts, so a peer that restarts starts a fresh
+ * stream instead of having its events mistaken for duplicates. Resetting the stream to a node
+ * that restarted, or that we gave up on, starts one with a new epoch.
+ *
+ * The receiver remembers the last few epochs each node used. Late retransmissions from those are
+ * acknowledged and dropped, so they can't restart a stream that has moved on and deliver its
+ * events again. Any other epoch is a new stream.
+ *
+ * Position updates never go through here, they stay latest-wins.
+ */
+class ReliableChannel {
+    private static final String TAG = "com.google.unitywear.ReliableChannel";
+
+    static final long INITIAL_RETRY_MILLIS = 250;
+    static final long MAX_RETRY_MILLIS = 4000;
+    // Gives up after about 20 seconds.
+    static final int MAX_ATTEMPTS = 8;
+    // How far ahead of the next expected event the receiver buffers out of order events.
+    static final int RECEIVE_WINDOW = 64;
+    // Epochs stay below this so they're a two byte varint.
+    private static final int MAX_EPOCH = 0x3FFF;
+    // Earlier epochs remembered per node, to recognize late retransmissions from them.
+    static final int RETIRED_EPOCHS = 4;
+    private static final int[] NO_EPOCHS = new int[RETIRED_EPOCHS + 1];
+
+    interface Sender {
+        CompletableFuture<Integer> send(String nodeId, WearEvent event, String path);
+    }
+
+    interface Handler {
+        void handle(String nodeId, WearEvent event);
+    }
+
+    private static final class Outgoing {
+        final WearEvent event;
+        final String path;
+        final CompletableFuture<Void> acked = new CompletableFuture<>();
+        int attempts;
+        ScheduledFuture<?> retry;
+
+        Outgoing(WearEvent event, String path) {
+            this.event = event;
+            this.path = path;
+        }
+    }
+
+    private static final class Outbound {
+        final int epoch;
+        // This epoch and the ones before it, newest first. The node takes any of them for a late
+        // retransmission, so a new epoch must not be one of them.
+        final int[] recentEpochs = new int[RETIRED_EPOCHS + 1];
+        int nextSequence = 1;
+        final Map<Integer, Outgoing> unacked = new HashMap<>();
+
+        Outbound(int epoch, int[] previousEpochs) {
+            this.epoch = epoch;
+            recentEpochs[0] = epoch;
+            System.arraycopy(previousEpochs, 0, recentEpochs, 1, RETIRED_EPOCHS);
+        }
+    }
+
+    private static final class Inbound {
+        int epoch;
+        int expected = 1;
+        final Map<Integer, WearEvent> buffered = new HashMap<>();
+        // The epochs before this one, newest first, 0 where there was none.
+        final int[] retired = new int[RETIRED_EPOCHS];
+
+        /**
+         * Starts the stream over under a new epoch, retiring the current one.
+         */
+        void start(int newEpoch) {
+            if (epoch != 0) {
+                System.arraycopy(retired, 0, retired, 1, RETIRED_EPOCHS - 1);
+                retired[0] = epoch;
+            }
+            epoch = newEpoch;
+            expected = 1;
+            buffered.clear();
+        }
+
+        boolean isRetired(int epoch) {
+            for (int retiredEpoch : retired) {
+                if (retiredEpoch == epoch) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Sender sender;
+    private final ScheduledExecutorService timer;
+    private final WearMetrics metrics;
+    private final Random random = new Random();
+
+    private final ConcurrentHashMap<String, Outbound> outbound = new ConcurrentHashMap<>();
+    // Only used on the dispatch thread.
+    private final HashMap<String, Inbound> inbound = new HashMap<>();
+
+    ReliableChannel(Sender sender, ScheduledExecutorService timer, WearMetrics metrics) {
+        this.sender = sender;
+        this.timer = timer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends the event to the node and keeps retransmitting it until it's acknowledged. The event
+     * must not be changed afterwards. The future completes once it is acknowledged, or fails with
+     * a TimeoutException once every attempt has gone unanswered. Giving up on an event resets the
+     * stream to the node, failing the other events waiting for an ACK as {@link #reset} does.
+     */
+    CompletableFuture<Void> send(String nodeId, WearEvent event, String path) {
+        Outbound stream = outbound.computeIfAbsent(
+                nodeId, id -> new Outbound(newEpoch(NO_EPOCHS), NO_EPOCHS));
+        Outgoing outgoing = new Outgoing(event, path);
+        synchronized (stream) {
+            event.setSequence(stream.epoch, stream.nextSequence++);
+            stream.unacked.put(event.sequence, outgoing);
+            transmit(nodeId, stream, outgoing);
+        }
+        return outgoing.acked;
+    }
+
+    /**
+     * Handles an ACK from the node.
+     */
+    void onAck(String nodeId, WearEvent ack) {
+        Outbound stream = outbound.get(nodeId);
+        if (stream == null || ack.channelEpoch != stream.epoch) {
+            return;
+        }
+        Outgoing outgoing;
+        synchronized (stream) {
+            outgoing = stream.unacked.remove(ack.sequence);
+            if (outgoing == null) {
+                // A duplicate ACK for something already acknowledged.
+                return;
+            }
+            outgoing.retry.cancel(false);
+        }
+        outgoing.acked.complete(null);
+    }
+
+    /**
+     * Forgets everything sent to the node, because it restarted and lost track of our sequence
+     * numbers, or went quiet and may have. Events still waiting for an ACK fail with a
+     * CancellationException, since nobody is going to acknowledge them, and the next one
+     * starts a fresh stream under a new epoch, which the node takes as a new start whether or not
+     * it remembers the old one.
+     */
+    void reset(String nodeId) {
+        Outbound stream = outbound.get(nodeId);
+        if (stream != null) {
+            restart(nodeId, stream);
+        }
+    }
+
+    /**
+     * Replaces the stream to the node with one under a new epoch, unless it has been already.
+     */
+    private void restart(String nodeId, Outbound stream) {
+        if (!outbound.remove(nodeId, stream)) {
+            return;
+        }
+        outbound.putIfAbsent(
+                nodeId, new Outbound(newEpoch(stream.recentEpochs), stream.recentEpochs));
+        List<Outgoing> dropped;
+        synchronized (stream) {
+            dropped = new ArrayList<>(stream.unacked.values());
+            stream.unacked.clear();
+        }
+        for (Outgoing outgoing : dropped) {
+            outgoing.retry.cancel(false);
+            outgoing.acked.completeExceptionally(new CancellationException(
+                    "Stream to " + nodeId + " was reset before " + outgoing.event.eventType
+                            + " was acknowledged"));
+        }
+    }
+
+    /**
+     * Handles a sequenced event from the node. It is acknowledged right away, and passed to the
+     * handler along with any buffered events it unblocks, in sequence order. The event is copied
+     * if it has to wait, so the caller may recycle it afterwards. Runs on the dispatch thread.
+     */
+    void receive(String nodeId, WearEvent event, Handler handler) {
+        Inbound stream = inbound.get(nodeId);
+        if (stream == null || stream.epoch != event.channelEpoch) {
+            if (stream != null && stream.isRetired(event.channelEpoch)) {
+                // Sent before the node reset the stream. The ACK is ignored over there, but
+                // acknowledging it is all there is left to do.
+                acknowledge(nodeId, event);
+                return;
+            }
+            // First contact, or the peer restarted. Anything from its previous epoch is gone.
+            if (stream == null) {
+                stream = new Inbound();
+                inbound.put(nodeId, stream);
+            }
+            stream.start(event.channelEpoch);
+        }
+        int sequence = event.sequence;
+        if (sequence - stream.expected >= RECEIVE_WINDOW) {
+            // Too far ahead to buffer. Not acknowledging it makes the sender try again later.
+            metrics.recordDropped(nodeId, event.eventType, event.playerNum);
+            return;
+        }
+        acknowledge(nodeId, event);
+        if (sequence < stream.expected || stream.buffered.containsKey(sequence)) {
+            // Our earlier ACK got lost.
+            return;
+        }
+        if (sequence != stream.expected) {
+            WearEvent copy = new WearEvent(event.eventType);
+            copy.copyFrom(event);
+            stream.buffered.put(sequence, copy);
+            return;
+        }
+        stream.expected++;
+        handler.handle(nodeId, event);
+        WearEvent next;
+        while ((next = stream.buffered.remove(stream.expected)) != null) {
+            stream.expected++;
+            handler.handle(nodeId, next);
+        }
+    }
+
+    /**
+     * Sends the event once and schedules the next attempt. Called with the stream locked.
+     */
+    private void transmit(String nodeId, Outbound stream, Outgoing outgoing) {
+        long delay = Math.min(INITIAL_RETRY_MILLIS << outgoing.attempts, MAX_RETRY_MILLIS);
+        outgoing.attempts++;
+        sender.send(nodeId, outgoing.event, outgoing.path);
+        outgoing.retry = timer.schedule(
+                () -> retry(nodeId, stream, outgoing), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void retry(String nodeId, Outbound stream, Outgoing outgoing) {
+        synchronized (stream) {
+            if (stream.unacked.get(outgoing.event.sequence) != outgoing) {
+                return;
+            }
+            if (outgoing.attempts < MAX_ATTEMPTS) {
+                transmit(nodeId, stream, outgoing);
+                return;
+            }
+            stream.unacked.remove(outgoing.event.sequence);
+        }
+        WearLog.e(TAG, "Giving up on " + outgoing.event.eventType + " to " + nodeId);
+        metrics.recordDropped(nodeId, outgoing.event.eventType, outgoing.event.playerNum);
+        // The node is stuck waiting for that sequence number, and would buffer everything after
+        // it without ever handing it on, so the stream has to start over. That happens first so
+        // whatever is sent in reaction to the failure already goes out under the new epoch.
+        restart(nodeId, stream);
+        outgoing.acked.completeExceptionally(new TimeoutException(
+                outgoing.event.eventType + " to " + nodeId + " was never acknowledged"));
+    }
+
+    /**
+     * A random epoch other than any of the recent ones.
+     */
+    private int newEpoch(int[] recentEpochs) {
+        while (true) {
+            int epoch = random.nextInt(MAX_EPOCH) + 1;
+            boolean recent = false;
+            for (int recentEpoch : recentEpochs) {
+                recent |= recentEpoch == epoch;
+            }
+            if (!recent) {
+                return epoch;
+            }
+        }
+    }
+
+    private void acknowledge(String nodeId, WearEvent event) {
+        WearEvent ack = new WearEvent(WearEvent.EventType.ACK).setPlayerNum(event.playerNum);
+        ack.setSequence(event.channelEpoch, event.sequence);
+        sender.send(nodeId, ack, "/ack");
+    }
+}
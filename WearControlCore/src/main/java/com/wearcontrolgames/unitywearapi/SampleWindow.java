@@ -0,0 +1,80 @@
+package com.wearcontrolgames.unitywearapi;
+
+/**
+ * The last windowNanos worth of three channel sensor samples, in a fixed size ring of primitives.
+ * Running sums of each channel are kept up to date as samples enter and leave the window, so
+ * reading them doesn't depend on how many samples it holds. Once the ring is full the oldest
+ * sample is pushed out even if it's still inside the window.
+ */
+final class SampleWindow {
+    private final long windowNanos;
+    private final long[] times;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private int start;
+    private int count;
+
+    double sumX;
+    double sumY;
+    double sumZ;
+
+    SampleWindow(int capacity, long windowNanos) {
+        this.windowNanos = windowNanos;
+        times = new long[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+    }
+
+    /**
+     * Adds a sample, first dropping whatever has fallen out of the window ending at its time.
+     */
+    void add(long timeNanos, float x, float y, float z) {
+        evictBefore(timeNanos - windowNanos);
+        if (count == times.length) {
+            removeOldest();
+        }
+        int index = (start + count) % times.length;
+        times[index] = timeNanos;
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+        count++;
+        sumX += x;
+        sumY += y;
+        sumZ += z;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void clear() {
+        start = 0;
+        count = 0;
+        sumX = 0;
+        sumY = 0;
+        sumZ = 0;
+    }
+
+    private void evictBefore(long timeNanos) {
+        while (count > 0 && times[start] - timeNanos <= 0) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        sumX -= xs[start];
+        sumY -= ys[start];
+        sumZ -= zs[start];
+        start = (start + 1) % times.length;
+        count--;
+        if (count == 0) {
+            // Don't let rounding errors build up in the sums.
+            sumX = 0;
+            sumY = 0;
+            sumZ = 0;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Orders outbound messages before they are handed to the MessageClient. There are three lanes,
+ * drained in this order:
+ * <ul>
+ *   <li>Control events (pairing, disconnect, pause, restart) go out first and are never rate
+ *   limited, so they can't get stuck behind a burst of input.</li>
+ *   <li>Any other event keeps its FIFO order.</li>
+ *   <li>Position updates are coalesced per player. Only the newest sample that hasn't been sent yet
+ *   is kept, so a slow link drops stale positions instead of delivering them late. When batching
+ *   is on, samples for a player are collected into one POSITION_BATCH instead, which goes out
+ *   once it is full or its time window has passed.</li>
+ * </ul>
+ * Non-control sends are limited to a maximum rate per receiving node, and while the
+ * {@link RateController} is enabled each player's position updates are also paced to the rate it
+ * currently allows for the player's node. Sends happen on a single
+ * worker thread owned by the scheduler, which runs the idle callback before it waits whenever it
+ * has sent something since the last time it went idle.
+ */
+class SendScheduler {
+    private static final String TAG = "com.google.unitywear.SendScheduler";
+
+    interface Transmitter {
+        /**
+         * Hands the message to the transport. The future completes once the transport has sent
+         * it.
+         */
+        CompletableFuture<Integer> transmit(String receiver, WearEvent event, String path);
+    }
+
+    private static final class Pending {
+        final String receiver;
+        final WearEvent event;
+        final String path;
+        // Completed with the transport's result, if someone is waiting for it.
+        final CompletableFuture<Integer> result;
+
+        Pending(String receiver, WearEvent event, String path, CompletableFuture<Integer> result) {
+            this.receiver = receiver;
+            this.event = event;
+            this.path = path;
+            this.result = result;
+        }
+    }
+
+    private static final class PositionSlot {
+        // The newest sample is copied in here so callers are free to reuse their event.
+        final WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE);
+        String receiver;
+        String path;
+        boolean pending;
+        // When the slot last sent, for the adaptive rate. Only valid once hasSent is set.
+        long sentAtNanos;
+        boolean hasSent;
+
+        // Used instead of the event above while the receiver takes batches.
+        WearEvent batch;
+        long[] batchTimesNanos;
+        boolean batching;
+    }
+
+    private final Transmitter transmitter;
+    private final Runnable onIdle;
+    private final WearMetrics metrics;
+    private final RateController rateController;
+    private final Object lock = new Object();
+
+    private final ArrayDeque<Pending> priorityLane = new ArrayDeque<>();
+    private final ArrayDeque<Pending> normalLane = new ArrayDeque<>();
+    private final HashMap<Integer, PositionSlot> positionSlots = new HashMap<>();
+    // Same slots as above, so the worker can round robin between players without an iterator.
+    private final ArrayList<PositionSlot> positionSlotList = new ArrayList<>();
+    private int nextSlot = 0;
+
+    // Stored in a one element array so updating it doesn't box.
+    private final HashMap<String, long[]> lastSentNanos = new HashMap<>();
+    private long minIntervalNanos = 0;
+
+    // Batching is off while maxBatchSamples is below 2.
+    private int maxBatchSamples = 0;
+    private long batchWindowNanos = 0;
+
+    // Owned by the worker. Holds the position that is being sent once the lock is released.
+    private final WearEvent inFlightPosition = new WearEvent(WearEvent.EventType.POSITION_UPDATE);
+    private final WearEvent inFlightBatch = new WearEvent(WearEvent.EventType.POSITION_BATCH);
+
+    // Owned by the worker. Set once something was sent since the idle callback last ran.
+    private boolean sentSinceIdle = false;
+
+    private boolean running = true;
+    private final Thread worker;
+
+    SendScheduler(Transmitter transmitter, Runnable onIdle, WearMetrics metrics,
+            RateController rateController) {
+        this.transmitter = transmitter;
+        this.onIdle = onIdle;
+        this.metrics = metrics;
+        this.rateController = rateController;
+        worker = new Thread(this::run, "WearSendScheduler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    static boolean isControlEvent(WearEvent.EventType type) {
+        switch (type) {
+            case PAIR_REQUEST:
+            case PAIR_RESPONSE:
+            case PAIR_ACCEPTED:
+            case PAIR_REJECTED:
+            case RESUME:
+            case PAIR_RESUMED:
+            case DISCONNECT:
+            case PAUSE_GAME:
+            case UNPAUSE_GAME:
+            case RESTART_GAME:
+            case PING:
+            case PONG:
+            case KEYFRAME_ACK:
+            case ACK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the maximum number of non-control messages per second sent to each node. Zero or less
+     * removes the limit.
+     */
+    void setMaxSendRate(float messagesPerSecond) {
+        synchronized (lock) {
+            minIntervalNanos = messagesPerSecond > 0 ? (long) (1e9 / messagesPerSecond) : 0;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Sets how position updates are batched for receivers that can read batches. A batch is sent
+     * once it holds maxSamples samples or windowNanos after its first sample, whichever comes
+     * first. A maxSamples below 2 turns batching off.
+     */
+    void setBatching(int maxSamples, long windowNanos) {
+        synchronized (lock) {
+            maxBatchSamples = maxSamples;
+            batchWindowNanos = windowNanos;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Queues an event for the receiver. canBatch says whether the receiver understands
+     * POSITION_BATCH, and only matters for position updates.
+     */
+    void enqueue(String receiver, WearEvent event, String path, boolean canBatch) {
+        synchronized (lock) {
+            if (event.eventType == WearEvent.EventType.POSITION_UPDATE) {
+                PositionSlot slot = positionSlots.get(event.playerNum);
+                if (slot == null) {
+                    slot = new PositionSlot();
+                    positionSlots.put(event.playerNum, slot);
+                    positionSlotList.add(slot);
+                }
+                boolean batching = canBatch && maxBatchSamples > 1;
+                if (slot.batching != batching || !receiver.equals(slot.receiver)) {
+                    // Don't mix samples meant for a different node or mode into the new one.
+                    slot.pending = false;
+                    if (slot.batch != null) {
+                        slot.batch.sampleCount = 0;
+                    }
+                }
+                slot.batching = batching;
+                slot.receiver = receiver;
+                slot.path = path;
+                if (batching) {
+                    addToBatch(slot, event);
+                } else {
+                    if (slot.pending) {
+                        // The sample this replaces never went out.
+                        metrics.recordDropped(receiver, event.eventType, event.playerNum);
+                    }
+                    slot.event.copyFrom(event);
+                }
+                slot.pending = true;
+            } else if (isControlEvent(event.eventType)) {
+                priorityLane.addLast(new Pending(receiver, event, path, null));
+            } else {
+                normalLane.addLast(new Pending(receiver, event, path, null));
+            }
+            lock.notify();
+        }
+    }
+
+    /**
+     * Queues a control event and returns a future that completes with the transport's result
+     * once it has been sent, or exceptionally if sending it failed.
+     */
+    CompletableFuture<Integer> enqueueControl(String receiver, WearEvent event, String path) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        synchronized (lock) {
+            priorityLane.addLast(new Pending(receiver, event, path, result));
+            lock.notify();
+        }
+        return result;
+    }
+
+    /**
+     * Drops any queued position update for the player, e.g. once they disconnect.
+     */
+    void clearPlayer(int playerNum) {
+        synchronized (lock) {
+            PositionSlot slot = positionSlots.get(playerNum);
+            if (slot != null) {
+                slot.pending = false;
+                if (slot.batch != null) {
+                    slot.batch.sampleCount = 0;
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notify();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            String receiver;
+            WearEvent event;
+            String path;
+            CompletableFuture<Integer> result = null;
+            // Control events skip the per-node rate limit, so they don't count against it either.
+            boolean rateLimited = true;
+            synchronized (lock) {
+                while (true) {
+                    if (!running) {
+                        return;
+                    }
+                    Pending pending = priorityLane.pollFirst();
+                    long now = System.nanoTime();
+                    if (pending != null) {
+                        receiver = pending.receiver;
+                        event = pending.event;
+                        path = pending.path;
+                        result = pending.result;
+                        rateLimited = false;
+                        break;
+                    }
+
+                    long wakeAt = Long.MAX_VALUE;
+                    pending = normalLane.peekFirst();
+                    if (pending != null) {
+                        long readyAt = readyAt(pending.receiver);
+                        if (readyAt <= now) {
+                            normalLane.pollFirst();
+                            receiver = pending.receiver;
+                            event = pending.event;
+                            path = pending.path;
+                            break;
+                        }
+                        wakeAt = readyAt;
+                    }
+
+                    PositionSlot slot = null;
+                    int count = positionSlotList.size();
+                    for (int i = 0; i < count; i++) {
+                        PositionSlot candidate = positionSlotList.get((nextSlot + i) % count);
+                        if (!candidate.pending) {
+                            continue;
+                        }
+                        long readyAt = readyAt(candidate.receiver);
+                        long interval = rateController.intervalNanos(candidate.receiver);
+                        if (interval > 0 && candidate.hasSent) {
+                            readyAt = Math.max(readyAt, candidate.sentAtNanos + interval);
+                        }
+                        if (candidate.batching) {
+                            readyAt = Math.max(readyAt, batchReadyAt(candidate));
+                        }
+                        if (readyAt <= now) {
+                            slot = candidate;
+                            nextSlot = (nextSlot + i + 1) % count;
+                            break;
+                        }
+                        wakeAt = Math.min(wakeAt, readyAt);
+                    }
+                    if (slot != null) {
+                        slot.pending = false;
+                        slot.sentAtNanos = now;
+                        slot.hasSent = true;
+                        if (slot.batching) {
+                            inFlightBatch.copyFrom(slot.batch);
+                            slot.batch.sampleCount = 0;
+                            event = inFlightBatch;
+                        } else {
+                            inFlightPosition.copyFrom(slot.event);
+                            event = inFlightPosition;
+                        }
+                        receiver = slot.receiver;
+                        path = slot.path;
+                        break;
+                    }
+
+                    if (sentSinceIdle) {
+                        // Nothing is ready, let the idle callback run before waiting.
+                        event = null;
+                        receiver = null;
+                        path = null;
+                        break;
+                    }
+                    try {
+                        if (wakeAt == Long.MAX_VALUE) {
+                            lock.wait();
+                        } else {
+                            long waitNanos = wakeAt - now;
+                            lock.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (event != null && rateLimited) {
+                    markSent(receiver);
+                }
+            }
+
+            if (event == null) {
+                sentSinceIdle = false;
+                runIdle();
+                continue;
+            }
+            sentSinceIdle = true;
+            try {
+                CompletableFuture<Integer> sent = transmitter.transmit(receiver, event, path);
+                if (result != null) {
+                    CompletableFuture<Integer> waiting = result;
+                    sent.whenComplete((requestId, error) -> {
+                        if (error != null) {
+                            waiting.completeExceptionally(error);
+                        } else {
+                            waiting.complete(requestId);
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {
+                WearLog.e(TAG, "Failed to send " + event.eventType + " to " + receiver, e);
+                if (result != null) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void runIdle() {
+        try {
+            onIdle.run();
+        } catch (RuntimeException e) {
+            WearLog.e(TAG, "Idle callback failed", e);
+        }
+    }
+
+    /**
+     * Appends the sample to the slot's batch. If the batch is already full because the receiver is
+     * being rate limited, or has more samples than a newly lowered limit allows, the oldest
+     * samples are dropped to make room. A raised limit grows the batch, keeping what it holds.
+     */
+    private void addToBatch(PositionSlot slot, WearEvent event) {
+        if (slot.batch == null) {
+            slot.batch = new WearEvent(WearEvent.EventType.POSITION_BATCH)
+                    .ensureSampleCapacity(maxBatchSamples);
+            slot.batchTimesNanos = new long[maxBatchSamples];
+        } else if (slot.batchTimesNanos.length < maxBatchSamples) {
+            slot.batch.ensureSampleCapacity(maxBatchSamples);
+            slot.batchTimesNanos = Arrays.copyOf(slot.batchTimesNanos, maxBatchSamples);
+        }
+        WearEvent batch = slot.batch;
+        batch.playerNum = event.playerNum;
+        if (batch.sampleCount >= maxBatchSamples) {
+            int drop = batch.sampleCount - maxBatchSamples + 1;
+            for (int i = 0; i < drop; i++) {
+                metrics.recordDropped(slot.receiver, event.eventType, event.playerNum);
+            }
+            int keep = batch.sampleCount - drop;
+            System.arraycopy(batch.samplesX, drop, batch.samplesX, 0, keep);
+            System.arraycopy(batch.samplesY, drop, batch.samplesY, 0, keep);
+            System.arraycopy(slot.batchTimesNanos, drop, slot.batchTimesNanos, 0, keep);
+            batch.sampleCount = keep;
+        }
+        long now = event.timestampNanos != 0 ? event.timestampNanos : System.nanoTime();
+        int index = batch.sampleCount++;
+        batch.samplesX[index] = event.posX;
+        batch.samplesY[index] = event.posY;
+        slot.batchTimesNanos[index] = now;
+        // Offsets are relative to the oldest sample still in the batch.
+        long first = slot.batchTimesNanos[0];
+        for (int i = 0; i < batch.sampleCount; i++) {
+            batch.sampleOffsetsMicros[i] = (int) ((slot.batchTimesNanos[i] - first) / 1000);
+        }
+    }
+
+    private long batchReadyAt(PositionSlot slot) {
+        if (slot.batch.sampleCount >= maxBatchSamples) {
+            return Long.MIN_VALUE;
+        }
+        return slot.batchTimesNanos[0] + batchWindowNanos;
+    }
+
+    private long readyAt(String receiver) {
+        long[] last = lastSentNanos.get(receiver);
+        if (last == null || minIntervalNanos == 0) {
+            return Long.MIN_VALUE;
+        }
+        return last[0] + minIntervalNanos;
+    }
+
+    private void markSent(String receiver) {
+        long[] last = lastSentNanos.get(receiver);
+        if (last == null) {
+            last = new long[1];
+            lastSentNanos.put(receiver, last);
+        }
+        last[0] = System.nanoTime();
+    }
+}
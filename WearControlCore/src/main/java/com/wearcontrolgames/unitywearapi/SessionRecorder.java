@@ -0,0 +1,184 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Appends every event a data layer handles or sends to a session file, so the exact stream seen
+ * in the field can be replayed later with {@link SessionReplayer}.
+ *
+ * The file starts with a header and is followed by records, and is only ever appended to:
+ * <pre>
+ *   header:
+ *     4 bytes  "WCSR"
+ *     byte     format version (1)
+ *     long     wall clock in microseconds when recording started
+ *   node record, written the first time a node id appears:
+ *     byte     0
+ *     varint   length + UTF-8 node id, which gets the next node index starting at 1
+ *   event record:
+ *     byte     1 for inbound, 2 for outbound
+ *     varlong  nanoseconds since the previous record, or since recording started
+ *     varint   node index, 0 if there is none (data map sends, events raised locally)
+ *     varlong  how long before the record the event's timestampNanos was, zig-zag encoded plus
+ *              one, or 0 if it had none
+ *     varint   length + the event as a {@link WearEventCodec} frame
+ * </pre>
+ * Inbound events are recorded as they are dispatched to listeners, i.e. after pairing checks,
+ * reliable ordering, dequantization and unpacking batches, and outbound events as the game hands
+ * them over. The codec doesn't carry the details of a LINK_STATE, so those aren't recorded.
+ * Records go through an in-memory buffer that is written out whenever it fills up, so recording
+ * costs an encode and a copy per event. Multi-byte values are big-endian.
+ */
+class SessionRecorder {
+    private static final String TAG = "com.google.unitywear.SessionRecorder";
+
+    static final byte[] MAGIC = {'W', 'C', 'S', 'R'};
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+    static final byte KIND_NODE = 0;
+    static final byte KIND_INBOUND = 1;
+    static final byte KIND_OUTBOUND = 2;
+    static final int BUFFER_SIZE = 64 * 1024;
+    // A kind byte, two varlongs and two varints on top of the frame.
+    private static final int MAX_RECORD_OVERHEAD = 1 + 10 + 5 + 10 + 5;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final HashMap<String, Integer> nodeIndexes = new HashMap<>();
+    private long lastRecordNanos;
+    private boolean closed;
+
+    /**
+     * Creates or truncates the file and writes the header.
+     */
+    SessionRecorder(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            channel = file.getChannel();
+            buffer.put(MAGIC);
+            buffer.put((byte) FORMAT_VERSION);
+            buffer.putLong(WearClock.nowMicros());
+            lastRecordNanos = System.nanoTime();
+        } catch (IOException | RuntimeException e) {
+            try {
+                file.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the event. Safe to call from any thread. If writing fails the recording stops and
+     * later calls do nothing.
+     */
+    synchronized void record(byte kind, @Nullable String nodeId, WearEvent event) {
+        if (closed) {
+            return;
+        }
+        try {
+            int node = nodeId == null ? 0 : nodeIndex(nodeId);
+            int frameSize = WearEventCodec.encodedSize(event);
+            ensureRoom(MAX_RECORD_OVERHEAD + frameSize);
+            long now = System.nanoTime();
+            buffer.put(kind);
+            putVarLong(buffer, now - lastRecordNanos);
+            lastRecordNanos = now;
+            WearEventCodec.putVarint(buffer, node);
+            long age = now - event.timestampNanos;
+            putVarLong(buffer, event.timestampNanos == 0 ? 0 : ((age << 1) ^ (age >> 63)) + 1);
+            WearEventCodec.putVarint(buffer, frameSize);
+            WearEventCodec.encode(event, buffer);
+        } catch (IOException e) {
+            WearLog.e(TAG, "Couldn't write to the session file, stopping the recording", e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Writes out anything buffered and closes the file.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            WearLog.e(TAG, "Couldn't write the end of the session file", e);
+        }
+        closeQuietly();
+    }
+
+    private int nodeIndex(String nodeId) throws IOException {
+        Integer index = nodeIndexes.get(nodeId);
+        if (index != null) {
+            return index;
+        }
+        byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        ensureRoom(1 + 5 + id.length);
+        buffer.put(KIND_NODE);
+        WearEventCodec.putVarint(buffer, id.length);
+        buffer.put(id);
+        index = nodeIndexes.size() + 1;
+        nodeIndexes.put(nodeId, index);
+        return index;
+    }
+
+    private void ensureRoom(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush();
+        }
+        if (buffer.remaining() < size) {
+            throw new IOException("Record of " + size + " bytes doesn't fit in the buffer");
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            file.close();
+        } catch (IOException e) {
+            WearLog.e(TAG, "Couldn't close the session file", e);
+        }
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+}
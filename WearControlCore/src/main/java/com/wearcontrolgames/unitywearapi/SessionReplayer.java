@@ -0,0 +1,187 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a session file written by {@link WearDataLayerCore#startRecording(File)} back into a data
+ * layer, with the original timing or sped up. The file is memory mapped, so even long sessions
+ * are read without copying them onto the heap.
+ *
+ * Inbound events are dispatched again on the data layer's dispatch thread, so listeners,
+ * smoothing and polling see the recorded stream without any of it being handled a second time.
+ * If listeners can't keep up the replay waits for them rather than dropping anything. Outbound
+ * events are sent again with {@link WearDataLayerCore#sendUpdate(WearEvent)}, e.g. from a
+ * simulated watch on a {@link LoopbackNetwork}. Wall clock stamps in the events are moved to the
+ * time of the replay.
+ *
+ * One replayer can replay into several data layers at once from different threads, or into one
+ * from several threads, e.g. a single captured player replayed as eight players with
+ * {@link #replay(WearDataLayerCore, Direction, int)}.
+ */
+public class SessionReplayer implements Closeable {
+    private static final String TAG = "com.google.unitywear.SessionReplayer";
+
+    public enum Direction {
+        INBOUND,
+        OUTBOUND
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final long recordedStartMicros;
+    private volatile float speed = 1;
+
+    public SessionReplayer(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[SessionRecorder.MAGIC.length];
+            if (mapped.remaining() < SessionRecorder.HEADER_SIZE) {
+                throw new IOException("Not a session file: " + file);
+            }
+            mapped.get(magic);
+            if (!Arrays.equals(magic, SessionRecorder.MAGIC)) {
+                throw new IOException("Not a session file: " + file);
+            }
+            int version = mapped.get();
+            if (version != SessionRecorder.FORMAT_VERSION) {
+                throw new IOException("Unsupported session file version " + version);
+            }
+            recordedStartMicros = mapped.getLong();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets how much faster than recorded the session is replayed, e.g. 2 for twice as fast. Zero
+     * or less replays as fast as possible. Defaults to 1.
+     */
+    public SessionReplayer setSpeed(float speed) {
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * Replays every event recorded in that direction, with their original player numbers.
+     * Returns how many events were replayed.
+     */
+    public int replay(WearDataLayerCore target, Direction direction) throws InterruptedException {
+        return replay(target, direction, -1);
+    }
+
+    /**
+     * Replays every event recorded in that direction into the data layer, on the calling thread,
+     * and returns how many events were replayed. If playerNum isn't negative every event is
+     * replayed as that player instead, and inbound events come from a node id with the player
+     * number appended, so each simulated player looks like its own watch. A truncated last
+     * record, e.g. from an app that was killed while recording, ends the replay early.
+     */
+    public int replay(WearDataLayerCore target, Direction direction, int playerNum)
+            throws InterruptedException {
+        ByteBuffer records = mapped.duplicate();
+        records.position(SessionRecorder.HEADER_SIZE);
+        float speed = this.speed;
+        long startNanos = System.nanoTime();
+        long startMicros = WearClock.nowMicros();
+        ArrayList<String> nodes = new ArrayList<>();
+        nodes.add(null);
+        long recordedNanos = 0;
+        int replayed = 0;
+        try {
+            while (records.hasRemaining()) {
+                byte kind = records.get();
+                if (kind == SessionRecorder.KIND_NODE) {
+                    byte[] id = new byte[WearEventCodec.getVarint(records)];
+                    records.get(id);
+                    String nodeId = new String(id, StandardCharsets.UTF_8);
+                    nodes.add(playerNum >= 0 ? nodeId + "-" + playerNum : nodeId);
+                    continue;
+                }
+                recordedNanos += SessionRecorder.getVarLong(records);
+                String nodeId = nodes.get(WearEventCodec.getVarint(records));
+                long age = SessionRecorder.getVarLong(records);
+                int frameSize = WearEventCodec.getVarint(records);
+                if (kind != kindOf(direction)) {
+                    records.position(records.position() + frameSize);
+                    continue;
+                }
+                ByteBuffer frame = records.duplicate();
+                frame.limit(frame.position() + frameSize);
+                records.position(frame.limit());
+                WearEvent event = WearEventCodec.decode(frame);
+                if (event == null) {
+                    WearLog.e(TAG, "Skipping an event that couldn't be decoded");
+                    continue;
+                }
+
+                long dueNanos = speed > 0 ? (long) (recordedNanos / speed) : 0;
+                waitUntil(startNanos + dueNanos);
+                long shiftMicros = startMicros + dueNanos / 1000
+                        - (recordedStartMicros + recordedNanos / 1000);
+                shiftTimes(event, shiftMicros);
+                if (age != 0) {
+                    age--;
+                    event.timestampNanos = System.nanoTime() - ((age >>> 1) ^ -(age & 1));
+                }
+                if (playerNum >= 0) {
+                    event.setPlayerNum(playerNum);
+                }
+                if (direction == Direction.INBOUND) {
+                    target.injectInbound(nodeId, event);
+                } else {
+                    target.sendUpdate(event);
+                }
+                replayed++;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException e) {
+            WearLog.e(TAG, "Session file ends in a broken record after " + replayed + " events", e);
+        }
+        return replayed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte kindOf(Direction direction) {
+        return direction == Direction.INBOUND
+                ? SessionRecorder.KIND_INBOUND : SessionRecorder.KIND_OUTBOUND;
+    }
+
+    private static void shiftTimes(WearEvent event, long shiftMicros) {
+        if (event.sentTimeMicros > 0) {
+            event.sentTimeMicros += shiftMicros;
+        }
+        if (event.echoTimeMicros > 0) {
+            event.echoTimeMicros += shiftMicros;
+        }
+        if (event.gestureTimeMicros > 0) {
+            event.gestureTimeMicros += shiftMicros;
+        }
+    }
+
+    private static void waitUntil(long dueNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.wearcontrolgames.unitywearapi;
+
+/**
+ * Wall clock time in microseconds for stamping events. It is read from System.currentTimeMillis()
+ * once and advanced with System.nanoTime() after that, so it has microsecond resolution and
+ * doesn't jump if the system clock is adjusted while we run.
+ */
+final class WearClock {
+    private static final long START_EPOCH_MICROS = System.currentTimeMillis() * 1000;
+    private static final long START_NANOS = System.nanoTime();
+
+    private WearClock() {}
+
+    static long nowMicros() {
+        return START_EPOCH_MICROS + (System.nanoTime() - START_NANOS) / 1000;
+    }
+
+    /**
+     * Converts a time from {@link #nowMicros()} to the System.nanoTime() timebase used by
+     * {@link WearEvent#timestampNanos}.
+     */
+    static long toNanoTime(long micros) {
+        return START_NANOS + (micros - START_EPOCH_MICROS) * 1000;
+    }
+}
@@ -0,0 +1,1675 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The platform independent part of the data layer: pairing, the send path and dispatching events
+ * to listeners. It runs on top of a {@link WearTransport}, so it works the same on a device and on
+ * a plain JVM. Android code should use WearDataLayer, which adds the Play Services transport and
+ * the Unity facing API.
+ */
+public class WearDataLayerCore implements WearTransport.Receiver {
+    private static final String TAG = "com.google.unitywear.WearDataLayer";
+
+    public static final String NODE_ID_KEY = "com.wearcontrolgames.unitywearapi.node_id";
+    public static final String EVENT_KEY = "com.wearcontrolgames.unitywearapi.event";
+    public static final String TIMESTAMP_KEY = "com.wearcontrolgames.unitywearapi.timestamp";
+
+    public static final String WEAR_CONTROL_CAPABILITY = "wear_control_support";
+
+    // How long pauseGame, unpauseGame and restartGame wait on paired nodes.
+    private static final long CONTROL_BROADCAST_TIMEOUT_MILLIS = 2000;
+
+    // Inbound binary frames up to this size are decoded without allocating on the hot path.
+    private static final int INBOUND_FRAME_SIZE = 256;
+
+    /**
+     * Size in bytes of each event record written by {@link #pollEvents}.
+     */
+    public static final int POLL_RECORD_SIZE = EventPollQueue.RECORD_SIZE;
+
+    /**
+     * Size in bytes of each record written by {@link #sampleSmoothedPositions}.
+     */
+    public static final int SMOOTHED_RECORD_SIZE = InputSmoother.RECORD_SIZE;
+
+    /** Smoothing state: the position lies between two received samples. */
+    public static final int SMOOTHED_INTERPOLATED = InputSmoother.STATE_INTERPOLATED;
+    /** Smoothing state: the position was extrapolated past the newest sample. */
+    public static final int SMOOTHED_EXTRAPOLATED = InputSmoother.STATE_EXTRAPOLATED;
+    /** Smoothing state: no new samples arrived in time and the position is holding still. */
+    public static final int SMOOTHED_HOLDING = InputSmoother.STATE_HOLDING;
+
+    /** Subscribes a listener to every player's events rather than a single player's. */
+    public static final int ALL_PLAYERS = -1;
+
+    public interface Listener {
+        void onEvent(WearEvent event);
+    }
+
+    private final WearTransport transport;
+    // Replaced as a whole whenever a listener is added or removed, so dispatch can walk it from
+    // any thread without locking.
+    private volatile ListenerTable listeners = ListenerTable.EMPTY;
+
+    private volatile String nodeId;
+    // Completes once the transport has told us our node id, and nodeId is set.
+    private final CompletableFuture<String> localNodeId;
+    // Which node each player is paired to, or how far along pairing it is.
+    private final PairingTable pairing = new PairingTable(this::pairingsChanged);
+    // Null unless pairings are kept across restarts.
+    private final PairingStore pairingStore;
+    // Resuming players we've sent a RESUME for. Only used on the dispatch thread.
+    private final Set<Integer> resumesSent = new HashSet<>();
+
+    // Runs delayed work, like expiring data items, on a single background thread.
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "WearTimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // The data items we've written and when they expire.
+    private final DataItemTracker dataItems;
+
+    // The wire protocol version each peer advertised while pairing. Peers that aren't in here
+    // only understand JSON. Read from the send scheduler's thread.
+    private ConcurrentHashMap<String, Integer> peerProtocolVersions = new ConcurrentHashMap<>();
+
+    private final WearMetrics metrics = new WearMetrics();
+    private final SendScheduler sendScheduler;
+    // Stamped on events that went into a channel instead of a message, which have no request id.
+    private static final CompletableFuture<Integer> STREAMED = CompletableFuture.completedFuture(0);
+    private final ChannelStreams channelStreams;
+    // See setChannelStreamingEnabled.
+    private volatile boolean channelStreamingEnabled = false;
+    // Pairing, disconnect and game control events to peers that support it.
+    private final ReliableChannel reliableChannel;
+
+    private final RateController rateController = new RateController(this::onRateChanged);
+
+    private final LivenessMonitor liveness = new LivenessMonitor(new LivenessMonitor.Listener() {
+        @Override
+        public void onHeartbeatDue(String node) {
+            sendHeartbeat(node);
+        }
+
+        @Override
+        public void onStateChanged(String node, LivenessMonitor.State state) {
+            onLivenessChanged(node, state);
+        }
+    });
+    // Null unless liveness detection is on. Guarded by this.
+    private ScheduledFuture<?> livenessCheck;
+
+    private final ClockSync clockSync = new ClockSync();
+    // See setClockSyncEnabled. PONGs to other PINGs only feed the estimate while this is on.
+    private volatile boolean clockSyncEnabled = false;
+    // Null unless clock sync is on. Guarded by this.
+    private ScheduledFuture<?> clockSyncCheck;
+
+    // See setHotPathEnabled.
+    private volatile boolean hotPathEnabled = false;
+    private final WearEventPool eventPool = new WearEventPool();
+    private final OutboundFrames outboundFrames = new OutboundFrames();
+    private final ByteBuffer inboundFrame = ByteBuffer.allocate(INBOUND_FRAME_SIZE);
+    private final WearEvent positionScratch = new WearEvent(WearEvent.EventType.POSITION_UPDATE);
+
+    // See setPositionQuantization. Quantized updates are decoded whether or not this is on.
+    private volatile boolean quantizePositions = false;
+    private final PositionStreams positionStreams = new PositionStreams();
+
+    // When false, inbound POSITION_BATCH events are unpacked into one POSITION_UPDATE per sample.
+    private volatile boolean deliverPositionBatches = false;
+
+    // Decoded inbound events are handled and dispatched on this dispatcher's thread.
+    private final InboundDispatcher inboundDispatcher;
+
+    private final NodeCache nodeCache;
+    // Whether NODES_AVAILABLE or NODES_UNAVAILABLE went out last, null before either has. Only
+    // used on the dispatch thread.
+    private Boolean nodesAvailable;
+
+    // Null unless polling is enabled, see setEventPollingEnabled.
+    private volatile EventPollQueue pollQueue;
+
+    // See setInputSmoothingEnabled.
+    private volatile boolean inputSmoothingEnabled = false;
+    private final InputSmoother inputSmoother = new InputSmoother();
+    private final double[] smoothingScratch = new double[2];
+
+    private volatile SessionRecorder recorder;
+    // The node the event being handled came from. Only used on the dispatch thread.
+    private String dispatchingFrom;
+
+    /**
+     * Creates a data layer on top of any transport, e.g. a {@link LoopbackNetwork} node for
+     * testing without devices.
+     */
+    public WearDataLayerCore(WearTransport transport) {
+        this(transport, null);
+    }
+
+    /**
+     * Creates a data layer that keeps its node id and pairings in the store. Pairings stored by an
+     * earlier instance are resumed with a single RESUME message as soon as their node is
+     * reachable, and listeners get PAIR_RESUMED for each one that is picked up again. Pairings
+     * the node has forgotten come back as PAIR_REJECTED, and need a new handshake.
+     */
+    public WearDataLayerCore(WearTransport transport, @Nullable PairingStore pairingStore) {
+        this.transport = transport;
+        this.pairingStore = pairingStore;
+        channelStreams = new ChannelStreams(transport);
+        sendScheduler = new SendScheduler(
+                this::transmitMessage, channelStreams::flush, metrics, rateController);
+        reliableChannel = new ReliableChannel(sendScheduler::enqueueControl, timer, metrics);
+        inboundDispatcher = new InboundDispatcher(
+                this::handleInbound, eventPool, metrics, InboundDispatcher.DEFAULT_CAPACITY);
+        nodeCache = new NodeCache(transport, this::availabilityMayHaveChanged);
+        dataItems = new DataItemTracker(transport, timer);
+
+        if (pairingStore != null) {
+            // A node keeps its id, so the stored one is good until the transport confirms it.
+            nodeId = pairingStore.loadLocalNodeId();
+            restorePairings(pairingStore.loadPairings());
+        }
+        localNodeId = transport.getLocalNodeId().thenApply(id -> {
+            String previous = nodeId;
+            nodeId = id;
+            if (!id.equals(previous)) {
+                pairingsChanged();
+            }
+            return id;
+        });
+        transport.setReceiver(this);
+        nodeCache.refresh();
+    }
+
+    /**
+     * Clears out data items left over from earlier sessions. This returns right away, the deletes
+     * happen in the background.
+     */
+    public void initialize() {
+        dataItems.deleteAll();
+    }
+
+    /**
+     * Turns on the low allocation path for position updates. Outbound updates to peers that
+     * support the binary format are encoded once into recycled buffers, and inbound events are
+     * decoded into pooled WearEvents that are recycled as soon as every listener has been called.
+     * Listeners must copy what they need out of an event instead of holding onto it.
+     */
+    public void setHotPathEnabled(boolean enabled) {
+        hotPathEnabled = enabled;
+    }
+
+    /**
+     * Limits how many messages per second are sent to each paired node. Control events (pairing,
+     * disconnect, pause and restart) are always sent right away. Zero or less removes the limit,
+     * which is the default.
+     */
+    public void setMaxSendRate(float messagesPerSecond) {
+        sendScheduler.setMaxSendRate(messagesPerSecond);
+    }
+
+    /**
+     * Adapts how many position updates per second each paired node is sent to how well the link
+     * to it is doing. The rate drops quickly when sends start taking long or failing, or
+     * acknowledgements come back late, and climbs back slowly while the link keeps up. Listeners
+     * get a LINK_STATE event for the player whenever the link's state or rate changes noticeably,
+     * so the game can adjust too. Off by default.
+     */
+    public void setAdaptiveSendRateEnabled(boolean enabled) {
+        rateController.setEnabled(enabled);
+    }
+
+    /**
+     * Sets the bounds the adaptive send rate stays within, in position updates per second. Nodes
+     * start at the maximum. Defaults to 10 to 60.
+     */
+    public void setAdaptiveSendRate(float minPerSecond, float maxPerSecond) {
+        rateController.setBounds(minPerSecond, maxPerSecond);
+    }
+
+    /**
+     * How many position updates per second the player's node is currently sent by the adaptive
+     * send rate, or 0 if it's off or the player isn't paired.
+     */
+    public float getSendRate(int playerNum) {
+        String pairedTo = pairing.pairedNode(playerNum);
+        return pairedTo == null ? 0 : rateController.rateOf(pairedTo);
+    }
+
+    /**
+     * Packs position updates for each player into POSITION_BATCH messages, for peers that support
+     * them. A batch is sent once it holds maxSamples samples or windowMillis after its first
+     * sample, whichever comes first. A maxSamples below 2 turns batching off, which is the default.
+     */
+    public void setPositionBatching(int maxSamples, float windowMillis) {
+        sendScheduler.setBatching(maxSamples, (long) (windowMillis * 1000000));
+    }
+
+    /**
+     * Sends position updates to peers that support it as quantized deltas against a keyframe the
+     * peer has acknowledged, which takes a few bytes per update instead of two doubles. Positions
+     * are rounded to the quantization of the player's controller type and clamped to its range,
+     * see {@link #setPositionQuantization(WearEvent.ControllerType, int, float, float)}. Off by
+     * default. Updates packed into a POSITION_BATCH are always sent at full precision.
+     */
+    public void setPositionQuantization(boolean enabled) {
+        quantizePositions = enabled;
+    }
+
+    /**
+     * Sets how positions from the controller type are quantized: bitsPerAxis bits (2 to 24) over
+     * min..max on both axes. The defaults cover -1..1 with 12 bits for SLIDER, 14 for ANALOG,
+     * 8 for DPAD and 16 for UNKNOWN.
+     */
+    public void setPositionQuantization(
+            WearEvent.ControllerType type, int bitsPerAxis, float min, float max) {
+        positionStreams.setQuantization(type, bitsPerAxis, min, max);
+    }
+
+    /**
+     * Streams updates to paired peers that support it over one persistent ChannelClient channel
+     * per node instead of a message each, which holds up much better at high input rates. The
+     * channel is opened the first time there is something to send, and until it's open, or while
+     * it's being reopened after it broke, updates go out as messages. Pairing and control events
+     * always go as messages. Off by default.
+     */
+    public void setChannelStreamingEnabled(boolean enabled) {
+        channelStreamingEnabled = enabled;
+        if (!enabled) {
+            channelStreams.closeAll();
+        }
+    }
+
+    /**
+     * By default an inbound POSITION_BATCH is unpacked and each sample is dispatched in order as
+     * its own POSITION_UPDATE. Set this to receive the POSITION_BATCH event itself instead.
+     */
+    public void setDeliverPositionBatches(boolean deliverBatches) {
+        deliverPositionBatches = deliverBatches;
+    }
+
+    /**
+     * Sets what happens to inbound events of the type when listeners fall behind and the dispatch
+     * queue fills up. By default position updates drop the oldest queued update and every other
+     * type is never dropped.
+     */
+    public void setInboundOverflowPolicy(WearEvent.EventType type, InboundOverflowPolicy policy) {
+        inboundDispatcher.setOverflowPolicy(type, policy);
+    }
+
+    /**
+     * How long the cached set of reachable nodes is trusted before it is refreshed in the
+     * background. The transport's reachability callbacks keep it current in between. Defaults to
+     * 30 seconds.
+     */
+    public void setNodeCacheExpiryMillis(long expiryMillis) {
+        nodeCache.setExpiryNanos(expiryMillis * 1000000);
+    }
+
+    /**
+     * Watches paired nodes for silence, so a watch that walked out of range or whose app died is
+     * noticed without waiting for a DISCONNECT. Any traffic from a node counts as a heartbeat,
+     * and a PING goes out only to nodes that have been quiet for a heartbeat interval. Listeners
+     * get a LINK_STATE of SUSPECT once a node has been quiet for two intervals, and another
+     * LINK_STATE if it's heard from again. Once it has been quiet for the miss threshold its
+     * player is disconnected as if it had sent DISCONNECT, which is dispatched along with
+     * NODES_AVAILABLE or NODES_UNAVAILABLE as usual, at most half an interval later. If the node
+     * comes back it can resume the pairing. Only peers that answer PING are watched. Off by
+     * default.
+     */
+    public synchronized void setLivenessDetectionEnabled(boolean enabled) {
+        if (livenessCheck != null) {
+            livenessCheck.cancel(false);
+            livenessCheck = null;
+            liveness.clear();
+        }
+        if (enabled) {
+            long period = liveness.intervalNanos() / 2;
+            livenessCheck = timer.scheduleAtFixedRate(
+                    this::checkLiveness, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sets the heartbeat interval, 1000 ms by default, and how many intervals a node has to be
+     * quiet for before it is considered gone, 4 by default and at least 2. A dead node is
+     * detected within (missThreshold + 0.5) * heartbeatIntervalMillis of the last thing heard
+     * from it.
+     */
+    public synchronized void setLivenessDetection(long heartbeatIntervalMillis, int missThreshold) {
+        liveness.configure(heartbeatIntervalMillis, missThreshold);
+        if (livenessCheck != null) {
+            setLivenessDetectionEnabled(true);
+        }
+    }
+
+    /**
+     * Estimates how far each paired node's clock is from this device's, and how fast they drift
+     * apart, from PING/PONG round trips: every 250 ms until a node has a few samples, then every
+     * 2 seconds. Once there is an estimate, events from the node get a localSentTimeMicros on
+     * {@link #clockMicros()}'s clock, and position updates and gestures from it are timestamped
+     * with when they were sent rather than when they arrived, so jitter on the link doesn't end
+     * up in their timing. Only peers that answer PING are sampled, and peers older than
+     * {@link WearEventCodec#VERSION_CLOCK_SYNC} give less accurate estimates. Off by default.
+     */
+    public synchronized void setClockSyncEnabled(boolean enabled) {
+        if (clockSyncCheck != null) {
+            clockSyncCheck.cancel(false);
+            clockSyncCheck = null;
+            clockSync.clear();
+        }
+        clockSyncEnabled = enabled;
+        if (enabled) {
+            clockSyncCheck = timer.scheduleAtFixedRate(this::checkClockSync, 0,
+                    ClockSync.FAST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The player's node's clock minus this device's, in microseconds, or 0 if the player isn't
+     * paired or there is no estimate yet.
+     */
+    public long getClockOffsetMicros(int playerNum) {
+        ClockSync.Estimate estimate = clockEstimate(playerNum);
+        return estimate == null ? 0 : Math.round(estimate.offsetAt(WearClock.nowMicros()));
+    }
+
+    /**
+     * How many microseconds per second the player's node's clock gains on this device's, or 0 if
+     * the player isn't paired or there aren't enough samples yet to tell.
+     */
+    public double getClockDriftPpm(int playerNum) {
+        ClockSync.Estimate estimate = clockEstimate(playerNum);
+        return estimate == null ? 0 : estimate.driftPpm;
+    }
+
+    /**
+     * This device's clock in microseconds, the one localSentTimeMicros is on. It follows the
+     * wall clock from when the library was loaded and never jumps.
+     */
+    public static long clockMicros() {
+        return WearClock.nowMicros();
+    }
+
+    /**
+     * Starts appending every event dispatched to listeners and every update the game sends to a
+     * session file, replacing any recording already running. See {@link SessionReplayer} to play
+     * it back.
+     */
+    public void startRecording(File file) throws IOException {
+        SessionRecorder previous = recorder;
+        recorder = new SessionRecorder(file);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stops the recording, if there is one, and closes its file.
+     */
+    public void stopRecording() {
+        SessionRecorder previous = recorder;
+        recorder = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Counters, latency histograms and a trace of recent events. See {@link #ping(int)} for
+     * round trip times.
+     */
+    public WearMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sends a PING to the player's node. The matching PONG adds a sample to the metrics' round
+     * trip time histogram. Does nothing if the player isn't paired to a node that can answer.
+     */
+    public void ping(int playerNum) {
+        String pairedTo = pairing.pairedNode(playerNum);
+        if (pairedTo == null || peerProtocolVersion(pairedTo) < WearEventCodec.VERSION_TIMESTAMPS) {
+            return;
+        }
+        sendMessage(pairedTo, new WearEvent(WearEvent.EventType.PING).setPlayerNum(playerNum), "/ping");
+    }
+
+    /**
+     * Queues every dispatched event as a fixed size record for {@link #pollEvents}, so a game can
+     * collect all of a frame's events with a single call instead of a listener callback per
+     * event. Listeners are still called. Disabling polling discards anything not yet polled.
+     */
+    public void setEventPollingEnabled(boolean enabled) {
+        if (enabled) {
+            if (pollQueue == null) {
+                pollQueue = new EventPollQueue(EventPollQueue.DEFAULT_CAPACITY);
+            }
+        } else {
+            pollQueue = null;
+        }
+    }
+
+    /**
+     * Allocates a direct buffer in native byte order with room for maxEvents records, for use
+     * with {@link #pollEvents}.
+     */
+    public ByteBuffer allocatePollBuffer(int maxEvents) {
+        return ByteBuffer.allocateDirect(maxEvents * POLL_RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Moves pending events into the buffer, oldest first, and returns how many were written.
+     * Events that don't fit stay queued for the next call. Each event is a
+     * {@link #POLL_RECORD_SIZE} byte record in native byte order:
+     * <pre>
+     *  0  int    event type ordinal
+     *  4  int    player number
+     *  8  int    controller type ordinal, 0 (UNKNOWN) if not set
+     * 12  int    length of the target controller name in bytes, 0 if not set
+     * 16  double x position
+     * 24  double y position
+     * 32  long   timestamp in System.nanoTime() nanoseconds, 0 if unknown
+     * 40  byte[] target controller name as ASCII, truncated to 24 bytes
+     * </pre>
+     * Position batches are written as one POSITION_UPDATE record per sample. GESTURE records
+     * carry the gesture type ordinal in place of the controller type and the confidence as the x
+     * position, and LINK_STATE records the link state ordinal and the send rate the same way.
+     */
+    public int pollEvents(ByteBuffer buffer) {
+        EventPollQueue queue = pollQueue;
+        return queue == null ? 0 : queue.drainTo(buffer);
+    }
+
+    /**
+     * Keeps a short jitter buffer of each player's POSITION_UPDATEs, so the game can ask for a
+     * smoothed position every frame with {@link #getSmoothedPosition} or
+     * {@link #sampleSmoothedPositions} instead of applying updates as they arrive. Events are
+     * still dispatched as usual. Disabling smoothing forgets the buffered samples.
+     */
+    public void setInputSmoothingEnabled(boolean enabled) {
+        inputSmoothingEnabled = enabled;
+        if (!enabled) {
+            inputSmoother.clearAll();
+        }
+    }
+
+    /**
+     * Sets how positions from the controller type are smoothed. Playback runs bufferMillis behind
+     * the newest samples, trading that much latency for smooth movement. When samples stop
+     * arriving the last velocity is extrapolated for up to maxExtrapolationMillis before the
+     * position holds. A sample farther than snapDistance from the previous one is jumped to
+     * instead of interpolated. The defaults are 40, 40 and 0.5 for SLIDER, 50, 60 and 0.75 for
+     * ANALOG and no smoothing for DPAD.
+     */
+    public void setInputSmoothing(WearEvent.ControllerType type, float bufferMillis,
+            float maxExtrapolationMillis, float snapDistance) {
+        inputSmoother.setSettings(type, bufferMillis, maxExtrapolationMillis, snapDistance);
+    }
+
+    /**
+     * Writes the player's smoothed position for now into out as {x, y}. Returns the
+     * SMOOTHED_* flags that apply, or -1 if nothing has been received for the player yet.
+     */
+    public int getSmoothedPosition(int playerNum, double[] out) {
+        return inputSmoother.sample(playerNum, System.nanoTime(), out);
+    }
+
+    /**
+     * Allocates a direct buffer in native byte order with room for maxPlayers records, for use
+     * with {@link #sampleSmoothedPositions}.
+     */
+    public ByteBuffer allocateSmoothingBuffer(int maxPlayers) {
+        return ByteBuffer.allocateDirect(maxPlayers * SMOOTHED_RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes the smoothed position of every player with samples into the buffer, starting at
+     * its beginning, and returns how many were written. Each is a {@link #SMOOTHED_RECORD_SIZE}
+     * byte record in native byte order:
+     * <pre>
+     *  0  int    player number
+     *  4  float  x position
+     *  8  float  y position
+     * 12  int    SMOOTHED_* flags
+     * </pre>
+     */
+    public int sampleSmoothedPositions(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (smoothingScratch) {
+            return inputSmoother.sampleAll(System.nanoTime(), buffer, smoothingScratch);
+        }
+    }
+
+    /**
+     * Listeners are called on the data layer's dispatch thread, not the main thread. They can be
+     * added and removed from any thread, including from inside a listener. Adding a listener that
+     * was already added does nothing.
+     */
+    public synchronized void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners = listeners.with(new ListenerTable.Subscription(listener, null, ALL_PLAYERS));
+        }
+    }
+
+    /**
+     * Adds a listener that only gets events of the given types, or of every type if eventTypes is
+     * null or empty, and only the given player's, or every player's for {@link #ALL_PLAYERS}.
+     * Events that aren't about any player, such as NODES_AVAILABLE, go to every listener for
+     * their type. Events are matched against precomputed tables, so a listener costs nothing for
+     * events it didn't subscribe to. Adding a listener again replaces its subscription, and it
+     * keeps its place in the order listeners are called in.
+     */
+    public synchronized void addListener(
+            Listener listener, @Nullable Set<WearEvent.EventType> eventTypes, int playerNum) {
+        listeners = listeners.with(
+                new ListenerTable.Subscription(listener, eventTypes, playerNum));
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners = listeners.without(listener);
+    }
+
+    /**
+     * Dispatches NODES_AVAILABLE if any reachable node isn't paired yet, or NODES_UNAVAILABLE
+     * otherwise. This never blocks: the answer comes from the cached set of reachable nodes and
+     * is dispatched on the dispatch thread, or once the first snapshot arrives. After this, the
+     * events are only dispatched again when availability changes.
+     */
+    public void checkAvailableNodes() {
+        inboundDispatcher.post(() -> reportAvailability(true));
+    }
+
+    /**
+     * Called whenever the reachable nodes or the pairings change. Only dispatches an event if
+     * availability is different from what we last reported.
+     */
+    private void availabilityMayHaveChanged() {
+        inboundDispatcher.post(() -> reportAvailability(false));
+    }
+
+    private void reportAvailability(boolean always) {
+        if (!nodeCache.isLoaded()) {
+            // The first snapshot will report it.
+            nodeCache.refresh();
+            return;
+        }
+        resumeReachablePairings();
+        boolean available = false;
+        for (String id : nodeCache.get()) {
+            if (!pairing.isPairedNode(id)) {
+                available = true;
+                break;
+            }
+        }
+        if (!always && nodesAvailable != null && nodesAvailable == available) {
+            return;
+        }
+        nodesAvailable = available;
+        dispatchUpdate(new WearEvent(available
+                ? WearEvent.EventType.NODES_AVAILABLE
+                : WearEvent.EventType.NODES_UNAVAILABLE));
+    }
+
+    /**
+     * Puts back pairings from an earlier instance as resuming. Nodes that can't take a RESUME
+     * need a new handshake anyway.
+     */
+    private void restorePairings(List<PairingStore.Pairing> stored) {
+        for (PairingStore.Pairing restored : stored) {
+            if (restored.protocolVersion < WearEventCodec.VERSION_RESUME) {
+                continue;
+            }
+            peerProtocolVersions.put(restored.nodeId, restored.protocolVersion);
+            pairing.restore(restored.playerNum, restored.nodeId, restored.controllerType);
+        }
+    }
+
+    /**
+     * Sends a RESUME for every resuming player whose node is reachable and hasn't been asked yet.
+     * If it goes unanswered it is sent again the next time the node shows up. Runs on the dispatch
+     * thread.
+     */
+    private void resumeReachablePairings() {
+        Set<String> reachable = nodeCache.get();
+        for (Map.Entry<Integer, String> entry : pairing.resumingNodes().entrySet()) {
+            int playerNum = entry.getKey();
+            String node = entry.getValue();
+            if (!reachable.contains(node) || !resumesSent.add(playerNum)) {
+                continue;
+            }
+            WearLog.v(TAG, "Resuming player " + playerNum + " with " + node);
+            WearEvent resume = new WearEvent(WearEvent.EventType.RESUME)
+                    .setPlayerNum(playerNum)
+                    .setProtocolVersion(WearEventCodec.VERSION);
+            WearEvent.ControllerType controllerType = pairing.controllerTypeOf(playerNum);
+            if (controllerType != null) {
+                resume.setControllerType(controllerType.name());
+            }
+            sendControlMessage(node, resume, "/resume").whenComplete((ignored, error) -> {
+                if (error != null) {
+                    inboundDispatcher.post(() -> resumesSent.remove(playerNum));
+                }
+            });
+        }
+    }
+
+    /**
+     * Called whenever a pairing is established, resumed or ends. Writing the store happens on
+     * the timer thread so pairing never waits on storage.
+     */
+    private void pairingsChanged() {
+        if (pairingStore != null) {
+            timer.execute(() -> pairingStore.save(
+                    nodeId, pairing.keptPairings(this::peerProtocolVersion)));
+        }
+    }
+
+    public void requestPair(String targetController, int playerNum) {
+        WearLog.v(TAG, "Requesting pair");
+        if (nodeId == null) {
+            // The request carries our node id, so it waits for the lookup.
+            localNodeId.whenComplete((id, error) -> {
+                if (error != null) {
+                    WearLog.e(TAG, "No node ID for pair request", error);
+                } else {
+                    requestPair(targetController, playerNum);
+                }
+            });
+            return;
+        }
+
+        if (pairing.pairedNode(playerNum) != null) {
+            disconnect(playerNum);
+        }
+
+        pairing.startRequest(playerNum);
+        sendDataMapUpdate(
+                new WearEvent(WearEvent.EventType.PAIR_REQUEST)
+                        .setTargetController(targetController)
+                        .setPlayerNum(playerNum)
+                        .setProtocolVersion(WearEventCodec.VERSION),
+                "pair_request",
+                DataItemTracker.PAIRING_TTL_MILLIS);
+    }
+
+    /**
+     * The pending pair response happens on the watch. We don't need to deal with the pending pair
+     * map, but we do need to respond to which player we want to pair to. The current system doesn't
+     * expect/need pairs to be synchronous.
+     * @param playerNum
+     */
+    public void respondToPair(int playerNum) {
+        WearLog.v(TAG, "Respond to pair");
+        // We we respond to a pair, we're officially waiting for a response. If we get a response
+        // and we're in this state, and the ID matches our pending request ID, we are paired.
+        String requesterId = nodeId == null ? null : pairing.respond(playerNum);
+        if (requesterId == null) {
+            WearLog.e(TAG,
+                    String.format(
+                            "Trying to pair when we shouldn't be.\n" +
+                                    "Node: %s\n" +
+                                    "playerNum: %d",
+                            nodeId,
+                            playerNum));
+            return;
+        }
+
+        sendControlEvent(requesterId,
+                new WearEvent(WearEvent.EventType.PAIR_RESPONSE)
+                    .setPlayerNum(playerNum)
+                    .setProtocolVersion(WearEventCodec.VERSION),
+                "pair_response",
+                DataItemTracker.PAIRING_TTL_MILLIS);
+    }
+
+    public void acceptPair(String controllerType, int playerNum) {
+        WearLog.v(TAG, "Accept pair");
+        assert(nodeId != null);
+        String controllerId = nodeId == null ? null : pairing.accept(
+                playerNum, WearEvent.ControllerType.valueOf(controllerType));
+        if (controllerId == null) {
+            WearLog.e(TAG,
+                    String.format(
+                            "Trying to accept pair when we shouldn't be.\n" +
+                                    "Node: %s\n" +
+                                    "playerNum: %d\n" +
+                                    "state: %s",
+                            nodeId,
+                            playerNum,
+                            pairing.stateOf(playerNum)));
+            return;
+        }
+
+        positionStreams.setControllerType(
+                playerNum, WearEvent.ControllerType.valueOf(controllerType));
+        inputSmoother.setControllerType(
+                playerNum, WearEvent.ControllerType.valueOf(controllerType));
+        sendControlEvent(controllerId,
+                new WearEvent(WearEvent.EventType.PAIR_ACCEPTED)
+                        .setPlayerNum(playerNum)
+                        .setControllerType(controllerType)
+                        .setProtocolVersion(WearEventCodec.VERSION),
+                "pair_accept",
+                DataItemTracker.EVENT_TTL_MILLIS);
+        dataItems.delete("pair_request", playerNum);
+        availabilityMayHaveChanged();
+    }
+
+    public void rejectPair(int playerNum) {
+        String requesterId = pairing.takeOffer(playerNum);
+        if (requesterId != null) {
+            sendControlMessage(requesterId,
+                    new WearEvent(WearEvent.EventType.PAIR_REJECTED)
+                            .setPlayerNum(playerNum),
+                    "/pair_reject");
+        }
+    }
+
+    public void pauseGame() {
+        broadcastControlEvent(WearEvent.EventType.PAUSE_GAME, CONTROL_BROADCAST_TIMEOUT_MILLIS);
+    }
+
+    public void unpauseGame() {
+        broadcastControlEvent(WearEvent.EventType.UNPAUSE_GAME, CONTROL_BROADCAST_TIMEOUT_MILLIS);
+    }
+
+    public void restartGame() {
+        broadcastControlEvent(WearEvent.EventType.RESTART_GAME, CONTROL_BROADCAST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends PAUSE_GAME, UNPAUSE_GAME or RESTART_GAME to every paired node at once over the
+     * MessageClient, ahead of any queued input. Only if there are reachable nodes that aren't
+     * paired, or paired nodes too old to take it as a message, does it also go into the data map.
+     * Until the reachable nodes are first known it always does.
+     * The future completes once every paired node has been reached or failed, or once
+     * timeoutMillis has passed, whichever comes first. It never completes exceptionally.
+     */
+    public CompletableFuture<BroadcastResult> broadcastControlEvent(
+            WearEvent.EventType type, long timeoutMillis) {
+        String name = broadcastItemName(type);
+        if (name == null) {
+            throw new IllegalArgumentException(type + " can't be broadcast");
+        }
+        Map<String, Integer> paired = pairing.pairedNodes();
+        Set<String> targets = new HashSet<>();
+        ConcurrentHashMap<String, Boolean> outcomes = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> sends = new ArrayList<>();
+        boolean needsDataMap = false;
+        for (Map.Entry<String, Integer> entry : paired.entrySet()) {
+            String node = entry.getKey();
+            if (peerProtocolVersion(node) < WearEventCodec.VERSION_BROADCAST) {
+                // It would get the data map copy as well and can't tell them apart.
+                needsDataMap = true;
+                continue;
+            }
+            targets.add(node);
+            sends.add(sendControlMessage(node,
+                            new WearEvent(type).setPlayerNum(entry.getValue()), "/" + name)
+                    .handle((requestId, error) -> {
+                        if (error != null) {
+                            WearLog.e(TAG, "Couldn't send " + type + " to " + node, error);
+                        }
+                        return outcomes.put(node, error == null);
+                    }));
+        }
+        if (!nodeCache.isLoaded()) {
+            // Unpaired nodes may be reachable that we don't know about yet.
+            needsDataMap = true;
+        }
+        for (String node : nodeCache.get()) {
+            if (!paired.containsKey(node)) {
+                needsDataMap = true;
+                break;
+            }
+        }
+        if (needsDataMap) {
+            sendDataMapUpdate(new WearEvent(type), name, DataItemTracker.EVENT_TTL_MILLIS);
+        }
+
+        boolean sentToDataMap = needsDataMap;
+        CompletableFuture<BroadcastResult> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timer.schedule(
+                () -> result.complete(new BroadcastResult(targets, outcomes, sentToDataMap)),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).whenComplete(
+                (ignored, error) -> {
+                    timeout.cancel(false);
+                    result.complete(new BroadcastResult(targets, outcomes, sentToDataMap));
+                });
+        return result;
+    }
+
+    /**
+     * The data item, and message path without the slash, each broadcast event type uses. Null
+     * for types that can't be broadcast.
+     */
+    private static String broadcastItemName(WearEvent.EventType type) {
+        switch (type) {
+            case PAUSE_GAME:
+            case UNPAUSE_GAME:
+                return "resume";
+            case RESTART_GAME:
+                return "restart";
+            default:
+                return null;
+        }
+    }
+
+    public void disconnect(int playerNum) {
+        String pairedTo = pairing.pairedNode(playerNum);
+        pairing.disconnect(playerNum);
+        sendScheduler.clearPlayer(playerNum);
+        positionStreams.clearPlayer(playerNum);
+        inputSmoother.clearPlayer(playerNum);
+        // Anything left over from pairing this player is stale now.
+        dataItems.deletePlayer(playerNum, "disconnect");
+
+        WearEvent event = new WearEvent(WearEvent.EventType.DISCONNECT).setPlayerNum(playerNum);
+        if (pairedTo != null) {
+            sendControlEvent(pairedTo, event, "disconnect", DataItemTracker.EVENT_TTL_MILLIS);
+        } else {
+            sendDataMapUpdate(event, "disconnect", DataItemTracker.EVENT_TTL_MILLIS);
+        }
+        releaseNodeIfUnpaired(pairedTo);
+
+        availabilityMayHaveChanged();
+    }
+
+    public void sendUpdate(WearEvent event) {
+        sendEvent(event, "/update");
+    }
+
+    /**
+     * Sends a position update without creating a WearEvent. Combined with
+     * {@link #setHotPathEnabled(boolean)} a steady stream of samples doesn't allocate.
+     */
+    public void sendPosition(int playerNum, double posX, double posY) {
+        synchronized (positionScratch) {
+            positionScratch.reset();
+            sendUpdate(positionScratch.setPlayerNum(playerNum).setPosition(posX, posY));
+        }
+    }
+
+    /**
+     * Send an event across the Wear Data Layer. We default to the message client if we are paired,
+     * otherwise we'll use the data map. This simplifies the client's API without having to worry
+     * about the paired state.
+     * @param event
+     * @param path
+     */
+    private void sendEvent(WearEvent event, String path) {
+        if (isVerboseLogging()) {
+            WearLog.v(TAG, "sendEvent: " + event.serialize());
+        }
+        String pairedTo = pairing.pairedNode(event.playerNum);
+        SessionRecorder recording = recorder;
+        if (recording != null) {
+            recording.record(SessionRecorder.KIND_OUTBOUND, pairedTo, event);
+        }
+        if (pairedTo != null) {
+            sendMessage(pairedTo, event, path);
+        } else {
+            // Message paths start with a slash, data item names don't.
+            sendDataMapUpdate(event, path.substring(1), DataItemTracker.EVENT_TTL_MILLIS);
+        }
+    }
+
+    /**
+     * Queues the message on the send scheduler, which decides when it actually goes out.
+     */
+    private void sendMessage(String receiver, WearEvent event, String path) {
+        int peerVersion = peerProtocolVersion(receiver);
+        if (!WearEventCodec.canEncodeFor(event, peerVersion)) {
+            // The node runs an older build that would drop it anyway.
+            if (isVerboseLogging()) {
+                WearLog.v(TAG, "Not sending " + event.eventType + " to " + receiver
+                        + ", which is at protocol version " + peerVersion);
+            }
+            metrics.recordDropped(receiver, event.eventType, event.playerNum);
+            return;
+        }
+        sendScheduler.enqueue(
+                receiver,
+                event,
+                path,
+                peerVersion >= WearEventCodec.VERSION_BATCHES);
+    }
+
+    /**
+     * Sends a control event to one node over the reliable channel if it supports it, and puts it
+     * in the named data item otherwise.
+     */
+    private void sendControlEvent(String receiver, WearEvent event, String name, long ttlMillis) {
+        if (peerProtocolVersion(receiver) >= WearEventCodec.VERSION_RELIABLE) {
+            sendReliable(receiver, event, "/" + name);
+        } else {
+            sendDataMapUpdate(event, name, ttlMillis);
+        }
+    }
+
+    /**
+     * Sends a control event that always goes as a message, over the reliable channel if the node
+     * supports it. The future completes once it has been acknowledged, or for older peers once
+     * it has been sent.
+     */
+    private CompletableFuture<?> sendControlMessage(String receiver, WearEvent event, String path) {
+        if (peerProtocolVersion(receiver) >= WearEventCodec.VERSION_RELIABLE) {
+            return sendReliable(receiver, event, path);
+        }
+        return sendScheduler.enqueueControl(receiver, event, path);
+    }
+
+    private CompletableFuture<Void> sendReliable(String receiver, WearEvent event, String path) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> acked = reliableChannel.send(receiver, event, path);
+        acked.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                // The stream was reset because the node restarted or went quiet, which says
+                // nothing about the link.
+                return;
+            }
+            if (error != null) {
+                WearLog.e(TAG, "Couldn't deliver " + event.eventType + " to " + receiver, error);
+                rateController.onFailed(receiver, start);
+            } else {
+                // Includes any retransmissions, which is exactly what a poor link costs.
+                rateController.onAcknowledged(receiver, start);
+            }
+        });
+        return acked;
+    }
+
+    /**
+     * Called by the send scheduler on its own thread once the message is due.
+     */
+    private CompletableFuture<Integer> transmitMessage(
+            String receiver, WearEvent event, String path) {
+        if (isVerboseLogging()) {
+            WearLog.v(TAG, "Sending message: " + event.serialize());
+        }
+        int peerVersion = peerProtocolVersion(receiver);
+        // Stamped as late as possible so the age doesn't include time spent queued here. Older
+        // peers can't read the stamp at all.
+        event.sentTimeMicros = peerVersion >= WearEventCodec.VERSION_TIMESTAMPS
+                ? WearClock.nowMicros() : 0;
+        if (quantizePositions
+                && peerVersion >= WearEventCodec.VERSION_QUANTIZED
+                && event.eventType == WearEvent.EventType.POSITION_UPDATE) {
+            positionStreams.quantize(receiver, event);
+        }
+        boolean pooled = hotPathEnabled
+                && peerVersion >= WearEventCodec.VERSION_BINARY
+                && (event.eventType == WearEvent.EventType.POSITION_UPDATE
+                        || event.eventType == WearEvent.EventType.POSITION_BATCH);
+        byte[] payload = pooled
+                ? outboundFrames.encode(event, peerVersion)
+                : WearEventCodec.encodeFor(event, peerVersion);
+        metrics.recordSent(receiver, event, payload.length);
+        if (channelStreamingEnabled
+                && peerVersion >= WearEventCodec.VERSION_STREAMING
+                && !SendScheduler.isControlEvent(event.eventType)
+                && channelStreams.write(receiver, payload)) {
+            // The stream has copied the frame by the time write returns.
+            if (pooled) {
+                outboundFrames.release(payload);
+            }
+            return STREAMED;
+        }
+        CompletableFuture<Integer> sent = transport.sendMessage(receiver, path, payload);
+        if (pooled) {
+            // The transport reads the payload until the send completes, whichever way it does.
+            sent.whenComplete((requestId, error) -> outboundFrames.release(payload));
+        }
+        if (rateController.isEnabled()) {
+            long start = System.nanoTime();
+            sent.whenComplete((requestId, error) -> {
+                if (error != null) {
+                    rateController.onFailed(receiver, start);
+                } else {
+                    rateController.onSent(receiver, start);
+                }
+            });
+        }
+        return sent;
+    }
+
+    private void releaseNodeIfUnpaired(String node) {
+        if (node != null && !pairing.isPairedNode(node)) {
+            channelStreams.close(node);
+            rateController.clear(node);
+            clockSync.clear(node);
+        }
+    }
+
+    private void onRateChanged(String node, WearEvent.LinkState state, float messagesPerSecond) {
+        int playerNum = pairing.pairedPlayer(node);
+        if (playerNum < 0) {
+            return;
+        }
+        WearLog.i(TAG, "Link to " + node + " is " + state + ", sending "
+                + messagesPerSecond + " updates per second");
+        inboundDispatcher.post(() -> dispatchUpdate(new WearEvent(WearEvent.EventType.LINK_STATE)
+                .setPlayerNum(playerNum)
+                .setLinkState(state, messagesPerSecond)));
+    }
+
+    /**
+     * Runs on the timer thread. Peers that can't answer a PING would look dead whenever they're
+     * idle, so they aren't watched.
+     */
+    private void checkLiveness() {
+        Set<String> watched = new HashSet<>();
+        for (String node : pairing.pairedNodes().keySet()) {
+            if (peerProtocolVersion(node) >= WearEventCodec.VERSION_TIMESTAMPS) {
+                watched.add(node);
+            }
+        }
+        liveness.check(watched);
+    }
+
+    /**
+     * Runs on the timer thread.
+     */
+    private void checkClockSync() {
+        long now = WearClock.nowMicros();
+        for (Map.Entry<String, Integer> paired : pairing.pairedNodes().entrySet()) {
+            String node = paired.getKey();
+            if (peerProtocolVersion(node) >= WearEventCodec.VERSION_TIMESTAMPS
+                    && clockSync.sampleDue(node, now)) {
+                sendMessage(node, new WearEvent(WearEvent.EventType.PING)
+                        .setPlayerNum(paired.getValue()), "/ping");
+            }
+        }
+    }
+
+    @Nullable
+    private ClockSync.Estimate clockEstimate(int playerNum) {
+        String pairedTo = pairing.pairedNode(playerNum);
+        return pairedTo == null ? null : clockSync.estimate(pairedTo);
+    }
+
+    private void sendHeartbeat(String node) {
+        int playerNum = pairing.pairedPlayer(node);
+        if (playerNum >= 0) {
+            sendMessage(node,
+                    new WearEvent(WearEvent.EventType.PING).setPlayerNum(playerNum), "/ping");
+        }
+    }
+
+    private void onLivenessChanged(String node, LivenessMonitor.State state) {
+        inboundDispatcher.post(() -> {
+            int playerNum = pairing.pairedPlayer(node);
+            if (playerNum < 0) {
+                return;
+            }
+            if (state == LivenessMonitor.State.DEAD) {
+                loseNode(node, playerNum);
+                return;
+            }
+            WearLog.i(TAG, "Node " + node + " is " + state);
+            WearEvent.LinkState linkState = state == LivenessMonitor.State.SUSPECT
+                    ? WearEvent.LinkState.SUSPECT : rateController.stateOf(node);
+            dispatchUpdate(new WearEvent(WearEvent.EventType.LINK_STATE)
+                    .setPlayerNum(playerNum)
+                    .setLinkState(linkState, rateController.rateOf(node)));
+        });
+    }
+
+    /**
+     * Disconnects the player from a node that went silent. Runs on the dispatch thread.
+     */
+    private void loseNode(String node, int playerNum) {
+        WearLog.i(TAG, "Nothing heard from " + node + ", disconnecting player " + playerNum);
+        boolean resumable = peerProtocolVersion(node) >= WearEventCodec.VERSION_RESUME;
+        if (!pairing.lost(playerNum, node, resumable)) {
+            return;
+        }
+        // Anything still unacknowledged is stale, and the node may come back as a new instance.
+        reliableChannel.reset(node);
+        onDisconnected(node, new WearEvent(WearEvent.EventType.DISCONNECT).setPlayerNum(playerNum));
+    }
+
+    private int peerProtocolVersion(String peerId) {
+        Integer version = peerProtocolVersions.get(peerId);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Puts the event in the player's named data item, which is deleted again after ttlMillis.
+     */
+    private void sendDataMapUpdate(WearEvent event, String name, long ttlMillis) {
+        String path = DataItemTracker.pathFor(name, event.playerNum);
+        // The item's uri only depends on the path, so it can go into the event before it's put.
+        event.setUri("wear:" + path);
+        event.setSentTimeMicros(WearClock.nowMicros());
+        String serialized = event.serialize();
+        WearLog.v(TAG, "Sending data map update as " + nodeId + ": " + serialized);
+        // Data items go to every node, so they're only counted per event type.
+        metrics.recordSent(null, event, serialized.length());
+        String uri = transport.putDataItem(path, nodeId, serialized, System.currentTimeMillis());
+        dataItems.track(path, uri, event.playerNum, ttlMillis);
+    }
+
+    @Override
+    public void onDataItemChanged(String uri, String requesterId, String rawEvent) {
+        WearLog.v(TAG, "onDataChanged");
+        // We don't care about the path that the update game on, only that there's a WearEvent. The
+        // WearEvent will have the type of update this is.
+        WearEvent wearEvent = WearEvent.deserialize(rawEvent);
+        if (wearEvent == null || requesterId == null) {
+            return;
+        }
+        wearEvent.setUri(uri);
+        if (!requesterId.equals(nodeId)) {
+            stampArrival(requesterId, wearEvent, WearClock.nowMicros());
+            metrics.recordReceived(requesterId, wearEvent, rawEvent.length());
+            liveness.heardFrom(requesterId);
+        }
+        inboundDispatcher.post(requesterId, wearEvent, false);
+    }
+
+    @Override
+    public void onDataItemDeleted(String uri) {
+        WearLog.i(TAG, "Change was delete");
+    }
+
+    @Override
+    public void onReachableNodesChanged(Set<String> nodeIds) {
+        nodeCache.update(nodeIds);
+    }
+
+    @Override
+    public void onChannelOpened(String sourceNodeId, String path, InputStream input) {
+        if (!ChannelStreams.PATH.equals(path)) {
+            WearLog.e(TAG, "Ignoring channel " + path + " from " + sourceNodeId);
+            return;
+        }
+        channelStreams.read(sourceNodeId, input, this::onStreamedFrame);
+    }
+
+    /**
+     * Runs on a channel's reader thread for every frame it carries. Frames are always binary, and
+     * take the same path as a message once decoded.
+     */
+    private void onStreamedFrame(String requesterId, ByteBuffer frame) {
+        long arrived = WearClock.nowMicros();
+        int length = frame.remaining();
+        WearEvent wearEvent = WearEventCodec.decode(frame, hotPathEnabled ? eventPool : null);
+        if (wearEvent == null) {
+            WearLog.e(TAG, "Streamed frame couldn't be decoded from " + requesterId);
+            metrics.recordDropped(requesterId, WearEvent.EventType.UNKNOWN, -1);
+            return;
+        }
+        stampArrival(requesterId, wearEvent, arrived);
+        metrics.recordReceived(requesterId, wearEvent, length);
+        liveness.heardFrom(requesterId);
+        inboundDispatcher.post(requesterId, wearEvent, true);
+    }
+
+    @Override
+    public void onMessageReceived(String requesterId, String path, byte[] message) {
+        long arrived = WearClock.nowMicros();
+        if (isVerboseLogging()) {
+            WearLog.v(TAG,
+                    String.format(
+                            "Message received from %s as %s",
+                            requesterId,
+                            nodeId));
+        }
+        if (message == null || message.length == 0) {
+            WearLog.e(TAG, "Message was empty");
+            return;
+        }
+        WearEvent wearEvent = hotPathEnabled ? decodePooled(message) : WearEventCodec.decode(message);
+        if (wearEvent == null) {
+            WearLog.e(TAG, "Message couldn't be decoded from " + requesterId);
+            metrics.recordDropped(requesterId, WearEvent.EventType.UNKNOWN, -1);
+            return;
+        }
+        stampArrival(requesterId, wearEvent, arrived);
+        metrics.recordReceived(requesterId, wearEvent, message.length);
+        liveness.heardFrom(requesterId);
+        inboundDispatcher.post(requesterId, wearEvent, true);
+    }
+
+    /**
+     * Notes when the event arrived and, if the sender's clock has been estimated, when it was sent
+     * on our clock. Runs on the transport's thread.
+     */
+    private void stampArrival(String requesterId, WearEvent wearEvent, long arrived) {
+        wearEvent.arrivedMicros = arrived;
+        if (clockSyncEnabled && wearEvent.sentTimeMicros > 0) {
+            wearEvent.localSentTimeMicros =
+                    clockSync.toLocal(requesterId, wearEvent.sentTimeMicros);
+        }
+    }
+
+    /**
+     * Runs on the dispatch thread for every decoded inbound event.
+     */
+    private void handleInbound(String requesterId, WearEvent wearEvent, boolean fromMessage) {
+        dispatchingFrom = requesterId;
+        try {
+            handleInboundFrom(requesterId, wearEvent, fromMessage);
+        } finally {
+            dispatchingFrom = null;
+        }
+    }
+
+    private void handleInboundFrom(String requesterId, WearEvent wearEvent, boolean fromMessage) {
+        if (!fromMessage) {
+            if (broadcastItemName(wearEvent.eventType) != null
+                    && pairing.isPairedNode(requesterId)
+                    && peerProtocolVersion(requesterId) >= WearEventCodec.VERSION_BROADCAST) {
+                // Our game sends these to us as messages, this copy is for everyone else.
+                return;
+            }
+            handleWearEvent(requesterId, wearEvent);
+            return;
+        }
+        if (wearEvent.eventType == WearEvent.EventType.ACK) {
+            reliableChannel.onAck(requesterId, wearEvent);
+        } else if (wearEvent.sequence != 0) {
+            reliableChannel.receive(requesterId, wearEvent, this::handleMessage);
+        } else {
+            handleMessage(requesterId, wearEvent);
+        }
+        eventPool.recycle(wearEvent);
+    }
+
+    /**
+     * Handles an event that arrived as a message, in order if it came over the reliable channel.
+     */
+    private void handleMessage(String requesterId, WearEvent wearEvent) {
+        // Don't dispatch events to the client if the ID doesn't match the one we're paired to,
+        // unless it's part of the pairing handshake, which checks the sender itself.
+        if (!pairing.isPairedTo(wearEvent.playerNum, requesterId)
+                && !isHandshakeEvent(wearEvent.eventType)) {
+            WearLog.e(TAG, String.format("Message shouldn't be handled.\n" +
+                    "eventType: %s\n" +
+                    "requesterId: %s\n" +
+                    "pairedTo: %s",
+                    wearEvent.eventType,
+                    requesterId,
+                    pairing.pairedNode(wearEvent.playerNum)));
+            metrics.recordDropped(requesterId, wearEvent.eventType, wearEvent.playerNum);
+            return;
+        }
+
+        handleWearEvent(requesterId, wearEvent);
+    }
+
+    private static boolean isHandshakeEvent(WearEvent.EventType type) {
+        return type == WearEvent.EventType.PAIR_RESPONSE
+                || type == WearEvent.EventType.PAIR_ACCEPTED
+                || type == WearEvent.EventType.PAIR_REJECTED
+                || type == WearEvent.EventType.RESUME
+                || type == WearEvent.EventType.PAIR_RESUMED;
+    }
+
+    /**
+     * Decodes a message into a pooled event. Binary frames are copied into a reused buffer first
+     * so decoding doesn't need to wrap the message array. This only runs on the transport's
+     * callback thread.
+     */
+    private WearEvent decodePooled(byte[] message) {
+        if (!WearEventCodec.isBinary(message) || message.length > inboundFrame.capacity()) {
+            return WearEventCodec.decode(message);
+        }
+        inboundFrame.clear();
+        inboundFrame.put(message);
+        inboundFrame.flip();
+        return WearEventCodec.decode(inboundFrame, eventPool);
+    }
+
+    private void handleWearEvent(String requesterId, WearEvent wearEvent) {
+        if (isVerboseLogging()) {
+            WearLog.v(TAG, "Handling event from " + requesterId + " as " + nodeId + ": " + wearEvent.eventType);
+        }
+        // Ignore any events from ourselves for handling.
+        if (requesterId.equals(nodeId)) {
+            return;
+        }
+        if (wearEvent.protocolVersion > 0) {
+            // Only the pairing handshake carries this. We can't write anything newer than our own
+            // version, so clamp to it.
+            peerProtocolVersions.put(
+                    requesterId, Math.min(wearEvent.protocolVersion, WearEventCodec.VERSION));
+        }
+        switch (wearEvent.eventType) {
+            case PAIR_REQUEST:
+                handlePairRequest(requesterId, wearEvent);
+                break;
+            case PAIR_ACCEPTED:
+                handlePairAccepted(requesterId, wearEvent);
+                break;
+            case PAIR_RESPONSE:
+                handlePairResponse(requesterId, wearEvent);
+                break;
+            case PAIR_REJECTED:
+                handlePairRejected(requesterId, wearEvent);
+                break;
+            case RESUME:
+                handleResume(requesterId, wearEvent);
+                break;
+            case PAIR_RESUMED:
+                handlePairResumed(requesterId, wearEvent);
+                break;
+            case DISCONNECT:
+                handleDisconnect(requesterId, wearEvent);
+                break;
+            case POSITION_UPDATE:
+                if (wearEvent.timestampNanos == 0 && wearEvent.localSentTimeMicros > 0) {
+                    wearEvent.timestampNanos = WearClock.toNanoTime(wearEvent.localSentTimeMicros);
+                }
+                if (!wearEvent.quantized || handleQuantizedPosition(requesterId, wearEvent)) {
+                    dispatchUpdate(wearEvent);
+                }
+                break;
+            case POSITION_BATCH:
+                handlePositionBatch(wearEvent);
+                break;
+            case KEYFRAME_ACK:
+                positionStreams.onKeyframeAck(
+                        requesterId, wearEvent.playerNum, wearEvent.keyframeId);
+                break;
+            case PING:
+                // The PONG's own send time is stamped when it goes out, so time spent queued
+                // here isn't mistaken for time on the link.
+                sendMessage(requesterId,
+                        new WearEvent(WearEvent.EventType.PONG)
+                                .setPlayerNum(wearEvent.playerNum)
+                                .setEchoTimeMicros(wearEvent.sentTimeMicros)
+                                .setReceivedTimeMicros(peerProtocolVersion(requesterId)
+                                        >= WearEventCodec.VERSION_CLOCK_SYNC
+                                        ? wearEvent.arrivedMicros : 0),
+                        "/pong");
+                break;
+            case PONG:
+                if (wearEvent.echoTimeMicros > 0) {
+                    long arrived = wearEvent.arrivedMicros > 0
+                            ? wearEvent.arrivedMicros : WearClock.nowMicros();
+                    long rttMicros = arrived - wearEvent.echoTimeMicros;
+                    metrics.recordRtt(rttMicros);
+                    rateController.onAcknowledged(requesterId, System.nanoTime() - rttMicros * 1000);
+                    if (clockSyncEnabled && wearEvent.sentTimeMicros > 0) {
+                        clockSync.addSample(requesterId, wearEvent.echoTimeMicros,
+                                wearEvent.receivedTimeMicros, wearEvent.sentTimeMicros, arrived);
+                    }
+                }
+                break;
+            case GESTURE:
+                if (wearEvent.gestureTimeMicros > 0 && wearEvent.localSentTimeMicros > 0) {
+                    wearEvent.timestampNanos = WearClock.toNanoTime(wearEvent.localSentTimeMicros
+                            - (wearEvent.sentTimeMicros - wearEvent.gestureTimeMicros));
+                } else if (wearEvent.sentTimeMicros > 0 && wearEvent.gestureTimeMicros > 0) {
+                    // Both times are on the sender's clock, so how long ago the gesture happened
+                    // doesn't depend on how far our clocks are apart.
+                    wearEvent.timestampNanos = System.nanoTime()
+                            - (wearEvent.sentTimeMicros - wearEvent.gestureTimeMicros) * 1000;
+                }
+                dispatchUpdate(wearEvent);
+                break;
+            default:
+                // Several updates will just be immediately forwarded to the listeners
+                // without the WDL needing to do anything.
+                dispatchUpdate(wearEvent);
+                break;
+        }
+    }
+
+    private void handlePairRequest(String requesterId, WearEvent event) {
+        WearLog.v(TAG, "Handling pair request");
+        pairing.recordOffer(event.playerNum, requesterId);
+        dispatchUpdate(event);
+    }
+
+    /**
+     * Handles when a pair response comes through. If we are in the waiting for pair state, then
+     * hold onto the ID until we get a confirmation from the client that a pair is accepted. On
+     * pair accept, we will store the pending ID as our official paired node for future messages.
+     * @param requesterId The node ID of the client that sent the pair response.
+     * @param event
+     */
+    private void handlePairResponse(String requesterId, WearEvent event) {
+        WearLog.v(TAG, "Handling pair response");
+        if (!pairing.recordResponse(event.playerNum, requesterId)) {
+            WearLog.e(TAG, String.format("Rejecting pair.\n" +
+                            "requesterId: %s\n" +
+                            "playerNum: %d",
+                    requesterId,
+                    event.playerNum));
+            // We are already waiting on a pair, so reject this pair.
+            sendControlMessage(requesterId,
+                    new WearEvent(WearEvent.EventType.PAIR_REJECTED)
+                        .setPlayerNum(event.playerNum),
+                    "/pair_reject");
+            return;
+        }
+        dispatchUpdate(event);
+    }
+
+    private void handlePairRejected(String requeterId, WearEvent event) {
+        pairing.rejected(event.playerNum);
+        resumesSent.remove(event.playerNum);
+        dataItems.delete("pair_request", event.playerNum);
+        dataItems.delete("pair_response", event.playerNum);
+        dispatchUpdate(event);
+    }
+
+    /**
+     * Handles when a pair accept message is received. If we are in the state of waiting for a pair
+     * and the ID of the accepted message matches our pending ID, we are paired to that node. The
+     * client will determine if they want to show a message or transition to a new screen.
+     * @param event
+     */
+    private void handlePairAccepted(String requesterId, WearEvent event) {
+        WearLog.v(TAG, "Handling pair accepted");
+        if (pairing.confirmAccepted(event.playerNum, requesterId, event.controllerType)) {
+            positionStreams.setControllerType(event.playerNum, event.controllerType);
+            // The game has our response, so the item doesn't need to keep syncing.
+            dataItems.delete("pair_response", event.playerNum);
+            dispatchUpdate(event);
+            availabilityMayHaveChanged();
+        } else {
+            dispatchUpdate(new WearEvent(WearEvent.EventType.PAIR_REJECTED)
+                    .setPlayerNum(event.playerNum));
+        }
+    }
+
+    /**
+     * Handles a node that was paired to us before it restarted asking to pick the pairing up
+     * again. We answer with PAIR_RESUMED if we still have it, or were resuming it ourselves, and
+     * turn it down otherwise.
+     */
+    private void handleResume(String requesterId, WearEvent event) {
+        boolean wasResuming = pairing.stateOf(event.playerNum) == PairingTable.State.RESUMING;
+        if (!pairing.resume(event.playerNum, requesterId)) {
+            WearLog.i(TAG, "Turning down resume of player " + event.playerNum
+                    + " from " + requesterId);
+            sendControlMessage(requesterId,
+                    new WearEvent(WearEvent.EventType.PAIR_REJECTED)
+                            .setPlayerNum(event.playerNum),
+                    "/pair_reject");
+            return;
+        }
+        WearEvent.ControllerType controllerType = pairing.controllerTypeOf(event.playerNum);
+        if (controllerType == null) {
+            controllerType = event.controllerType;
+        }
+        // The node lost its sequence, stream, channel and clock state when it restarted.
+        reliableChannel.reset(requesterId);
+        clockSync.clear(requesterId);
+        positionStreams.clearPlayer(event.playerNum);
+        channelStreams.close(requesterId);
+        WearEvent resumed = new WearEvent(WearEvent.EventType.PAIR_RESUMED)
+                .setPlayerNum(event.playerNum)
+                .setProtocolVersion(WearEventCodec.VERSION);
+        if (controllerType != null) {
+            resumed.setControllerType(controllerType.name());
+        }
+        sendControlMessage(requesterId, resumed, "/pair_resumed");
+        if (wasResuming) {
+            onPairingResumed(event.playerNum, controllerType);
+        }
+    }
+
+    private void handlePairResumed(String requesterId, WearEvent event) {
+        if (pairing.stateOf(event.playerNum) != PairingTable.State.RESUMING
+                || !pairing.resume(event.playerNum, requesterId)) {
+            // Already resumed by the node's own RESUME, or we've moved on since asking.
+            return;
+        }
+        WearEvent.ControllerType controllerType = pairing.controllerTypeOf(event.playerNum);
+        onPairingResumed(event.playerNum,
+                controllerType != null ? controllerType : event.controllerType);
+    }
+
+    private void onPairingResumed(int playerNum, WearEvent.ControllerType controllerType) {
+        resumesSent.remove(playerNum);
+        WearEvent resumed = new WearEvent(WearEvent.EventType.PAIR_RESUMED)
+                .setPlayerNum(playerNum);
+        if (controllerType != null) {
+            positionStreams.setControllerType(playerNum, controllerType);
+            inputSmoother.setControllerType(playerNum, controllerType);
+            resumed.setControllerType(controllerType.name());
+        }
+        dispatchUpdate(resumed);
+        availabilityMayHaveChanged();
+    }
+
+    /**
+     * Dispatches each sample of the batch in order as a POSITION_UPDATE. The samples' timestamps
+     * are placed relative to when the batch was sent, or to now if the sender's clock hasn't been
+     * estimated, using the offsets between them, since the last sample is the one that was taken
+     * closest to when the batch was sent.
+     */
+    private void handlePositionBatch(WearEvent batch) {
+        if (deliverPositionBatches || batch.sampleCount == 0) {
+            dispatchUpdate(batch);
+            return;
+        }
+        long now = batch.localSentTimeMicros > 0
+                ? WearClock.toNanoTime(batch.localSentTimeMicros) : System.nanoTime();
+        int lastOffset = batch.sampleOffsetsMicros[batch.sampleCount - 1];
+        for (int i = 0; i < batch.sampleCount; i++) {
+            WearEvent sample = eventPool.obtain(WearEvent.EventType.POSITION_UPDATE)
+                    .setPlayerNum(batch.playerNum)
+                    .setPosition(batch.samplesX[i], batch.samplesY[i])
+                    .setTimestampNanos(
+                            now - (lastOffset - batch.sampleOffsetsMicros[i]) * 1000L);
+            dispatchUpdate(sample);
+            eventPool.recycle(sample);
+        }
+    }
+
+    /**
+     * Fills in the position of a quantized update. Keyframes are acknowledged so the sender can
+     * switch to deltas against them. Returns false if the update can't be decoded and was
+     * dropped.
+     */
+    private boolean handleQuantizedPosition(String requesterId, WearEvent event) {
+        if (!positionStreams.dequantize(requesterId, event)) {
+            // A delta against a keyframe we missed, which the sender replaces soon, or a
+            // malformed update.
+            metrics.recordDropped(requesterId, event.eventType, event.playerNum);
+            return false;
+        }
+        if (event.quantFull && event.keyframeId != 0) {
+            sendMessage(requesterId,
+                    new WearEvent(WearEvent.EventType.KEYFRAME_ACK)
+                            .setPlayerNum(event.playerNum)
+                            .setKeyframeId(event.keyframeId),
+                    "/keyframe_ack");
+        }
+        return true;
+    }
+
+    private void handleDisconnect(String requesterId, WearEvent event) {
+        if (pairing.disconnectFrom(event.playerNum, requesterId)) {
+            // We are being disconnected from.
+            onDisconnected(requesterId, event);
+        }
+    }
+
+    private void onDisconnected(String node, WearEvent event) {
+        sendScheduler.clearPlayer(event.playerNum);
+        positionStreams.clearPlayer(event.playerNum);
+        inputSmoother.clearPlayer(event.playerNum);
+        releaseNodeIfUnpaired(node);
+        dispatchUpdate(event);
+        availabilityMayHaveChanged();
+    }
+
+    /**
+     * Dispatches a replayed event on the dispatch thread as if it had just come from the node.
+     */
+    void injectInbound(String nodeId, WearEvent event) {
+        inboundDispatcher.post(() -> {
+            dispatchingFrom = nodeId;
+            try {
+                dispatchUpdate(event);
+            } finally {
+                dispatchingFrom = null;
+            }
+        });
+    }
+
+    // Package private so the benchmarks can measure dispatch on its own.
+    void dispatchUpdate(WearEvent event) {
+        SessionRecorder recording = recorder;
+        if (recording != null && event.eventType != WearEvent.EventType.LINK_STATE) {
+            recording.record(SessionRecorder.KIND_INBOUND, dispatchingFrom, event);
+        }
+        if (isVerboseLogging()) {
+            WearLog.v(TAG, "Dispatching event: " + event.serialize());
+        }
+        metrics.recordDispatched(event);
+        if (inputSmoothingEnabled && event.eventType == WearEvent.EventType.POSITION_UPDATE) {
+            inputSmoother.add(event, System.nanoTime());
+        }
+        EventPollQueue queue = pollQueue;
+        if (queue != null) {
+            queue.offer(event);
+        }
+        // Indexed loop over the current table's listeners for the event, so dispatch doesn't
+        // allocate or filter.
+        Listener[] current = listeners.listenersFor(event.eventType, event.playerNum);
+        for (int i = 0; i < current.length; i++) {
+            current[i].onEvent(event);
+        }
+    }
+
+    /**
+     * Per event logging is only formatted when verbose logging is on for our tag. The metrics'
+     * event trace covers the same ground without the cost.
+     */
+    private boolean isVerboseLogging() {
+        return WearLog.isVerbose(TAG);
+    }
+}
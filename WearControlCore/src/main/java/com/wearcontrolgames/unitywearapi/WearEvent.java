@@ -0,0 +1,521 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.json.*;
+
+import androidx.annotation.Nullable;
+
+/**
+ * This class handles the various types of updates and converting them into a JSON object to be
+ * sent to Unity. Unity will have a C# implementation of this same class to convert the various
+ * enums and data back to an object to be used.
+ */
+public class WearEvent {
+    public enum EventType {
+        UNKNOWN,
+        PAIR_REQUEST,
+        PAIR_RESPONSE,
+        PAIR_ACCEPTED,
+        PAIR_REJECTED,
+        DISCONNECT,
+        POSITION_UPDATE,
+        GESTURE,
+        PAUSE_GAME,
+        UNPAUSE_GAME,
+        RESTART_GAME,
+        NODES_AVAILABLE,
+        NODES_UNAVAILABLE,
+        // Several position samples for one player in a single message. New types must be added
+        // at the end, the binary format sends the ordinal.
+        POSITION_BATCH,
+        // Round trip time probes between paired nodes. They feed WearMetrics and are never
+        // dispatched to listeners.
+        PING,
+        PONG,
+        // Tells the sender of a quantized position stream that a keyframe arrived.
+        KEYFRAME_ACK,
+        // Acknowledges a control event sent over the reliable channel.
+        ACK,
+        // The adaptive send rate to a player's node changed. Only dispatched locally, never sent.
+        LINK_STATE,
+        // Asks the node a player was paired to before a restart to pick the pairing up again.
+        RESUME,
+        // The answer to a RESUME, and what listeners get once a stored pairing is back.
+        PAIR_RESUMED
+    }
+    public final EventType eventType;
+    // This field is necessary for C# to try parsing out the enum from this value. This is more
+    // scalable for adding new event types versus manually mapping them on Unity's side.
+    public final String eventTypeString;
+
+    public int playerNum = -1;
+
+    // The data item this event was put in or read from, if it came through the data map.
+    public String uri;
+
+    public enum ControllerType {
+        UNKNOWN,
+        SLIDER,
+        ANALOG,
+        DPAD
+    }
+    public ControllerType controllerType;
+    public String controllerTypeString;
+
+    public String targetController;
+
+    // What GestureRecognizer can recognize. Like EventType, new gestures must only be appended.
+    public enum GestureType {
+        UNKNOWN,
+        FLICK_LEFT,
+        FLICK_RIGHT,
+        FLICK_UP,
+        FLICK_DOWN,
+        SHAKE,
+        WRIST_TWIST
+    }
+
+    // How healthy the link to a paired node looks to the adaptive send rate, or SUSPECT when
+    // liveness detection hasn't heard from the node for a while.
+    public enum LinkState {
+        UNKNOWN,
+        GOOD,
+        DEGRADED,
+        POOR,
+        SUSPECT
+    }
+
+    // Required fields for a position update event. The Unity side should handle which it cares
+    // about.
+    public double posX;
+    public double posY;
+
+    // Local System.nanoTime() of when the sample was taken, if known. For samples unpacked from a
+    // batch this is estimated from the time the batch arrived and the offsets between samples.
+    public long timestampNanos;
+
+    // Required for a position batch. Samples are in the order they were taken and the offsets are
+    // in microseconds since the first sample. The arrays may be longer than sampleCount.
+    public int sampleCount;
+    public double[] samplesX;
+    public double[] samplesY;
+    public int[] sampleOffsetsMicros;
+
+    // Required for gestures. The confidence runs from 0 to 1, and the time is the sender's wall
+    // clock in microseconds when the gesture happened. On the receiving side timestampNanos
+    // is also filled in with an estimate of the same moment on our clock.
+    public GestureType gestureType;
+    public String gestureTypeString;
+    public float gestureConfidence;
+    public long gestureTimeMicros;
+
+    // Required for LINK_STATE. The rate is how many position updates per second the player's
+    // node is currently sent.
+    public LinkState linkState;
+    public String linkStateString;
+    public float sendRate;
+
+    // Sender's wall clock in microseconds when the event went out, 0 if unknown. Stamped by the
+    // data layer when sending to peers that can read it.
+    public long sentTimeMicros;
+
+    // For a PONG, the sentTimeMicros of the PING it answers.
+    public long echoTimeMicros;
+
+    // For a PONG, the responder's wall clock in microseconds when the PING arrived, 0 if unknown.
+    public long receivedTimeMicros;
+
+    // On received events, sentTimeMicros converted to this device's clock using the estimated
+    // offset to the sender's, 0 until clock sync has an estimate. Never sent.
+    public long localSentTimeMicros;
+
+    // This device's clock when the event arrived from the transport, 0 for local events.
+    long arrivedMicros;
+
+    // Sent during the pairing handshake so each side knows which wire format the other can read.
+    // Older builds never set this, so 0 means JSON only.
+    public int protocolVersion;
+
+    // Set on events handed out by a WearEventPool, so only those get recycled after dispatch.
+    boolean pooled;
+
+    // Wire level state of a quantized position update, see PositionStreams. If quantFull is set
+    // quantX and quantY are the quantized position, and the update is a keyframe if it also has
+    // a keyframeId. Otherwise they are the difference from the keyframe's. keyframeId is also
+    // what a KEYFRAME_ACK acknowledges.
+    boolean quantized;
+    boolean quantFull;
+    int keyframeId;
+    int quantBits;
+    float quantMin;
+    float quantMax;
+    int quantX;
+    int quantY;
+
+    // Set on control events sent over the reliable channel, and on the ACKs for them. A sequence
+    // of 0 means the event isn't sequenced.
+    int channelEpoch;
+    int sequence;
+
+    public WearEvent(EventType type) {
+        this.eventType = type;
+        this.eventTypeString = type.name();
+    }
+
+    public WearEvent setUri(String uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    public WearEvent setTargetController(String t) {
+        targetController = t;
+        return this;
+    }
+
+    public WearEvent setControllerType(String type) {
+        this.controllerType = ControllerType.valueOf(type);
+        this.controllerTypeString = type;
+        return this;
+    }
+
+    public WearEvent setPosition(double posX, double posY) {
+        this.posX = posX;
+        this.posY = posY;
+        return this;
+    }
+
+    public WearEvent setPlayerNum(int num) {
+        this.playerNum = num;
+        return this;
+    }
+
+    public WearEvent setProtocolVersion(int version) {
+        this.protocolVersion = version;
+        return this;
+    }
+
+    public WearEvent setGesture(GestureType type, float confidence, long timeMicros) {
+        gestureType = type;
+        gestureTypeString = type == null ? null : type.name();
+        gestureConfidence = confidence;
+        gestureTimeMicros = timeMicros;
+        return this;
+    }
+
+    public WearEvent setLinkState(LinkState state, float messagesPerSecond) {
+        linkState = state;
+        linkStateString = state == null ? null : state.name();
+        sendRate = messagesPerSecond;
+        return this;
+    }
+
+    public WearEvent setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+        return this;
+    }
+
+    public WearEvent setSentTimeMicros(long sentTimeMicros) {
+        this.sentTimeMicros = sentTimeMicros;
+        return this;
+    }
+
+    public WearEvent setEchoTimeMicros(long echoTimeMicros) {
+        this.echoTimeMicros = echoTimeMicros;
+        return this;
+    }
+
+    public WearEvent setReceivedTimeMicros(long receivedTimeMicros) {
+        this.receivedTimeMicros = receivedTimeMicros;
+        return this;
+    }
+
+    WearEvent setSequence(int channelEpoch, int sequence) {
+        this.channelEpoch = channelEpoch;
+        this.sequence = sequence;
+        return this;
+    }
+
+    WearEvent setKeyframeId(int keyframeId) {
+        this.keyframeId = keyframeId;
+        return this;
+    }
+
+    void setQuantizedPosition(int keyframeId, PositionStreams.Quantization quantization, int x,
+            int y) {
+        quantized = true;
+        quantFull = true;
+        this.keyframeId = keyframeId;
+        quantBits = quantization.bits;
+        quantMin = quantization.min;
+        quantMax = quantization.max;
+        quantX = x;
+        quantY = y;
+    }
+
+    void setQuantizedDelta(int keyframeId, int dx, int dy) {
+        quantized = true;
+        quantFull = false;
+        this.keyframeId = keyframeId;
+        quantX = dx;
+        quantY = dy;
+    }
+
+    /**
+     * Makes sure the sample arrays can hold at least the given number of samples, keeping the
+     * existing ones.
+     */
+    public WearEvent ensureSampleCapacity(int capacity) {
+        if (samplesX == null || samplesX.length < capacity) {
+            samplesX = copyOf(samplesX, capacity);
+            samplesY = copyOf(samplesY, capacity);
+            int[] offsets = new int[capacity];
+            if (sampleOffsetsMicros != null) {
+                System.arraycopy(sampleOffsetsMicros, 0, offsets, 0, sampleCount);
+            }
+            sampleOffsetsMicros = offsets;
+        }
+        return this;
+    }
+
+    public WearEvent addSample(double posX, double posY, int offsetMicros) {
+        ensureSampleCapacity(Math.max(sampleCount + 1, 8));
+        samplesX[sampleCount] = posX;
+        samplesY[sampleCount] = posY;
+        sampleOffsetsMicros[sampleCount] = offsetMicros;
+        sampleCount++;
+        return this;
+    }
+
+    private double[] copyOf(double[] values, int capacity) {
+        double[] copy = new double[capacity];
+        if (values != null) {
+            System.arraycopy(values, 0, copy, 0, sampleCount);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies every field but the event type from the other event.
+     */
+    void copyFrom(WearEvent other) {
+        playerNum = other.playerNum;
+        uri = other.uri;
+        controllerType = other.controllerType;
+        controllerTypeString = other.controllerTypeString;
+        targetController = other.targetController;
+        posX = other.posX;
+        posY = other.posY;
+        gestureType = other.gestureType;
+        gestureTypeString = other.gestureTypeString;
+        gestureConfidence = other.gestureConfidence;
+        gestureTimeMicros = other.gestureTimeMicros;
+        linkState = other.linkState;
+        linkStateString = other.linkStateString;
+        sendRate = other.sendRate;
+        timestampNanos = other.timestampNanos;
+        sentTimeMicros = other.sentTimeMicros;
+        echoTimeMicros = other.echoTimeMicros;
+        receivedTimeMicros = other.receivedTimeMicros;
+        localSentTimeMicros = other.localSentTimeMicros;
+        arrivedMicros = other.arrivedMicros;
+        protocolVersion = other.protocolVersion;
+        channelEpoch = other.channelEpoch;
+        sequence = other.sequence;
+        quantized = other.quantized;
+        quantFull = other.quantFull;
+        keyframeId = other.keyframeId;
+        quantBits = other.quantBits;
+        quantMin = other.quantMin;
+        quantMax = other.quantMax;
+        quantX = other.quantX;
+        quantY = other.quantY;
+        sampleCount = 0;
+        if (other.sampleCount > 0) {
+            ensureSampleCapacity(other.sampleCount);
+            System.arraycopy(other.samplesX, 0, samplesX, 0, other.sampleCount);
+            System.arraycopy(other.samplesY, 0, samplesY, 0, other.sampleCount);
+            System.arraycopy(
+                    other.sampleOffsetsMicros, 0, sampleOffsetsMicros, 0, other.sampleCount);
+            sampleCount = other.sampleCount;
+        }
+    }
+
+    /**
+     * Clears everything but the event type so the instance can be reused.
+     */
+    void reset() {
+        playerNum = -1;
+        uri = null;
+        controllerType = null;
+        controllerTypeString = null;
+        targetController = null;
+        posX = 0;
+        posY = 0;
+        gestureType = null;
+        gestureTypeString = null;
+        gestureConfidence = 0;
+        gestureTimeMicros = 0;
+        linkState = null;
+        linkStateString = null;
+        sendRate = 0;
+        timestampNanos = 0;
+        sentTimeMicros = 0;
+        echoTimeMicros = 0;
+        receivedTimeMicros = 0;
+        localSentTimeMicros = 0;
+        arrivedMicros = 0;
+        // The sample arrays are kept so a recycled batch doesn't need to allocate them again.
+        sampleCount = 0;
+        protocolVersion = 0;
+        channelEpoch = 0;
+        sequence = 0;
+        quantized = false;
+        quantFull = false;
+        keyframeId = 0;
+        pooled = false;
+    }
+
+    @Nullable
+    public static WearEvent deserialize(String json) {
+        try {
+            JSONObject obj = new JSONObject(json);
+            // Like the binary format, types and controllers from newer senders read as UNKNOWN.
+            EventType t = valueOf(
+                    EventType.class, obj.getString("eventType"), EventType.UNKNOWN);
+            WearEvent e = new WearEvent(t);
+            if (obj.has("uri")) {
+                e.setUri(obj.getString("uri"));
+            }
+            if (obj.has("playerNum")) {
+                e.setPlayerNum(obj.getInt("playerNum"));
+            }
+            if (obj.has("protocolVersion")) {
+                e.setProtocolVersion(obj.getInt("protocolVersion"));
+            }
+            if (obj.has("sentTimeMicros")) {
+                e.setSentTimeMicros(obj.getLong("sentTimeMicros"));
+            }
+            if (obj.has("echoTimeMicros")) {
+                e.setEchoTimeMicros(obj.getLong("echoTimeMicros"));
+            }
+            if (obj.has("receivedTimeMicros")) {
+                e.setReceivedTimeMicros(obj.getLong("receivedTimeMicros"));
+            }
+            switch(t) {
+                case POSITION_UPDATE:
+                    e.setPosition(
+                            obj.getDouble("posX"), obj.getDouble("posY"));
+                    break;
+                case PAIR_ACCEPTED:
+                    e.controllerTypeString = obj.getString("controllerType");
+                    e.controllerType = valueOf(ControllerType.class, e.controllerTypeString,
+                            ControllerType.UNKNOWN);
+                    break;
+                case PAIR_REQUEST:
+                    e.targetController = obj.getString("targetController");
+                    break;
+                case GESTURE:
+                    // Missing or unknown values, from older or newer senders, read as UNKNOWN
+                    // rather than losing the whole event.
+                    e.setGesture(
+                            valueOf(GestureType.class, obj.optString("gestureType", null),
+                                    GestureType.UNKNOWN),
+                            (float) obj.optDouble("gestureConfidence", 0),
+                            obj.optLong("gestureTimeMicros", 0));
+                    break;
+                case LINK_STATE:
+                    e.setLinkState(
+                            valueOf(LinkState.class, obj.optString("linkState", null),
+                                    LinkState.UNKNOWN),
+                            (float) obj.optDouble("sendRate", 0));
+                    break;
+                case POSITION_BATCH:
+                    JSONArray samples = obj.getJSONArray("samples");
+                    for (int i = 0; i < samples.length(); i++) {
+                        JSONArray sample = samples.getJSONArray(i);
+                        e.addSample(sample.getDouble(0), sample.getDouble(1), sample.getInt(2));
+                    }
+                    break;
+            }
+            return e;
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public String serialize() {
+        JSONObject obj = new JSONObject();
+        try {
+            obj.put("eventType", eventType.name());
+            if (uri != null) {
+                obj.put("uri", uri);
+            }
+            if (playerNum >= 0) {
+                obj.put("playerNum", playerNum);
+            }
+            if (protocolVersion > 0) {
+                obj.put("protocolVersion", protocolVersion);
+            }
+            if (sentTimeMicros > 0) {
+                obj.put("sentTimeMicros", sentTimeMicros);
+            }
+            if (echoTimeMicros > 0) {
+                obj.put("echoTimeMicros", echoTimeMicros);
+            }
+            if (receivedTimeMicros > 0) {
+                obj.put("receivedTimeMicros", receivedTimeMicros);
+            }
+            switch(eventType) {
+                case POSITION_UPDATE:
+                    obj.put("posX", posX);
+                    obj.put("posY", posY);
+                    break;
+                case PAIR_ACCEPTED:
+                    obj.put("controllerType", controllerType.name());
+                    break;
+                case PAIR_REQUEST:
+                    obj.put("targetController", targetController);
+                    break;
+                case GESTURE:
+                    if (gestureType != null) {
+                        obj.put("gestureType", gestureType.name());
+                    }
+                    obj.put("gestureConfidence", gestureConfidence);
+                    obj.put("gestureTimeMicros", gestureTimeMicros);
+                    break;
+                case LINK_STATE:
+                    if (linkState != null) {
+                        obj.put("linkState", linkState.name());
+                    }
+                    obj.put("sendRate", sendRate);
+                    break;
+                case POSITION_BATCH:
+                    // Each sample is [posX, posY, offsetMicros].
+                    JSONArray samples = new JSONArray();
+                    for (int i = 0; i < sampleCount; i++) {
+                        samples.put(new JSONArray()
+                                .put(samplesX[i])
+                                .put(samplesY[i])
+                                .put(sampleOffsetsMicros[i]));
+                    }
+                    obj.put("samples", samples);
+                    break;
+            }
+            return obj.toString();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> type, @Nullable String name, E fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
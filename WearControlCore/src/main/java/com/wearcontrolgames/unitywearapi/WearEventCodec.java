@@ -0,0 +1,574 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Compact binary wire format for {@link WearEvent}. The JSON format is still used for data map
+ * updates and for any peer that hasn't advertised support for this format during pairing.
+ *
+ * Layout:
+ * <pre>
+ *   byte    magic | version      (0xB1 to 0xBA, never '{' so it can't be confused with JSON)
+ *   byte    event type ordinal
+ *   varint  player number        (zig-zag, so -1 is a single byte)
+ *   varint  presence bitmask     (FIELD_* below, a single byte for versions 1 and 2)
+ *   double  posX, double posY    (if FIELD_POSITION, left out of quantized updates)
+ *   byte    controller type      (if FIELD_CONTROLLER_TYPE)
+ *   varint  length + UTF-8       (if FIELD_TARGET_CONTROLLER)
+ *   varint  length + UTF-8       (if FIELD_URI)
+ *   varint  protocol version     (if FIELD_PROTOCOL_VERSION)
+ *   varint  sample count, then per sample a varint of microseconds since the previous sample
+ *           followed by double posX, double posY      (if FIELD_SAMPLES, version 2)
+ *   long    sender's wall clock in microseconds       (if FIELD_SENT_TIME, version 3)
+ *   long    echoed wall clock in microseconds         (if FIELD_ECHO_TIME, version 3)
+ *   varint  keyframe id                               (if FIELD_KEYFRAME_ID, version 4)
+ *   byte    1 for a full position, 0 for a delta, then for a full position the bits per axis
+ *           as a byte, float min, float max and the quantized x and y as varints, or for a delta
+ *           the difference from the keyframe's x and y as zig-zag varints (if FIELD_QUANTIZED,
+ *           version 4)
+ *   varint  channel epoch, varint sequence number     (if FIELD_SEQUENCE, version 6)
+ *   byte    gesture type ordinal, byte confidence scaled to 0..255, long sender's wall clock
+ *           in microseconds when it was recognized    (if FIELD_GESTURE, version 8)
+ *   long    receiver's wall clock in microseconds when the echoed frame arrived
+ *                                                     (if FIELD_RECEIVE_TIME, version 10)
+ * </pre>
+ * Each frame is stamped with the lowest version that can represent it, so a frame without any
+ * newer fields can still be read by an older peer. Frames encoded for an older peer leave out the
+ * fields it can't read, and events it can't make sense of at all shouldn't be sent to it.
+ * The type byte is the enum ordinal, so new event types must only ever be appended to
+ * {@link WearEvent.EventType}. The Unity side relies on the same ordering.
+ */
+public final class WearEventCodec {
+    /** The binary protocol version this library writes and the highest one it can read. */
+    public static final int VERSION = 10;
+    /** The first version that understands the binary format at all. */
+    public static final int VERSION_BINARY = 1;
+    /** The first version that can carry POSITION_BATCH events. */
+    public static final int VERSION_BATCHES = 2;
+    /** The first version that carries send timestamps and PING/PONG. */
+    public static final int VERSION_TIMESTAMPS = 3;
+    /** The first version that can carry quantized position streams and KEYFRAME_ACK. */
+    public static final int VERSION_QUANTIZED = 4;
+    /**
+     * The first version that gets pause, unpause and restart from its paired game as messages, so
+     * the data map copies from that game can be ignored. Frames look the same as version 4.
+     */
+    public static final int VERSION_BROADCAST = 5;
+    /** The first version that takes control events over the reliable channel, and sends ACKs. */
+    public static final int VERSION_RELIABLE = 6;
+    /**
+     * The first version that reads updates streamed over a ChannelClient channel. Frames look the
+     * same as version 6.
+     */
+    public static final int VERSION_STREAMING = 7;
+    /** The first version that can carry a GESTURE's payload. */
+    public static final int VERSION_GESTURES = 8;
+    /**
+     * The first version that resumes stored pairings with RESUME and PAIR_RESUMED. Frames look the
+     * same as version 8.
+     */
+    public static final int VERSION_RESUME = 9;
+    /** The first version whose PONG carries when the PING arrived, for clock sync. */
+    public static final int VERSION_CLOCK_SYNC = 10;
+
+    private static final int MAGIC = 0xB0;
+    private static final int MAGIC_MASK = 0xF0;
+    private static final int VERSION_MASK = 0x0F;
+
+    static final int FIELD_POSITION = 1;
+    static final int FIELD_CONTROLLER_TYPE = 1 << 1;
+    static final int FIELD_TARGET_CONTROLLER = 1 << 2;
+    static final int FIELD_URI = 1 << 3;
+    static final int FIELD_PROTOCOL_VERSION = 1 << 4;
+    static final int FIELD_SAMPLES = 1 << 5;
+    static final int FIELD_SENT_TIME = 1 << 6;
+    static final int FIELD_ECHO_TIME = 1 << 7;
+    static final int FIELD_KEYFRAME_ID = 1 << 8;
+    static final int FIELD_QUANTIZED = 1 << 9;
+    static final int FIELD_SEQUENCE = 1 << 10;
+    static final int FIELD_GESTURE = 1 << 11;
+    static final int FIELD_RECEIVE_TIME = 1 << 12;
+
+    private static final WearEvent.EventType[] EVENT_TYPES = WearEvent.EventType.values();
+    private static final WearEvent.ControllerType[] CONTROLLER_TYPES =
+            WearEvent.ControllerType.values();
+    private static final WearEvent.GestureType[] GESTURE_TYPES = WearEvent.GestureType.values();
+    // The fields each version can read, indexed by version.
+    private static final int[] READABLE_FIELDS = new int[VERSION + 1];
+
+    static {
+        for (int version = VERSION_BINARY; version <= VERSION; version++) {
+            for (int field = FIELD_POSITION; field <= FIELD_RECEIVE_TIME; field <<= 1) {
+                if (versionOf(field) <= version) {
+                    READABLE_FIELDS[version] |= field;
+                }
+            }
+        }
+    }
+
+    private WearEventCodec() {}
+
+    /**
+     * Returns true if the payload was written by {@link #encode(WearEvent)} rather than being a
+     * JSON string.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length > 0 && (data[0] & MAGIC_MASK) == MAGIC;
+    }
+
+    /**
+     * Encodes the event for a peer that negotiated the given protocol version, leaving out any
+     * fields newer than that. Peers that never advertised a version get the JSON format so older
+     * builds keep working.
+     */
+    public static byte[] encodeFor(WearEvent event, int peerVersion) {
+        if (peerVersion >= VERSION_BINARY) {
+            ByteBuffer buffer = ByteBuffer.allocate(encodedSize(event, peerVersion));
+            encode(event, peerVersion, buffer);
+            return buffer.array();
+        }
+        return event.serialize().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether a peer at the given protocol version can make sense of the event at all. Leaving
+     * out newer fields is fine for most events, but e.g. a GESTURE without its gesture or an ACK
+     * without its sequence number means nothing, so those shouldn't be sent to the peer.
+     */
+    public static boolean canEncodeFor(WearEvent event, int peerVersion) {
+        // Peers without a version get JSON, which is as old as the binary format.
+        int version = Math.max(peerVersion, VERSION_BINARY);
+        if (event.quantized && version < VERSION_QUANTIZED) {
+            return false;
+        }
+        switch (event.eventType) {
+            case POSITION_BATCH:
+                return version >= VERSION_BATCHES;
+            case PING:
+            case PONG:
+                return version >= VERSION_TIMESTAMPS;
+            case KEYFRAME_ACK:
+                return version >= VERSION_QUANTIZED;
+            case ACK:
+                return version >= VERSION_RELIABLE;
+            case GESTURE:
+                return version >= VERSION_GESTURES;
+            case RESUME:
+            case PAIR_RESUMED:
+                return version >= VERSION_RESUME;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Decodes a message payload in either the binary or the JSON format.
+     */
+    @Nullable
+    public static WearEvent decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (isBinary(data)) {
+            return decode(ByteBuffer.wrap(data));
+        }
+        return WearEvent.deserialize(new String(data, StandardCharsets.UTF_8));
+    }
+
+    public static byte[] encode(WearEvent event) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(event));
+        encode(event, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Writes the event into the buffer at its current position. The buffer must have at least
+     * {@link #encodedSize(WearEvent)} bytes remaining.
+     */
+    public static void encode(WearEvent event, ByteBuffer buffer) {
+        encode(event, VERSION, buffer);
+    }
+
+    /**
+     * Writes the event into the buffer at its current position, leaving out any fields newer than
+     * peerVersion. The buffer must have at least {@link #encodedSize(WearEvent, int)} bytes
+     * remaining.
+     */
+    public static void encode(WearEvent event, int peerVersion, ByteBuffer buffer) {
+        int fields = fieldsFor(event, peerVersion);
+        buffer.put((byte) (MAGIC | versionOf(fields)));
+        buffer.put((byte) event.eventType.ordinal());
+        putVarint(buffer, zigZag(event.playerNum));
+        putVarint(buffer, fields);
+        if ((fields & FIELD_POSITION) != 0) {
+            buffer.putDouble(event.posX);
+            buffer.putDouble(event.posY);
+        }
+        if ((fields & FIELD_CONTROLLER_TYPE) != 0) {
+            buffer.put((byte) event.controllerType.ordinal());
+        }
+        if ((fields & FIELD_TARGET_CONTROLLER) != 0) {
+            putString(buffer, event.targetController);
+        }
+        if ((fields & FIELD_URI) != 0) {
+            putString(buffer, event.uri);
+        }
+        if ((fields & FIELD_PROTOCOL_VERSION) != 0) {
+            putVarint(buffer, event.protocolVersion);
+        }
+        if ((fields & FIELD_SAMPLES) != 0) {
+            putVarint(buffer, event.sampleCount);
+            int previous = 0;
+            for (int i = 0; i < event.sampleCount; i++) {
+                putVarint(buffer, event.sampleOffsetsMicros[i] - previous);
+                previous = event.sampleOffsetsMicros[i];
+                buffer.putDouble(event.samplesX[i]);
+                buffer.putDouble(event.samplesY[i]);
+            }
+        }
+        if ((fields & FIELD_SENT_TIME) != 0) {
+            buffer.putLong(event.sentTimeMicros);
+        }
+        if ((fields & FIELD_ECHO_TIME) != 0) {
+            buffer.putLong(event.echoTimeMicros);
+        }
+        if ((fields & FIELD_KEYFRAME_ID) != 0) {
+            putVarint(buffer, event.keyframeId);
+        }
+        if ((fields & FIELD_QUANTIZED) != 0) {
+            buffer.put((byte) (event.quantFull ? 1 : 0));
+            if (event.quantFull) {
+                buffer.put((byte) event.quantBits);
+                buffer.putFloat(event.quantMin);
+                buffer.putFloat(event.quantMax);
+                putVarint(buffer, event.quantX);
+                putVarint(buffer, event.quantY);
+            } else {
+                putVarint(buffer, zigZag(event.quantX));
+                putVarint(buffer, zigZag(event.quantY));
+            }
+        }
+        if ((fields & FIELD_SEQUENCE) != 0) {
+            putVarint(buffer, event.channelEpoch);
+            putVarint(buffer, event.sequence);
+        }
+        if ((fields & FIELD_GESTURE) != 0) {
+            buffer.put((byte) event.gestureType.ordinal());
+            float confidence = Math.max(0, Math.min(1, event.gestureConfidence));
+            buffer.put((byte) Math.round(confidence * 255));
+            buffer.putLong(event.gestureTimeMicros);
+        }
+        if ((fields & FIELD_RECEIVE_TIME) != 0) {
+            buffer.putLong(event.receivedTimeMicros);
+        }
+    }
+
+    public static int encodedSize(WearEvent event) {
+        return encodedSize(event, VERSION);
+    }
+
+    public static int encodedSize(WearEvent event, int peerVersion) {
+        int fields = fieldsFor(event, peerVersion);
+        int size = 2 + varintSize(zigZag(event.playerNum)) + varintSize(fields);
+        if ((fields & FIELD_POSITION) != 0) {
+            size += 16;
+        }
+        if ((fields & FIELD_CONTROLLER_TYPE) != 0) {
+            size += 1;
+        }
+        if ((fields & FIELD_TARGET_CONTROLLER) != 0) {
+            size += stringSize(event.targetController);
+        }
+        if ((fields & FIELD_URI) != 0) {
+            size += stringSize(event.uri);
+        }
+        if ((fields & FIELD_PROTOCOL_VERSION) != 0) {
+            size += varintSize(event.protocolVersion);
+        }
+        if ((fields & FIELD_SAMPLES) != 0) {
+            size += varintSize(event.sampleCount) + 16 * event.sampleCount;
+            int previous = 0;
+            for (int i = 0; i < event.sampleCount; i++) {
+                size += varintSize(event.sampleOffsetsMicros[i] - previous);
+                previous = event.sampleOffsetsMicros[i];
+            }
+        }
+        if ((fields & FIELD_SENT_TIME) != 0) {
+            size += 8;
+        }
+        if ((fields & FIELD_ECHO_TIME) != 0) {
+            size += 8;
+        }
+        if ((fields & FIELD_KEYFRAME_ID) != 0) {
+            size += varintSize(event.keyframeId);
+        }
+        if ((fields & FIELD_QUANTIZED) != 0) {
+            if (event.quantFull) {
+                size += 10 + varintSize(event.quantX) + varintSize(event.quantY);
+            } else {
+                size += 1 + varintSize(zigZag(event.quantX)) + varintSize(zigZag(event.quantY));
+            }
+        }
+        if ((fields & FIELD_SEQUENCE) != 0) {
+            size += varintSize(event.channelEpoch) + varintSize(event.sequence);
+        }
+        if ((fields & FIELD_GESTURE) != 0) {
+            size += 10;
+        }
+        if ((fields & FIELD_RECEIVE_TIME) != 0) {
+            size += 8;
+        }
+        return size;
+    }
+
+    /**
+     * Reads one event from the buffer's current position. Returns null if the frame was written
+     * by a newer protocol version or is truncated.
+     */
+    @Nullable
+    public static WearEvent decode(ByteBuffer buffer) {
+        return decode(buffer, null);
+    }
+
+    /**
+     * Same as {@link #decode(ByteBuffer)}, but takes the event instance from the pool when one is
+     * given.
+     */
+    @Nullable
+    static WearEvent decode(ByteBuffer buffer, @Nullable WearEventPool pool) {
+        WearEvent event = null;
+        try {
+            int header = buffer.get() & 0xFF;
+            if ((header & MAGIC_MASK) != MAGIC || (header & VERSION_MASK) > VERSION) {
+                return null;
+            }
+            WearEvent.EventType type = eventTypeOf(buffer.get() & 0xFF);
+            event = pool != null ? pool.obtain(type) : new WearEvent(type);
+            event.setPlayerNum(unZigZag(getVarint(buffer)));
+            int fields = getVarint(buffer);
+            if ((fields & FIELD_POSITION) != 0) {
+                event.setPosition(buffer.getDouble(), buffer.getDouble());
+            }
+            if ((fields & FIELD_CONTROLLER_TYPE) != 0) {
+                event.setControllerType(controllerTypeOf(buffer.get() & 0xFF).name());
+            }
+            if ((fields & FIELD_TARGET_CONTROLLER) != 0) {
+                event.setTargetController(getString(buffer));
+            }
+            if ((fields & FIELD_URI) != 0) {
+                event.setUri(getString(buffer));
+            }
+            if ((fields & FIELD_PROTOCOL_VERSION) != 0) {
+                event.setProtocolVersion(getVarint(buffer));
+            }
+            if ((fields & FIELD_SAMPLES) != 0) {
+                int count = getVarint(buffer);
+                // Each sample takes at least a one byte offset and two doubles.
+                if (count < 0 || count > buffer.remaining() / 17) {
+                    throw new IllegalArgumentException("Bad sample count " + count);
+                }
+                event.sampleCount = 0;
+                event.ensureSampleCapacity(count);
+                int offset = 0;
+                for (int i = 0; i < count; i++) {
+                    offset += getVarint(buffer);
+                    event.sampleOffsetsMicros[i] = offset;
+                    event.samplesX[i] = buffer.getDouble();
+                    event.samplesY[i] = buffer.getDouble();
+                }
+                event.sampleCount = count;
+            }
+            if ((fields & FIELD_SENT_TIME) != 0) {
+                event.setSentTimeMicros(buffer.getLong());
+            }
+            if ((fields & FIELD_ECHO_TIME) != 0) {
+                event.setEchoTimeMicros(buffer.getLong());
+            }
+            if ((fields & FIELD_KEYFRAME_ID) != 0) {
+                event.setKeyframeId(getVarint(buffer));
+            }
+            if ((fields & FIELD_QUANTIZED) != 0) {
+                // The position itself is filled in by PositionStreams, which has the keyframes.
+                event.quantized = true;
+                event.quantFull = buffer.get() != 0;
+                if (event.quantFull) {
+                    event.quantBits = buffer.get() & 0xFF;
+                    event.quantMin = buffer.getFloat();
+                    event.quantMax = buffer.getFloat();
+                    event.quantX = getVarint(buffer);
+                    event.quantY = getVarint(buffer);
+                } else {
+                    event.quantX = unZigZag(getVarint(buffer));
+                    event.quantY = unZigZag(getVarint(buffer));
+                }
+            }
+            if ((fields & FIELD_SEQUENCE) != 0) {
+                event.setSequence(getVarint(buffer), getVarint(buffer));
+            }
+            if ((fields & FIELD_GESTURE) != 0) {
+                WearEvent.GestureType gesture = gestureTypeOf(buffer.get() & 0xFF);
+                float confidence = (buffer.get() & 0xFF) / 255f;
+                event.setGesture(gesture, confidence, buffer.getLong());
+            }
+            if ((fields & FIELD_RECEIVE_TIME) != 0) {
+                event.setReceivedTimeMicros(buffer.getLong());
+            }
+            return event;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        if (event != null && pool != null) {
+            pool.recycle(event);
+        }
+        return null;
+    }
+
+    private static int fieldsFor(WearEvent event, int peerVersion) {
+        int version = Math.max(VERSION_BINARY, Math.min(VERSION, peerVersion));
+        return fieldsOf(event) & READABLE_FIELDS[version];
+    }
+
+    private static int fieldsOf(WearEvent event) {
+        int fields = 0;
+        if (event.quantized) {
+            fields |= FIELD_QUANTIZED;
+        } else if (event.eventType == WearEvent.EventType.POSITION_UPDATE) {
+            fields |= FIELD_POSITION;
+        }
+        if (event.controllerType != null) {
+            fields |= FIELD_CONTROLLER_TYPE;
+        }
+        if (event.targetController != null) {
+            fields |= FIELD_TARGET_CONTROLLER;
+        }
+        if (event.uri != null) {
+            fields |= FIELD_URI;
+        }
+        if (event.protocolVersion > 0) {
+            fields |= FIELD_PROTOCOL_VERSION;
+        }
+        if (event.eventType == WearEvent.EventType.POSITION_BATCH) {
+            fields |= FIELD_SAMPLES;
+        }
+        if (event.sentTimeMicros > 0) {
+            fields |= FIELD_SENT_TIME;
+        }
+        if (event.echoTimeMicros > 0) {
+            fields |= FIELD_ECHO_TIME;
+        }
+        if (event.keyframeId != 0) {
+            fields |= FIELD_KEYFRAME_ID;
+        }
+        if (event.sequence != 0) {
+            fields |= FIELD_SEQUENCE;
+        }
+        if (event.gestureType != null) {
+            fields |= FIELD_GESTURE;
+        }
+        if (event.receivedTimeMicros > 0) {
+            fields |= FIELD_RECEIVE_TIME;
+        }
+        return fields;
+    }
+
+    private static int versionOf(int fields) {
+        if ((fields & FIELD_RECEIVE_TIME) != 0) {
+            return VERSION_CLOCK_SYNC;
+        }
+        if ((fields & FIELD_GESTURE) != 0) {
+            return VERSION_GESTURES;
+        }
+        if ((fields & FIELD_SEQUENCE) != 0) {
+            return VERSION_RELIABLE;
+        }
+        if ((fields & (FIELD_KEYFRAME_ID | FIELD_QUANTIZED)) != 0) {
+            return VERSION_QUANTIZED;
+        }
+        if ((fields & (FIELD_SENT_TIME | FIELD_ECHO_TIME)) != 0) {
+            return VERSION_TIMESTAMPS;
+        }
+        if ((fields & FIELD_SAMPLES) != 0) {
+            return VERSION_BATCHES;
+        }
+        return VERSION_BINARY;
+    }
+
+    private static WearEvent.EventType eventTypeOf(int ordinal) {
+        return ordinal < EVENT_TYPES.length ? EVENT_TYPES[ordinal] : WearEvent.EventType.UNKNOWN;
+    }
+
+    private static WearEvent.ControllerType controllerTypeOf(int ordinal) {
+        return ordinal < CONTROLLER_TYPES.length
+                ? CONTROLLER_TYPES[ordinal]
+                : WearEvent.ControllerType.UNKNOWN;
+    }
+
+    private static WearEvent.GestureType gestureTypeOf(int ordinal) {
+        return ordinal < GESTURE_TYPES.length
+                ? GESTURE_TYPES[ordinal]
+                : WearEvent.GestureType.UNKNOWN;
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        // The length comes off the wire, so it mustn't be trusted for the allocation.
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        return varintSize(length) + length;
+    }
+}
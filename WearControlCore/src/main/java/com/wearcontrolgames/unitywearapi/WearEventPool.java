@@ -0,0 +1,48 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles {@link WearEvent} instances for the inbound hot path. Since the event type of a
+ * WearEvent is final, events are pooled per type. Events obtained from here are handed back with
+ * {@link #recycle(WearEvent)} once every listener has seen them, so listeners must copy anything
+ * they want to keep instead of holding onto the event.
+ */
+class WearEventPool {
+    private static final int MAX_POOLED_PER_TYPE = 8;
+
+    private final ArrayDeque<WearEvent>[] pools;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    WearEventPool() {
+        WearEvent.EventType[] types = WearEvent.EventType.values();
+        pools = new ArrayDeque[types.length];
+        for (int i = 0; i < types.length; i++) {
+            pools[i] = new ArrayDeque<>(MAX_POOLED_PER_TYPE);
+        }
+    }
+
+    synchronized WearEvent obtain(WearEvent.EventType type) {
+        WearEvent event = pools[type.ordinal()].pollFirst();
+        if (event == null) {
+            event = new WearEvent(type);
+        }
+        event.pooled = true;
+        return event;
+    }
+
+    /**
+     * Returns the event to the pool. Events that weren't obtained from a pool are ignored, so
+     * this is safe to call on anything that went through dispatch.
+     */
+    synchronized void recycle(WearEvent event) {
+        if (!event.pooled) {
+            return;
+        }
+        event.reset();
+        ArrayDeque<WearEvent> pool = pools[event.eventType.ordinal()];
+        if (pool.size() < MAX_POOLED_PER_TYPE) {
+            pool.addFirst(event);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.wearcontrolgames.unitywearapi;
+
+/**
+ * Logging for the protocol core, which can't use android.util.Log since it also runs on a plain
+ * JVM. The Android library installs a sink that forwards to Logcat. Without one, only errors are
+ * printed, to stderr.
+ */
+public final class WearLog {
+    public interface Sink {
+        boolean isVerbose(String tag);
+
+        void v(String tag, String message);
+
+        void i(String tag, String message);
+
+        void e(String tag, String message, Throwable throwable);
+    }
+
+    private static final Sink STDERR_SINK = new Sink() {
+        @Override
+        public boolean isVerbose(String tag) {
+            return false;
+        }
+
+        @Override
+        public void v(String tag, String message) {}
+
+        @Override
+        public void i(String tag, String message) {}
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            System.err.println(tag + ": " + message);
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Sink sink = STDERR_SINK;
+
+    private WearLog() {}
+
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : STDERR_SINK;
+    }
+
+    /**
+     * Whether verbose logging is explicitly turned on for the tag. Used to skip building log
+     * messages on the hot path.
+     */
+    public static boolean isVerbose(String tag) {
+        return sink.isVerbose(tag);
+    }
+
+    public static void v(String tag, String message) {
+        sink.v(tag, message);
+    }
+
+    public static void i(String tag, String message) {
+        sink.i(tag, message);
+    }
+
+    public static void e(String tag, String message) {
+        sink.e(tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        sink.e(tag, message, throwable);
+    }
+}
@@ -0,0 +1,197 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, latency histograms and a trace of recent events for one data layer. Everything is
+ * recorded without locks or allocation (apart from the first event seen from a new node), so it
+ * stays on in release builds.
+ *
+ * Round trip times come from {@link WearDataLayerCore#ping(int)}. One way ages compare the
+ * sender's clock with ours, so they include whatever offset there is between the two clocks,
+ * unless {@link WearDataLayerCore#setClockSyncEnabled(boolean)} has estimated it.
+ */
+public final class WearMetrics {
+    private static final int SENT = 0;
+    private static final int RECEIVED = 1;
+    private static final int DROPPED = 2;
+    private static final int BYTES_SENT = 3;
+    private static final int BYTES_RECEIVED = 4;
+    private static final int COUNTERS = 5;
+
+    private static final int TRACE_CAPACITY = 1024;
+
+    private static final WearEvent.EventType[] EVENT_TYPES = WearEvent.EventType.values();
+
+    private final AtomicLongArray byType = new AtomicLongArray(EVENT_TYPES.length * COUNTERS);
+    private final ConcurrentHashMap<String, AtomicLongArray> byNode = new ConcurrentHashMap<>();
+    private final LatencyHistogram rtt = new LatencyHistogram();
+    private final LatencyHistogram oneWayAge = new LatencyHistogram();
+    private final EventTrace trace = new EventTrace(TRACE_CAPACITY);
+    private volatile boolean traceEnabled = true;
+
+    /**
+     * Round trip times of pings to paired nodes.
+     */
+    public LatencyHistogram getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Time from when a peer sent a message to when we received it.
+     */
+    public LatencyHistogram getOneWayAge() {
+        return oneWayAge;
+    }
+
+    public long getSentCount(WearEvent.EventType type) {
+        return byType.get(type.ordinal() * COUNTERS + SENT);
+    }
+
+    public long getReceivedCount(WearEvent.EventType type) {
+        return byType.get(type.ordinal() * COUNTERS + RECEIVED);
+    }
+
+    public long getDroppedCount(WearEvent.EventType type) {
+        return byType.get(type.ordinal() * COUNTERS + DROPPED);
+    }
+
+    /**
+     * Turns the in memory event trace on or off. It is on by default.
+     */
+    public void setTraceEnabled(boolean enabled) {
+        traceEnabled = enabled;
+    }
+
+    /**
+     * The most recent events that were sent, received, dispatched or dropped, oldest first.
+     */
+    public String dumpTrace() {
+        return trace.dump();
+    }
+
+    public void reset() {
+        for (int i = 0; i < byType.length(); i++) {
+            byType.set(i, 0);
+        }
+        byNode.clear();
+        rtt.reset();
+        oneWayAge.reset();
+        trace.clear();
+    }
+
+    /**
+     * Returns everything but the trace as a JSON object, shaped so Unity's JsonUtility can read
+     * it. Only event types and nodes with any traffic are included.
+     */
+    public String snapshot() {
+        try {
+            JSONArray types = new JSONArray();
+            for (WearEvent.EventType type : EVENT_TYPES) {
+                JSONObject counters = countersJson(
+                        type.name(), byType, type.ordinal() * COUNTERS);
+                if (counters != null) {
+                    types.put(counters);
+                }
+            }
+            JSONArray nodes = new JSONArray();
+            for (Map.Entry<String, AtomicLongArray> entry : byNode.entrySet()) {
+                JSONObject counters = countersJson(entry.getKey(), entry.getValue(), 0);
+                if (counters != null) {
+                    nodes.put(counters);
+                }
+            }
+            return new JSONObject()
+                    .put("rtt", rtt.toJson())
+                    .put("oneWayAge", oneWayAge.toJson())
+                    .put("eventTypes", types)
+                    .put("nodes", nodes)
+                    .toString();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return "{}";
+    }
+
+    void recordSent(String nodeId, WearEvent event, int bytes) {
+        count(nodeId, event.eventType, SENT, BYTES_SENT, bytes);
+        trace(EventTrace.Kind.SENT, nodeId, event.eventType, event.playerNum, bytes);
+    }
+
+    void recordReceived(String nodeId, WearEvent event, int bytes) {
+        count(nodeId, event.eventType, RECEIVED, BYTES_RECEIVED, bytes);
+        trace(EventTrace.Kind.RECEIVED, nodeId, event.eventType, event.playerNum, bytes);
+        if (event.sentTimeMicros > 0) {
+            long sent = event.localSentTimeMicros > 0
+                    ? event.localSentTimeMicros : event.sentTimeMicros;
+            long arrived = event.arrivedMicros > 0 ? event.arrivedMicros : WearClock.nowMicros();
+            oneWayAge.record(arrived - sent);
+        }
+    }
+
+    /**
+     * Counts an event we gave up on. nodeId is the node it was going to or coming from, or null.
+     */
+    void recordDropped(String nodeId, WearEvent.EventType type, int playerNum) {
+        count(nodeId, type, DROPPED, -1, 0);
+        trace(EventTrace.Kind.DROPPED, nodeId, type, playerNum, 0);
+    }
+
+    void recordDispatched(WearEvent event) {
+        trace(EventTrace.Kind.DISPATCHED, null, event.eventType, event.playerNum, 0);
+    }
+
+    void recordRtt(long micros) {
+        rtt.record(micros);
+    }
+
+    private void count(String nodeId, WearEvent.EventType type, int counter, int bytesCounter,
+            int bytes) {
+        int base = type.ordinal() * COUNTERS;
+        byType.incrementAndGet(base + counter);
+        if (bytesCounter >= 0) {
+            byType.addAndGet(base + bytesCounter, bytes);
+        }
+        if (nodeId == null) {
+            return;
+        }
+        AtomicLongArray node = byNode.get(nodeId);
+        if (node == null) {
+            node = byNode.computeIfAbsent(nodeId, id -> new AtomicLongArray(COUNTERS));
+        }
+        node.incrementAndGet(counter);
+        if (bytesCounter >= 0) {
+            node.addAndGet(bytesCounter, bytes);
+        }
+    }
+
+    private void trace(EventTrace.Kind kind, String nodeId, WearEvent.EventType type,
+            int playerNum, int bytes) {
+        if (traceEnabled) {
+            trace.record(kind, nodeId, type, playerNum, bytes);
+        }
+    }
+
+    private static JSONObject countersJson(String name, AtomicLongArray counters, int base)
+            throws JSONException {
+        long sent = counters.get(base + SENT);
+        long received = counters.get(base + RECEIVED);
+        long dropped = counters.get(base + DROPPED);
+        if (sent == 0 && received == 0 && dropped == 0) {
+            return null;
+        }
+        return new JSONObject()
+                .put("name", name)
+                .put("sent", sent)
+                .put("received", received)
+                .put("dropped", dropped)
+                .put("bytesSent", counters.get(base + BYTES_SENT))
+                .put("bytesReceived", counters.get(base + BYTES_RECEIVED));
+    }
+}
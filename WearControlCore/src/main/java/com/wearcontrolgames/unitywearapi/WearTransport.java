@@ -0,0 +1,91 @@
+package com.wearcontrolgames.unitywearapi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Everything {@link WearDataLayerCore} needs from the Wear OS Data Layer. The Android library's
+ * PlayServicesTransport is the real implementation, and {@link LoopbackNetwork} connects several
+ * layers in the same process so pairing and throughput can be exercised without any devices.
+ *
+ * A transport only deals with nodes that advertise
+ * {@link WearDataLayerCore#WEAR_CONTROL_CAPABILITY}.
+ */
+public interface WearTransport {
+    /**
+     * Callbacks for everything that arrives from other nodes. A transport calls these on a single
+     * thread, in the order things arrived.
+     */
+    interface Receiver {
+        void onMessageReceived(String sourceNodeId, String path, byte[] data);
+
+        /**
+         * A data item was put or changed. The sender node id and serialized event are the values
+         * that were passed to {@link #putDataItem}.
+         */
+        void onDataItemChanged(String uri, String senderNodeId, String event);
+
+        void onDataItemDeleted(String uri);
+
+        /**
+         * The set of reachable nodes with the capability changed.
+         */
+        void onReachableNodesChanged(Set<String> nodeIds);
+
+        /**
+         * A node opened a channel to us. Reads from the input block until more data arrives, and
+         * return -1 or throw once the channel is closed, so it has to be read on its own thread.
+         */
+        void onChannelOpened(String sourceNodeId, String path, InputStream input);
+    }
+
+    /**
+     * A persistent stream of bytes to one node, opened with {@link #openChannel}. Everything
+     * written arrives in order while the channel stays open. Writes throw an IOException once it
+     * has been closed by either end or the link has dropped.
+     */
+    interface Channel {
+        OutputStream getOutputStream();
+
+        void close();
+    }
+
+    void setReceiver(Receiver receiver);
+
+    CompletableFuture<String> getLocalNodeId();
+
+    CompletableFuture<Integer> sendMessage(String nodeId, String path, byte[] data);
+
+    /**
+     * Puts an urgent data item at the path that every node will see. Returns the uri of the item,
+     * which can be passed to {@link #deleteDataItems(String)}.
+     */
+    String putDataItem(String path, String senderNodeId, String event, long timestampMillis);
+
+    /**
+     * Deletes the data items at the uri, returning how many were deleted.
+     */
+    CompletableFuture<Integer> deleteDataItems(String uri);
+
+    /**
+     * Deletes every data item whose uri starts with the prefix, in a single request. Like
+     * {@link #deleteDataItems(String)}, a prefix without a host matches items from every node.
+     */
+    CompletableFuture<Integer> deleteDataItemsWithPrefix(String uriPrefix);
+
+    /**
+     * Returns the uris of every data item this node can currently see.
+     */
+    CompletableFuture<List<String>> getDataItemUris();
+
+    CompletableFuture<Set<String>> getReachableNodes();
+
+    /**
+     * Opens a channel to the node, which gets the reading end through
+     * {@link Receiver#onChannelOpened}.
+     */
+    CompletableFuture<Channel> openChannel(String nodeId, String path);
+}
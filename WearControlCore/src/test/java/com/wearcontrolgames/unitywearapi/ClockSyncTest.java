@@ -0,0 +1,142 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClockSyncTest {
+    private static final String NODE = "watch";
+    private static final long START_MICROS = TimeUnit.SECONDS.toMicros(1000);
+    private static final long SECOND = TimeUnit.SECONDS.toMicros(1);
+
+    private final ClockSync sync = new ClockSync();
+
+    // The synthetic node's clock: offsetMicros ahead of ours at START_MICROS, and gaining
+    // driftPpm.
+    private double offsetMicros = 5 * SECOND;
+    private double driftPpm = 50;
+
+    @Test
+    public void fitsOffsetAndDrift() {
+        long now = START_MICROS;
+        for (int i = 0; i < ClockSync.WINDOW; i++, now += SECOND) {
+            roundTrip(now, 1000, 1000, 300);
+        }
+
+        ClockSync.Estimate estimate = sync.estimate(NODE);
+
+        assertEquals(50, estimate.driftPpm, 0.1);
+        assertEquals(2000, estimate.delayMicros);
+        long later = now + 30 * SECOND;
+        assertEquals(remote(later) - later, estimate.offsetAt(later), 5);
+        assertEquals(later, sync.toLocal(NODE, remote(later)), 5);
+    }
+
+    @Test
+    public void offsetOfTheBestSampleUntilTenSecondsAreCovered() {
+        long now = START_MICROS;
+        for (int i = 0; i < 5; i++, now += SECOND) {
+            roundTrip(now, 1000 + i * 100, 1000 + i * 100, 0);
+        }
+
+        ClockSync.Estimate estimate = sync.estimate(NODE);
+
+        assertEquals(0, estimate.driftPpm, 0);
+        assertEquals(2000, estimate.delayMicros);
+        assertEquals(remote(estimate.referenceMicros) - estimate.referenceMicros,
+                estimate.offsetMicros, 1);
+    }
+
+    @Test
+    public void delayedSamplesAreLeftOut() {
+        driftPpm = 0;
+        long now = START_MICROS;
+        for (int i = 0; i < ClockSync.WINDOW; i++, now += SECOND) {
+            if (i % 2 == 0) {
+                roundTrip(now, 1000, 1000, 0);
+            } else {
+                // Stuck in a queue on the way out, which would pull the offset 20 ms off.
+                roundTrip(now, 41000, 1000, 0);
+            }
+        }
+
+        assertEquals(offsetMicros, sync.estimate(NODE).offsetAt(now), 1);
+    }
+
+    @Test
+    public void driftIsClamped() {
+        driftPpm = 1000;
+        long now = START_MICROS;
+        for (int i = 0; i < ClockSync.WINDOW; i++, now += SECOND) {
+            roundTrip(now, 1000, 1000, 0);
+        }
+
+        assertEquals(ClockSync.MAX_DRIFT_PPM, sync.estimate(NODE).driftPpm, 0);
+    }
+
+    @Test
+    public void turnaroundCountsAsDelayWithoutT1() {
+        long t0 = START_MICROS;
+        long t2 = remote(t0 + 1300);
+        sync.addSample(NODE, t0, 0, t2, t0 + 2300);
+
+        assertEquals(2300, sync.estimate(NODE).delayMicros);
+    }
+
+    @Test
+    public void pongsFromBeforeARestartAreIgnored() {
+        sync.addSample(NODE, START_MICROS, remote(START_MICROS), remote(START_MICROS),
+                START_MICROS - 1);
+
+        assertNull(sync.estimate(NODE));
+        assertEquals(0, sync.toLocal(NODE, remote(START_MICROS)));
+    }
+
+    @Test
+    public void samplesAreRequestedQuicklyAtFirst() {
+        long now = START_MICROS;
+        assertTrue(sync.sampleDue(NODE, now));
+        assertFalse(sync.sampleDue(NODE, now + ms(100)));
+        assertTrue(sync.sampleDue(NODE, now + ms(200)));
+
+        for (int i = 0; i < ClockSync.FAST_SAMPLES; i++) {
+            roundTrip(now + i * ms(250), 1000, 1000, 0);
+        }
+        now += ms(200);
+        assertFalse(sync.sampleDue(NODE, now + ms(ClockSync.FAST_INTERVAL_MILLIS)));
+        assertTrue(sync.sampleDue(NODE, now + ms(ClockSync.INTERVAL_MILLIS)));
+    }
+
+    @Test
+    public void clearForgetsTheNode() {
+        roundTrip(START_MICROS, 1000, 1000, 0);
+
+        sync.clear(NODE);
+
+        assertNull(sync.estimate(NODE));
+    }
+
+    /**
+     * A PING sent at t0 on our clock that takes outMicros to arrive, is answered after
+     * turnaroundMicros and whose PONG takes backMicros.
+     */
+    private void roundTrip(long t0, long outMicros, long backMicros, long turnaroundMicros) {
+        long arrived = t0 + outMicros;
+        long answered = arrived + turnaroundMicros;
+        sync.addSample(NODE, t0, remote(arrived), remote(answered), answered + backMicros);
+    }
+
+    private long remote(long localMicros) {
+        return Math.round(localMicros + offsetMicros
+                + driftPpm * (localMicros - START_MICROS) / 1e6);
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toMicros(millis);
+    }
+}
@@ -0,0 +1,67 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventTraceTest {
+    @Test
+    public void dumpsTheNewestEntriesOldestFirst() {
+        EventTrace trace = new EventTrace(4);
+        for (int player = 0; player < 6; player++) {
+            trace.record(EventTrace.Kind.SENT, "watch", WearEvent.EventType.PING, player, 12);
+        }
+
+        String[] lines = trace.dump().split("\n");
+
+        assertEquals(4, lines.length);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines[i], lines[i].contains("player=" + (i + 2) + " "));
+        }
+        assertTrue(lines[3].trim().startsWith("0.000 SENT"));
+    }
+
+    @Test
+    public void clearForgetsEarlierEntries() {
+        EventTrace trace = new EventTrace(4);
+        trace.record(EventTrace.Kind.SENT, "watch", WearEvent.EventType.PING, 1, 12);
+        trace.clear();
+        assertEquals("", trace.dump());
+
+        trace.record(EventTrace.Kind.RECEIVED, "watch", WearEvent.EventType.PONG, 2, 29);
+        assertEquals(1, trace.dump().split("\n").length);
+    }
+
+    @Test
+    public void concurrentWritersNeverTearEntries() throws InterruptedException {
+        EventTrace trace = new EventTrace(64);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            int player = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    // Every field of an entry is derived from the player, so a torn one shows.
+                    trace.record(EventTrace.Kind.values()[player], "node" + player,
+                            WearEvent.EventType.values()[player + 1], player, player * 10);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        String[] lines = trace.dump().split("\n");
+
+        assertEquals(64, lines.length);
+        for (String line : lines) {
+            String[] parts = line.trim().split("\\s+");
+            int player = Integer.parseInt(parts[3].substring("player=".length()));
+            assertEquals(line, EventTrace.Kind.values()[player].name(), parts[1]);
+            assertEquals(line, WearEvent.EventType.values()[player + 1].name(), parts[2]);
+            assertEquals(line, "bytes=" + player * 10, parts[4]);
+            assertEquals(line, "node=node" + player, parts[5]);
+        }
+    }
+}
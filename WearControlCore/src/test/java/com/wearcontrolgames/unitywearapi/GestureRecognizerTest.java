@@ -0,0 +1,199 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GestureRecognizerTest {
+    private static final float GRAVITY = 9.81f;
+    // 100 Hz, like SENSOR_DELAY_GAME.
+    private static final long STEP_MILLIS = 10;
+
+    // Everything recognized, as "TYPE@millis".
+    private final List<String> gestures = new ArrayList<>();
+    private final List<Float> confidences = new ArrayList<>();
+    private final GestureRecognizer recognizer =
+            new GestureRecognizer((type, confidence, timestampNanos) -> {
+                gestures.add(type + "@" + TimeUnit.NANOSECONDS.toMillis(timestampNanos));
+                confidences.add(confidence);
+            });
+
+    // The synthetic recording, in the format replay() reads.
+    private final StringBuilder trace = new StringBuilder("# t in ns, values in SI units\n");
+    private long millis;
+
+    @Test
+    public void restingWatchRecognizesNothing() throws IOException {
+        still(2000);
+        // A slow tilt only moves gravity between the axes.
+        for (int i = 0; i < 100; i++) {
+            double angle = i / 100.0 * Math.PI / 2;
+            accel(0, (float) (GRAVITY * Math.sin(angle)), (float) (GRAVITY * Math.cos(angle)));
+        }
+        still(500);
+
+        assertEquals(600, replay());
+        assertEquals(Collections.emptyList(), gestures);
+    }
+
+    @Test
+    public void flickIsReportedOnceSettled() throws IOException {
+        still(500);
+        long pushed = millis;
+        flick(0, 20);
+        still(100);
+        assertEquals(2 * 50 + 6 + 2 * 10, replay());
+        // Still moving, as far as the recognizer can tell.
+        assertEquals(Collections.emptyList(), gestures);
+
+        still(100);
+        replay();
+
+        assertEquals(Arrays.asList("FLICK_RIGHT@" + pushed), gestures);
+        assertTrue(confidences.get(0) > 0.5f && confidences.get(0) <= 1);
+    }
+
+    @Test
+    public void flicksEachWay() throws IOException {
+        still(500);
+        flick(0, -20);
+        still(600);
+        flick(1, 20);
+        still(600);
+        flick(1, -20);
+        still(600);
+
+        replay();
+
+        assertEquals(3, gestures.size());
+        assertTrue(gestures.get(0).startsWith("FLICK_LEFT@"));
+        assertTrue(gestures.get(1).startsWith("FLICK_UP@"));
+        assertTrue(gestures.get(2).startsWith("FLICK_DOWN@"));
+    }
+
+    @Test
+    public void shakeIsNotMistakenForFlicks() throws IOException {
+        still(500);
+        for (int swing = 0; swing < 6; swing++) {
+            for (int i = 0; i < 5; i++) {
+                accel(swing % 2 == 0 ? 20 : -20, 0, GRAVITY);
+            }
+        }
+        still(600);
+
+        replay();
+
+        assertEquals(1, gestures.size());
+        assertTrue(gestures.get(0), gestures.get(0).startsWith("SHAKE@"));
+    }
+
+    @Test
+    public void twistIsTheRotationAlongTheForearm() throws IOException {
+        still(500);
+        long started = millis;
+        for (int i = 0; i < 30; i++) {
+            gyro(6, 0.5f, 0);
+        }
+        still(500);
+
+        replay();
+
+        // 1.2 radians at 6 per second takes 200 ms.
+        assertEquals(1, gestures.size());
+        long at = Long.parseLong(gestures.get(0).substring("WRIST_TWIST@".length()));
+        assertTrue(gestures.get(0), at >= started + 190 && at <= started + 210);
+    }
+
+    @Test
+    public void slowRotationIsNotATwist() throws IOException {
+        still(500);
+        for (int i = 0; i < 200; i++) {
+            gyro(2, 0, 0);
+        }
+
+        replay();
+
+        assertEquals(Collections.emptyList(), gestures);
+    }
+
+    @Test
+    public void nothingIsRecognizedDuringTheRefractoryTime() throws IOException {
+        still(500);
+        flick(0, 20);
+        still(160);
+        // Straight into a twist while the flick is still settling.
+        for (int i = 0; i < 30; i++) {
+            gyro(6, 0, 0);
+        }
+        still(500);
+
+        replay();
+
+        assertEquals(1, gestures.size());
+        assertTrue(gestures.get(0).startsWith("FLICK_RIGHT@"));
+    }
+
+    @Test
+    public void badTraceLinesAreReported() {
+        trace.append("a,1000,0,0\n");
+        try {
+            replay();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+    }
+
+    private int replay() throws IOException {
+        int samples = recognizer.replay(new StringReader(trace.toString()));
+        trace.setLength(0);
+        return samples;
+    }
+
+    /**
+     * A sharp push along the x (0) or y (1) axis and the stop that follows it.
+     */
+    private void flick(int axis, float push) {
+        for (int i = 0; i < 3; i++) {
+            accel(axis == 0 ? push : 0, axis == 1 ? push : 0, GRAVITY);
+        }
+        for (int i = 0; i < 3; i++) {
+            accel(axis == 0 ? -push * 0.75f : 0, axis == 1 ? -push * 0.75f : 0, GRAVITY);
+        }
+    }
+
+    /**
+     * Face up on a table, with both sensors reporting.
+     */
+    private void still(long durationMillis) {
+        for (long end = millis + durationMillis; millis < end; ) {
+            accel(0, 0, GRAVITY);
+            millis -= STEP_MILLIS;
+            gyro(0, 0, 0);
+        }
+    }
+
+    private void accel(float x, float y, float z) {
+        sample("a", x, y, z);
+    }
+
+    private void gyro(float x, float y, float z) {
+        sample("g", x, y, z);
+    }
+
+    private void sample(String sensor, float x, float y, float z) {
+        trace.append(sensor).append(',').append(TimeUnit.MILLISECONDS.toNanos(millis))
+                .append(',').append(x).append(',').append(y).append(',').append(z).append('\n');
+        millis += STEP_MILLIS;
+    }
+}
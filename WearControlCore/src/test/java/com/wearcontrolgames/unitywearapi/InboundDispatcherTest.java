@@ -0,0 +1,122 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InboundDispatcherTest {
+    private static final int CAPACITY = 4;
+    // Stands for the task in the list of what was handled.
+    private static final int TASK = -1;
+
+    private final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+    private InboundDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void eventsAreHandledInOrder() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(10);
+        dispatcher = new InboundDispatcher((source, event, fromMessage) -> {
+            handled.add(event.playerNum);
+            done.countDown();
+        }, new WearEventPool(), new WearMetrics(), CAPACITY);
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.post("watch", pause(i), true);
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), handled);
+    }
+
+    @Test
+    public void handlerCanPostWhileTheRingIsFull() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch ringFull = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(CAPACITY + 2);
+        dispatcher = new InboundDispatcher((source, event, fromMessage) -> {
+            if (event.playerNum == 0) {
+                started.countDown();
+                await(ringFull);
+                // Like a handler reporting availability after pairing changed.
+                dispatcher.post(() -> {
+                    handled.add(TASK);
+                    done.countDown();
+                });
+            }
+            handled.add(event.playerNum);
+            done.countDown();
+        }, new WearEventPool(), new WearMetrics(), CAPACITY);
+
+        dispatcher.post("watch", pause(0), true);
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        for (int i = 1; i <= CAPACITY; i++) {
+            dispatcher.post("watch", pause(i), true);
+        }
+        ringFull.countDown();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, TASK, 1, 2, 3, 4), handled);
+    }
+
+    @Test
+    public void tasksFromOtherThreadsNeverBlock() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(CAPACITY + 3);
+        dispatcher = new InboundDispatcher((source, event, fromMessage) -> {
+            if (event.playerNum == 0) {
+                started.countDown();
+                await(release);
+            }
+            handled.add(event.playerNum);
+            done.countDown();
+        }, new WearEventPool(), new WearMetrics(), CAPACITY);
+
+        dispatcher.post("watch", pause(0), true);
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        for (int i = 1; i <= CAPACITY; i++) {
+            dispatcher.post("watch", pause(i), true);
+        }
+        // The ring is full and the handler is stuck, like a slow listener on the app's side.
+        Thread app = new Thread(() -> dispatcher.post(() -> {
+            handled.add(TASK);
+            done.countDown();
+        }));
+        app.start();
+        app.join(2000);
+        assertFalse(app.isAlive());
+
+        release.countDown();
+        dispatcher.post("watch", pause(CAPACITY + 1), true);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, TASK, 5), handled);
+    }
+
+    private static WearEvent pause(int playerNum) {
+        return new WearEvent(WearEvent.EventType.PAUSE_GAME).setPlayerNum(playerNum);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
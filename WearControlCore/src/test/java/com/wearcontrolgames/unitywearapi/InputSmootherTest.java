@@ -0,0 +1,122 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class InputSmootherTest {
+    // Default settings for an unknown controller: 50 ms delay, 50 ms of extrapolation and a snap
+    // distance of 0.5.
+    private final InputSmoother smoother = new InputSmoother();
+    private final double[] out = new double[2];
+
+    @Test
+    public void nothingToSampleBeforeTheFirstUpdate() {
+        assertEquals(-1, smoother.sample(1, ms(100), out));
+    }
+
+    @Test
+    public void playbackBeforeTheFirstSampleHoldsIt() {
+        add(0.3, 100);
+
+        assertEquals(0, smoother.sample(1, ms(120), out));
+        assertEquals(0.3, out[0], 1e-9);
+    }
+
+    @Test
+    public void interpolatesBetweenSamples() {
+        add(0.0, 100);
+        add(0.2, 120);
+
+        assertEquals(InputSmoother.STATE_INTERPOLATED, smoother.sample(1, ms(160), out));
+        assertEquals(0.1, out[0], 1e-9);
+        assertEquals(-0.05, out[1], 1e-9);
+    }
+
+    @Test
+    public void extrapolatesPastTheNewestSample() {
+        add(0.0, 100);
+        add(0.2, 120);
+
+        assertEquals(InputSmoother.STATE_EXTRAPOLATED, smoother.sample(1, ms(190), out));
+        assertEquals(0.4, out[0], 1e-9);
+    }
+
+    @Test
+    public void holdsOnceExtrapolationRunsOut() {
+        add(0.0, 100);
+        add(0.2, 120);
+
+        int state = smoother.sample(1, ms(300), out);
+
+        assertEquals(InputSmoother.STATE_EXTRAPOLATED | InputSmoother.STATE_HOLDING, state);
+        // 50 ms past the newest sample at 0.01 per millisecond.
+        assertEquals(0.7, out[0], 1e-9);
+    }
+
+    @Test
+    public void farJumpsSnapInsteadOfSliding() {
+        add(0.0, 100);
+        add(0.9, 120);
+
+        assertEquals(0, smoother.sample(1, ms(160), out));
+        assertEquals(0.9, out[0], 1e-9);
+    }
+
+    @Test
+    public void lateSamplesAreIgnored() {
+        add(0.0, 100);
+        add(0.2, 120);
+        add(0.4, 110);
+
+        smoother.sample(1, ms(160), out);
+        assertEquals(0.1, out[0], 1e-9);
+    }
+
+    @Test
+    public void senderTimestampsRemoveTransportJitter() {
+        // Sent every 10 ms on the sender's clock, but delayed by 45, 55 and 46 ms.
+        addSent(0.0, 1000, 45);
+        addSent(0.1, 1010, 65);
+        addSent(0.2, 1020, 66);
+
+        // Placed at about 45, 55 and 65 ms by the least delayed sample, so playback at 50 ms is
+        // halfway between the first two. The offset creeps towards slower samples a little.
+        assertEquals(InputSmoother.STATE_INTERPOLATED, smoother.sample(1, ms(100), out));
+        assertEquals(0.05, out[0], 1e-3);
+    }
+
+    @Test
+    public void dpadIsNotSmoothed() {
+        smoother.setControllerType(1, WearEvent.ControllerType.DPAD);
+        add(0.0, 100);
+        add(0.2, 120);
+
+        assertEquals(0, smoother.sample(1, ms(120), out));
+        assertEquals(0.2, out[0], 1e-9);
+        assertEquals(0, smoother.sample(1, ms(200), out));
+        assertEquals(0.2, out[0], 1e-9);
+    }
+
+    private void add(double x, long atMillis) {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(1)
+                .setPosition(x, -x / 2);
+        event.timestampNanos = ms(atMillis);
+        smoother.add(event, ms(atMillis));
+    }
+
+    private void addSent(double x, long sentMillis, long arrivedMillis) {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(1)
+                .setPosition(x, 0)
+                .setSentTimeMicros(TimeUnit.MILLISECONDS.toMicros(sentMillis));
+        smoother.add(event, ms(arrivedMillis));
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,120 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ListenerTableTest {
+    private static final WearEvent.EventType POSITION = WearEvent.EventType.POSITION_UPDATE;
+    private static final WearEvent.EventType GESTURE = WearEvent.EventType.GESTURE;
+
+    private final WearDataLayerCore.Listener all = event -> { };
+    private final WearDataLayerCore.Listener positions = event -> { };
+    private final WearDataLayerCore.Listener player2 = event -> { };
+
+    @Test
+    public void emptyTableHasNoListeners() {
+        assertArrayEquals(none(), ListenerTable.EMPTY.listenersFor(POSITION, 1));
+        assertArrayEquals(none(), ListenerTable.EMPTY.listenersFor(POSITION, -1));
+    }
+
+    @Test
+    public void routesByTypeAndPlayer() {
+        ListenerTable table = ListenerTable.EMPTY
+                .with(subscribe(all, null, WearDataLayerCore.ALL_PLAYERS))
+                .with(subscribe(positions, EnumSet.of(POSITION), WearDataLayerCore.ALL_PLAYERS))
+                .with(subscribe(player2, null, 2));
+
+        assertArrayEquals(listeners(all, positions), table.listenersFor(POSITION, 1));
+        assertArrayEquals(listeners(all, positions, player2), table.listenersFor(POSITION, 2));
+        assertArrayEquals(listeners(all), table.listenersFor(GESTURE, 1));
+        assertArrayEquals(listeners(all, player2), table.listenersFor(GESTURE, 2));
+        // Past the highest player anyone subscribed to by number.
+        assertArrayEquals(listeners(all, positions),
+                table.listenersFor(POSITION, ListenerTable.MAX_PLAYER));
+    }
+
+    @Test
+    public void eventsWithoutAPlayerGoToEverySubscriberOfTheType() {
+        ListenerTable table = ListenerTable.EMPTY
+                .with(subscribe(player2, null, 2))
+                .with(subscribe(positions, EnumSet.of(POSITION), 5));
+
+        assertArrayEquals(listeners(player2, positions), table.listenersFor(POSITION, -1));
+        assertArrayEquals(listeners(player2), table.listenersFor(GESTURE, -1));
+        assertArrayEquals(none(), table.listenersFor(POSITION, 3));
+    }
+
+    @Test
+    public void emptyTypeSetMeansEveryType() {
+        ListenerTable table = ListenerTable.EMPTY.with(
+                subscribe(all, EnumSet.noneOf(WearEvent.EventType.class), 1));
+
+        assertArrayEquals(listeners(all), table.listenersFor(GESTURE, 1));
+    }
+
+    @Test
+    public void resubscribingReplacesInPlace() {
+        ListenerTable table = ListenerTable.EMPTY
+                .with(subscribe(all, null, WearDataLayerCore.ALL_PLAYERS))
+                .with(subscribe(positions, null, WearDataLayerCore.ALL_PLAYERS))
+                .with(subscribe(all, EnumSet.of(GESTURE), 1));
+
+        assertArrayEquals(listeners(positions), table.listenersFor(POSITION, 1));
+        // Still called first.
+        assertArrayEquals(listeners(all, positions), table.listenersFor(GESTURE, 1));
+        assertArrayEquals(listeners(positions), table.listenersFor(GESTURE, 2));
+    }
+
+    @Test
+    public void tablesAreNotChangedByUpdates() {
+        ListenerTable before = ListenerTable.EMPTY.with(
+                subscribe(all, null, WearDataLayerCore.ALL_PLAYERS));
+
+        ListenerTable after = before.with(subscribe(player2, null, 2)).without(all);
+
+        assertArrayEquals(listeners(all), before.listenersFor(POSITION, 2));
+        assertArrayEquals(listeners(player2), after.listenersFor(POSITION, 2));
+        assertArrayEquals(none(), after.listenersFor(POSITION, 1));
+    }
+
+    @Test
+    public void removingTheLastListenerGivesTheEmptyTable() {
+        ListenerTable table = ListenerTable.EMPTY.with(subscribe(all, null, 1));
+        assertTrue(table.contains(all));
+
+        assertSame(table, table.without(positions));
+        ListenerTable empty = table.without(all);
+
+        assertSame(ListenerTable.EMPTY, empty);
+        assertFalse(empty.contains(all));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void playersPastTheLimitAreRefused() {
+        subscribe(all, null, ListenerTable.MAX_PLAYER + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePlayersOtherThanAllAreRefused() {
+        subscribe(all, null, -2);
+    }
+
+    private static ListenerTable.Subscription subscribe(WearDataLayerCore.Listener listener,
+            EnumSet<WearEvent.EventType> eventTypes, int playerNum) {
+        return new ListenerTable.Subscription(listener, eventTypes, playerNum);
+    }
+
+    private static WearDataLayerCore.Listener[] listeners(WearDataLayerCore.Listener... listeners) {
+        return listeners;
+    }
+
+    private static WearDataLayerCore.Listener[] none() {
+        return new WearDataLayerCore.Listener[0];
+    }
+}
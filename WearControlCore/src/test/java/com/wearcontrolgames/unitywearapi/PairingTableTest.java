@@ -0,0 +1,181 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PairingTableTest {
+    private int keptChanges;
+    private final PairingTable table = new PairingTable(() -> keptChanges++);
+
+    @Test
+    public void gameSidePairsTheFirstController() {
+        table.startRequest(1);
+        assertEquals(PairingTable.State.REQUESTING, table.stateOf(1));
+
+        assertTrue(table.recordResponse(1, "watch"));
+        assertFalse(table.recordResponse(1, "other"));
+        assertTrue(table.recordResponse(1, "watch"));
+        assertEquals(PairingTable.State.AWAITING_ACCEPT, table.stateOf(1));
+        assertFalse(table.isPairedNode("watch"));
+
+        assertEquals("watch", table.accept(1, WearEvent.ControllerType.ANALOG));
+        assertEquals(PairingTable.State.PAIRED, table.stateOf(1));
+        assertEquals("watch", table.pairedNode(1));
+        assertEquals(1, table.pairedPlayer("watch"));
+        assertEquals(WearEvent.ControllerType.ANALOG, table.controllerTypeOf(1));
+        assertEquals(1, keptChanges);
+    }
+
+    @Test
+    public void acceptNeedsAResponse() {
+        table.startRequest(1);
+
+        assertNull(table.accept(1, WearEvent.ControllerType.ANALOG));
+        assertEquals(PairingTable.State.REQUESTING, table.stateOf(1));
+    }
+
+    @Test
+    public void controllerSidePairsOnceAccepted() {
+        table.recordOffer(2, "phone");
+
+        assertEquals("phone", table.respond(2));
+        assertEquals(PairingTable.State.AWAITING_ACCEPT, table.stateOf(2));
+        assertTrue(table.confirmAccepted(2, "phone", WearEvent.ControllerType.ANALOG));
+        assertEquals(PairingTable.State.PAIRED, table.stateOf(2));
+        assertEquals(2, table.pairedPlayer("phone"));
+    }
+
+    @Test
+    public void controllerSideFallsBackToTheLastOffer() {
+        table.recordOffer(2, "phone");
+
+        // Answering with a different player number than the one requested.
+        assertEquals("phone", table.respond(5));
+        assertTrue(table.confirmAccepted(5, "phone", null));
+        assertNull(table.respond(6));
+    }
+
+    @Test
+    public void acceptanceFromAnotherNodeIsRefused() {
+        table.recordOffer(2, "phone");
+        table.respond(2);
+
+        assertFalse(table.confirmAccepted(2, "other", null));
+        assertEquals(PairingTable.State.IDLE, table.stateOf(2));
+        assertEquals(-1, table.pairedPlayer("other"));
+    }
+
+    @Test
+    public void rejectionOnlyUndoesUnfinishedPairings() {
+        table.startRequest(1);
+        table.recordResponse(1, "watch");
+        table.rejected(1);
+        assertEquals(PairingTable.State.IDLE, table.stateOf(1));
+
+        pair(1, "watch");
+        table.rejected(1);
+        assertEquals(PairingTable.State.PAIRED, table.stateOf(1));
+    }
+
+    @Test
+    public void lostNodeResumesIfItCan() {
+        pair(1, "watch");
+
+        assertFalse(table.lost(1, "other", true));
+        assertTrue(table.lost(1, "watch", true));
+        assertEquals(PairingTable.State.RESUMING, table.stateOf(1));
+        assertFalse(table.isPairedNode("watch"));
+        assertEquals("watch", table.resumingNodes().get(1));
+
+        assertFalse(table.resume(1, "other"));
+        assertTrue(table.resume(1, "watch"));
+        assertEquals(PairingTable.State.PAIRED, table.stateOf(1));
+        assertEquals(WearEvent.ControllerType.ANALOG, table.controllerTypeOf(1));
+        assertEquals(1, table.pairedPlayer("watch"));
+    }
+
+    @Test
+    public void lostNodeThatCantResumeIsForgotten() {
+        pair(1, "watch");
+
+        assertTrue(table.lost(1, "watch", false));
+
+        assertEquals(PairingTable.State.IDLE, table.stateOf(1));
+        assertFalse(table.resume(1, "watch"));
+    }
+
+    @Test
+    public void restoreOnlyFillsIdlePlayers() {
+        table.restore(1, "watch", WearEvent.ControllerType.ANALOG);
+        table.startRequest(2);
+        table.restore(2, "other", null);
+
+        assertEquals(PairingTable.State.RESUMING, table.stateOf(1));
+        assertEquals(PairingTable.State.REQUESTING, table.stateOf(2));
+        assertTrue(table.resume(1, "watch"));
+    }
+
+    @Test
+    public void disconnectFromOnlyMatchesThePairedNode() {
+        pair(1, "watch");
+
+        assertFalse(table.disconnectFrom(1, "other"));
+        assertTrue(table.disconnectFrom(1, "watch"));
+        assertEquals(PairingTable.State.IDLE, table.stateOf(1));
+        assertEquals(-1, table.pairedPlayer("watch"));
+        assertTrue(table.pairedNodes().isEmpty());
+    }
+
+    @Test
+    public void repairingMovesTheReverseIndex() {
+        pair(1, "watch");
+        table.disconnect(1);
+        pair(1, "other");
+
+        assertEquals(-1, table.pairedPlayer("watch"));
+        assertEquals(1, table.pairedPlayer("other"));
+    }
+
+    @Test
+    public void keptPairingsCoverPairedAndResumingPlayers() {
+        pair(1, "watch");
+        table.restore(2, "other", null);
+        table.startRequest(3);
+
+        List<PairingStore.Pairing> kept = table.keptPairings(node -> node.equals("watch") ? 10 : 9);
+
+        assertEquals(2, kept.size());
+        for (PairingStore.Pairing pairing : kept) {
+            if (pairing.playerNum == 1) {
+                assertEquals("watch", pairing.nodeId);
+                assertEquals(10, pairing.protocolVersion);
+            } else {
+                assertEquals(2, pairing.playerNum);
+                assertEquals("other", pairing.nodeId);
+                assertEquals(9, pairing.protocolVersion);
+            }
+        }
+    }
+
+    @Test
+    public void keptChangesAreReported() {
+        pair(1, "watch");
+        table.lost(1, "watch", true);
+        table.resume(1, "watch");
+        table.disconnect(1);
+
+        assertEquals(4, keptChanges);
+    }
+
+    private void pair(int playerNum, String nodeId) {
+        table.startRequest(playerNum);
+        table.recordResponse(playerNum, nodeId);
+        table.accept(playerNum, WearEvent.ControllerType.ANALOG);
+    }
+}
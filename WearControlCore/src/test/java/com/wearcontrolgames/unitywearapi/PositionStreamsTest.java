@@ -0,0 +1,94 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionStreamsTest {
+    private final PositionStreams sender = new PositionStreams();
+    private final PositionStreams receiver = new PositionStreams();
+
+    @Test
+    public void positionsSurviveQuantization() {
+        // 16 bits over -1..1 for an unknown controller.
+        double step = 2.0 / 65535;
+        for (int i = 0; i < 100; i++) {
+            double x = Math.sin(i / 10.0);
+            double y = Math.cos(i / 7.0) * 0.5;
+            WearEvent event = send(x, y);
+            if (event.quantFull && event.keyframeId != 0) {
+                sender.onKeyframeAck("watch", 1, event.keyframeId);
+            }
+
+            assertTrue(receiver.dequantize("phone", event));
+            assertEquals(x, event.posX, step);
+            assertEquals(y, event.posY, step);
+        }
+    }
+
+    @Test
+    public void acknowledgedKeyframesTurnUpdatesIntoDeltas() {
+        WearEvent keyframe = send(0.5, 0.5);
+        assertTrue(keyframe.quantFull);
+        sender.onKeyframeAck("watch", 1, keyframe.keyframeId);
+        receiver.dequantize("phone", keyframe);
+
+        WearEvent delta = send(0.51, 0.49);
+
+        assertFalse(delta.quantFull);
+        assertEquals(keyframe.keyframeId, delta.keyframeId);
+        assertTrue(receiver.dequantize("phone", delta));
+        assertEquals(0.51, delta.posX, 1e-4);
+    }
+
+    @Test
+    public void deltaAgainstAMissingKeyframeIsDropped() {
+        WearEvent keyframe = send(0.5, 0.5);
+        sender.onKeyframeAck("watch", 1, keyframe.keyframeId);
+
+        WearEvent delta = send(0.5, 0.5);
+
+        assertFalse(receiver.dequantize("phone", delta));
+    }
+
+    @Test
+    public void invalidQuantizationIsDropped() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE).setPlayerNum(1);
+        event.quantized = true;
+        event.quantFull = true;
+        event.quantBits = 40;
+        event.quantMin = -1;
+        event.quantMax = 1;
+
+        assertFalse(receiver.dequantize("phone", event));
+
+        event.quantBits = 8;
+        event.quantMax = Float.NaN;
+        assertFalse(receiver.dequantize("phone", event));
+    }
+
+    @Test
+    public void changedQuantizationIsPickedUp() {
+        WearEvent coarse = send(0.3, 0.3);
+        receiver.dequantize("phone", coarse);
+
+        sender.setQuantization(WearEvent.ControllerType.UNKNOWN, 4, 0, 1);
+        WearEvent fine = send(0.3, 0.3);
+
+        assertTrue(receiver.dequantize("phone", fine));
+        assertEquals(4, fine.quantBits);
+        // Four bits over 0..1 is a step of 1/15.
+        assertEquals(0.3, fine.posX, 1 / 30.0);
+    }
+
+    private WearEvent send(double x, double y) {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(1)
+                .setPosition(x, y);
+        sender.quantize("watch", event);
+        // What arrives is only what the codec carries.
+        return WearEventCodec.decode(WearEventCodec.encode(event));
+    }
+}
@@ -0,0 +1,232 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReliableChannelTest {
+    private static final String NODE = "watch";
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    // Everything the channel sent, as "epoch:sequence", with ACKs prefixed by "ack ".
+    private final List<String> sent = new ArrayList<>();
+    // Everything the channel handed on, as "epoch:sequence".
+    private final List<String> handled = new ArrayList<>();
+    private final ReliableChannel.Sender recorder = (nodeId, event, path) -> {
+        synchronized (sent) {
+            sent.add((event.eventType == WearEvent.EventType.ACK ? "ack " : "") + idOf(event));
+        }
+        return CompletableFuture.completedFuture(0);
+    };
+    private final ReliableChannel channel = new ReliableChannel(recorder, timer, new WearMetrics());
+    // Runs every retry right away instead of after the backoff.
+    private final ScheduledExecutorService hurried = new ScheduledThreadPoolExecutor(1) {
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return super.schedule(command, 0, unit);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        hurried.shutdownNow();
+    }
+
+    @Test
+    public void deliversInOrder() {
+        receive(7, 1);
+        receive(7, 2);
+        receive(7, 3);
+
+        assertEquals(Arrays.asList("7:1", "7:2", "7:3"), handled);
+        assertEquals(Arrays.asList("ack 7:1", "ack 7:2", "ack 7:3"), sent);
+    }
+
+    @Test
+    public void reorderedEventsWaitForTheGap() {
+        receive(7, 1);
+        receive(7, 3);
+        receive(7, 4);
+        assertEquals(Arrays.asList("7:1"), handled);
+
+        receive(7, 2);
+
+        assertEquals(Arrays.asList("7:1", "7:2", "7:3", "7:4"), handled);
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void duplicatesAreAcknowledgedButNotDelivered() {
+        receive(7, 1);
+        receive(7, 3);
+        receive(7, 1);
+        receive(7, 3);
+
+        assertEquals(Arrays.asList("7:1"), handled);
+        assertEquals(Arrays.asList("ack 7:1", "ack 7:3", "ack 7:1", "ack 7:3"), sent);
+    }
+
+    @Test
+    public void eventsTooFarAheadAreNotAcknowledged() {
+        receive(7, 1);
+        receive(7, 1 + ReliableChannel.RECEIVE_WINDOW + 1);
+
+        assertEquals(Arrays.asList("ack 7:1"), sent);
+    }
+
+    @Test
+    public void newEpochStartsAFreshStream() {
+        receive(7, 1);
+        receive(7, 2);
+
+        receive(9, 1);
+        receive(9, 2);
+
+        assertEquals(Arrays.asList("7:1", "7:2", "9:1", "9:2"), handled);
+    }
+
+    @Test
+    public void lateRetransmissionFromAnOldEpochIsDropped() {
+        receive(7, 1);
+        receive(7, 2);
+        receive(9, 1);
+
+        receive(7, 2);
+        receive(7, 1);
+        receive(9, 2);
+
+        assertEquals(Arrays.asList("7:1", "7:2", "9:1", "9:2"), handled);
+        assertTrue(sent.contains("ack 7:2"));
+        assertEquals("ack 7:1", sent.get(sent.size() - 2));
+    }
+
+    @Test
+    public void newEpochWaitsForItsFirstEvent() {
+        receive(7, 1);
+
+        receive(9, 2);
+        assertEquals(Arrays.asList("7:1"), handled);
+
+        receive(9, 1);
+        assertEquals(Arrays.asList("7:1", "9:1", "9:2"), handled);
+        // Events from the epoch before are late retransmissions now.
+        receive(7, 2);
+        assertEquals(Arrays.asList("7:1", "9:1", "9:2"), handled);
+    }
+
+    @Test
+    public void acknowledgedSendsComplete() throws Exception {
+        CompletableFuture<Void> first = channel.send(NODE, pause(), "/pause");
+        CompletableFuture<Void> second = channel.send(NODE, pause(), "/pause");
+        int epoch = epochOf(sent.get(0));
+        assertEquals(Arrays.asList(epoch + ":1", epoch + ":2"), sent);
+
+        channel.onAck(NODE, ack(epoch, 2));
+        channel.onAck(NODE, ack(epoch + 1, 1));
+
+        second.get();
+        assertFalse(first.isDone());
+        channel.onAck(NODE, ack(epoch, 1));
+        first.get();
+    }
+
+    @Test
+    public void unacknowledgedSendsAreRetransmitted() throws InterruptedException {
+        channel.send(NODE, pause(), "/pause");
+
+        Thread.sleep(ReliableChannel.INITIAL_RETRY_MILLIS * 2);
+
+        synchronized (sent) {
+            assertTrue(sent.size() >= 2);
+            assertEquals(sent.get(0), sent.get(1));
+        }
+    }
+
+    @Test
+    public void resetCancelsPendingSendsAndStartsANewEpoch() {
+        CompletableFuture<Void> pending = channel.send(NODE, pause(), "/pause");
+        int epoch = epochOf(sent.get(0));
+
+        channel.reset(NODE);
+        channel.send(NODE, pause(), "/pause");
+
+        try {
+            pending.join();
+            fail();
+        } catch (CancellationException expected) {
+            // Nobody is going to acknowledge it.
+        }
+        String restarted = sent.get(sent.size() - 1);
+        assertNotEquals(epoch, epochOf(restarted));
+        assertTrue(restarted.endsWith(":1"));
+    }
+
+    @Test
+    public void givingUpStartsANewEpoch() throws Exception {
+        ReliableChannel impatient = new ReliableChannel(recorder, hurried, new WearMetrics());
+        CompletableFuture<Void> lost = impatient.send(NODE, pause(), "/pause");
+        try {
+            lost.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+        String gaveUp;
+        synchronized (sent) {
+            assertEquals(ReliableChannel.MAX_ATTEMPTS, sent.size());
+            gaveUp = sent.get(0);
+        }
+
+        impatient.send(NODE, pause(), "/pause");
+
+        String next;
+        synchronized (sent) {
+            next = sent.get(ReliableChannel.MAX_ATTEMPTS);
+        }
+        assertNotEquals(epochOf(gaveUp), epochOf(next));
+        assertTrue(next, next.endsWith(":1"));
+        // The receiver never saw the lost event, and isn't left waiting for it.
+        receive(epochOf(next), 1);
+        assertEquals(Arrays.asList(next), handled);
+    }
+
+    private void receive(int epoch, int sequence) {
+        channel.receive(NODE, pause().setSequence(epoch, sequence),
+                (nodeId, event) -> handled.add(idOf(event)));
+    }
+
+    private static WearEvent pause() {
+        return new WearEvent(WearEvent.EventType.PAUSE_GAME).setPlayerNum(1);
+    }
+
+    private static WearEvent ack(int epoch, int sequence) {
+        return new WearEvent(WearEvent.EventType.ACK).setSequence(epoch, sequence);
+    }
+
+    private static String idOf(WearEvent event) {
+        return event.channelEpoch + ":" + event.sequence;
+    }
+
+    private static int epochOf(String id) {
+        return Integer.parseInt(id.substring(0, id.indexOf(':')));
+    }
+}
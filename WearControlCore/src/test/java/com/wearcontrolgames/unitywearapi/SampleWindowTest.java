@@ -0,0 +1,46 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleWindowTest {
+    @Test
+    public void sumsFollowTheWindow() {
+        SampleWindow window = new SampleWindow(8, 100);
+        window.add(0, 1, 2, 3);
+        window.add(50, 1, 2, 3);
+        assertEquals(2, window.size());
+        assertEquals(6, window.sumZ, 0);
+
+        // Everything at or before 150 - 100 falls out.
+        window.add(150, 4, 0, 0);
+
+        assertEquals(1, window.size());
+        assertEquals(4, window.sumX, 0);
+        assertEquals(0, window.sumY, 0);
+    }
+
+    @Test
+    public void fullRingPushesOutTheOldest() {
+        SampleWindow window = new SampleWindow(3, 1000);
+        for (int i = 1; i <= 5; i++) {
+            window.add(i, i, 0, 0);
+        }
+
+        assertEquals(3, window.size());
+        assertEquals(3 + 4 + 5, window.sumX, 0);
+    }
+
+    @Test
+    public void clearEmptiesTheSums() {
+        SampleWindow window = new SampleWindow(4, 1000);
+        window.add(1, 1, 1, 1);
+        window.clear();
+        window.add(2, 2, 0, 0);
+
+        assertEquals(1, window.size());
+        assertEquals(2, window.sumX, 0);
+        assertEquals(0, window.sumY, 0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendSchedulerTest {
+    private static final String NODE = "watch";
+
+    // The scheduler reuses the events it transmits, so only what the tests need is kept.
+    private static final class Sent {
+        final WearEvent.EventType eventType;
+        final int sampleCount;
+        final long atNanos;
+
+        Sent(WearEvent event) {
+            eventType = event.eventType;
+            sampleCount = event.sampleCount;
+            atNanos = System.nanoTime();
+        }
+    }
+
+    private final LinkedBlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+    // Gestures are held up in the transmitter until release opens.
+    private final CountDownLatch transmitting = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SendScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new SendScheduler((receiver, event, path) -> {
+            if (event.eventType == WearEvent.EventType.GESTURE) {
+                transmitting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sent.add(new Sent(event));
+            return CompletableFuture.completedFuture(0);
+        }, () -> { }, new WearMetrics(), new RateController((node, state, rate) -> { }));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void controlEventsDontUseUpTheRateLimit() throws InterruptedException {
+        scheduler.setMaxSendRate(1);
+        long start = System.nanoTime();
+
+        scheduler.enqueue(NODE, new WearEvent(WearEvent.EventType.PING), "/ping", false);
+        assertEquals(WearEvent.EventType.PING, next().eventType);
+        scheduler.enqueue(NODE, position(0.5), "/position", false);
+        Sent position = next();
+
+        assertEquals(WearEvent.EventType.POSITION_UPDATE, position.eventType);
+        assertTrue(position.atNanos - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void positionsAreRateLimited() throws InterruptedException {
+        scheduler.setMaxSendRate(1);
+
+        scheduler.enqueue(NODE, position(0.25), "/position", false);
+        assertNotNull(next());
+        scheduler.enqueue(NODE, position(0.5), "/position", false);
+
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+        assertNotNull(next());
+    }
+
+    @Test
+    public void loweringTheBatchLimitTrimsTheBatch() throws InterruptedException {
+        long window = TimeUnit.SECONDS.toNanos(10);
+        scheduler.setBatching(10, window);
+        // Keeps the worker busy so the batch can't go out while the limit changes.
+        scheduler.enqueue(NODE, new WearEvent(WearEvent.EventType.GESTURE), "/gesture", false);
+        assertTrue(transmitting.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 6; i++) {
+            scheduler.enqueue(NODE, position(i / 10.0), "/position", true);
+        }
+
+        scheduler.setBatching(4, window);
+        for (int i = 0; i < 20; i++) {
+            scheduler.enqueue(NODE, position(i / 10.0), "/position", true);
+        }
+        release.countDown();
+
+        assertEquals(WearEvent.EventType.GESTURE, next().eventType);
+        Sent batch = next();
+        assertEquals(WearEvent.EventType.POSITION_BATCH, batch.eventType);
+        assertEquals(4, batch.sampleCount);
+    }
+
+    @Test
+    public void raisingTheBatchLimitKeepsTheBatch() throws InterruptedException {
+        long window = TimeUnit.MILLISECONDS.toNanos(500);
+        scheduler.setBatching(4, window);
+        scheduler.enqueue(NODE, new WearEvent(WearEvent.EventType.GESTURE), "/gesture", false);
+        assertTrue(transmitting.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            scheduler.enqueue(NODE, position(i / 10.0), "/position", true);
+        }
+
+        scheduler.setBatching(10, window);
+        for (int i = 0; i < 3; i++) {
+            scheduler.enqueue(NODE, position(i / 10.0), "/position", true);
+        }
+        release.countDown();
+
+        assertEquals(WearEvent.EventType.GESTURE, next().eventType);
+        Sent batch = next();
+        assertEquals(WearEvent.EventType.POSITION_BATCH, batch.eventType);
+        assertEquals(6, batch.sampleCount);
+    }
+
+    private Sent next() throws InterruptedException {
+        Sent next = sent.poll(2, TimeUnit.SECONDS);
+        assertNotNull(next);
+        return next;
+    }
+
+    private static WearEvent position(double x) {
+        return new WearEvent(WearEvent.EventType.POSITION_UPDATE).setPlayerNum(0).setPosition(x, 0);
+    }
+}
@@ -0,0 +1,132 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionReplayerTest {
+    private static final EnumSet<WearEvent.EventType> INPUT =
+            EnumSet.of(WearEvent.EventType.POSITION_UPDATE, WearEvent.EventType.GESTURE);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private File session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = folder.newFile("session.wcsr");
+        SessionRecorder recorder = new SessionRecorder(session);
+        recorder.record(SessionRecorder.KIND_INBOUND, "watch", position(1, 0.25));
+        recorder.record(SessionRecorder.KIND_INBOUND, "watch", position(2, 0.5));
+        recorder.record(SessionRecorder.KIND_OUTBOUND, "watch",
+                new WearEvent(WearEvent.EventType.PAUSE_GAME).setPlayerNum(1));
+        recorder.record(SessionRecorder.KIND_INBOUND, "watch",
+                new WearEvent(WearEvent.EventType.GESTURE)
+                        .setPlayerNum(1)
+                        .setGesture(WearEvent.GestureType.SHAKE, 1, WearClock.nowMicros()));
+        recorder.record(SessionRecorder.KIND_INBOUND, null, position(1, 0.75));
+        recorder.close();
+    }
+
+    @After
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Test
+    public void replaysWhatWasRecorded() throws Exception {
+        List<String> replayed = replay(session, -1, 4);
+
+        assertEquals(Arrays.asList(
+                "POSITION_UPDATE 1 0.25", "POSITION_UPDATE 2 0.5", "GESTURE 1 SHAKE",
+                "POSITION_UPDATE 1 0.75"), replayed);
+    }
+
+    @Test
+    public void replaysAsAnotherPlayer() throws Exception {
+        List<String> replayed = replay(session, 7, 4);
+
+        assertEquals(Arrays.asList(
+                "POSITION_UPDATE 7 0.25", "POSITION_UPDATE 7 0.5", "GESTURE 7 SHAKE",
+                "POSITION_UPDATE 7 0.75"), replayed);
+    }
+
+    @Test
+    public void truncatedLastRecordEndsTheReplay() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(session, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        List<String> replayed = replay(session, -1, 3);
+
+        assertEquals(Arrays.asList(
+                "POSITION_UPDATE 1 0.25", "POSITION_UPDATE 2 0.5", "GESTURE 1 SHAKE"), replayed);
+    }
+
+    @Test
+    public void outboundEventsAreReplayedSeparately() throws Exception {
+        try (SessionReplayer replayer = new SessionReplayer(session).setSpeed(0)) {
+            WearDataLayerCore target = new WearDataLayerCore(network.createNode("watch"));
+            assertEquals(1, replayer.replay(target, SessionReplayer.Direction.OUTBOUND));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws Exception {
+        File other = folder.newFile("other");
+        try (RandomAccessFile file = new RandomAccessFile(other, "rw")) {
+            file.write(new byte[SessionRecorder.HEADER_SIZE]);
+        }
+
+        new SessionReplayer(other).close();
+    }
+
+    /**
+     * Replays the inbound events into a fresh data layer as fast as possible, and returns them
+     * as "TYPE player detail" once expected of them have been dispatched.
+     */
+    private List<String> replay(File file, int playerNum, int expected) throws Exception {
+        WearDataLayerCore target = new WearDataLayerCore(network.createNode("replay"));
+        List<String> dispatched = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(expected);
+        target.addListener(event -> {
+            String detail = event.eventType == WearEvent.EventType.GESTURE
+                    ? event.gestureType.name() : String.valueOf(event.posX);
+            synchronized (dispatched) {
+                dispatched.add(event.eventType + " " + event.playerNum + " " + detail);
+            }
+            done.countDown();
+        }, INPUT, WearDataLayerCore.ALL_PLAYERS);
+        try (SessionReplayer replayer = new SessionReplayer(file).setSpeed(0)) {
+            assertEquals(expected, replayer.replay(
+                    target, SessionReplayer.Direction.INBOUND, playerNum));
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        synchronized (dispatched) {
+            return new ArrayList<>(dispatched);
+        }
+    }
+
+    private static WearEvent position(int playerNum, double x) {
+        return new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(playerNum)
+                .setPosition(x, 0);
+    }
+}
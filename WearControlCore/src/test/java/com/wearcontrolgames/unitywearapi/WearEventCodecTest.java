@@ -0,0 +1,354 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WearEventCodecTest {
+    private static final int HEADER = 0xB0;
+
+    @Test
+    public void positionUpdateIsVersion1() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(3)
+                .setPosition(0.25, -0.75);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_BINARY);
+
+        assertEquals(WearEvent.EventType.POSITION_UPDATE, decoded.eventType);
+        assertEquals(3, decoded.playerNum);
+        assertEquals(0.25, decoded.posX, 0);
+        assertEquals(-0.75, decoded.posY, 0);
+    }
+
+    @Test
+    public void pairingFieldsAreVersion1() {
+        WearEvent event = new WearEvent(WearEvent.EventType.PAIR_ACCEPTED)
+                .setPlayerNum(-1)
+                .setControllerType("ANALOG")
+                .setTargetController("racing wheel é")
+                .setUri("wear://node/path")
+                .setProtocolVersion(WearEventCodec.VERSION);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_BINARY);
+
+        assertEquals(-1, decoded.playerNum);
+        assertEquals(WearEvent.ControllerType.ANALOG, decoded.controllerType);
+        assertEquals("racing wheel é", decoded.targetController);
+        assertEquals("wear://node/path", decoded.uri);
+        assertEquals(WearEventCodec.VERSION, decoded.protocolVersion);
+    }
+
+    @Test
+    public void batchIsVersion2() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_BATCH)
+                .setPlayerNum(1)
+                .addSample(0.1, 0.2, 0)
+                .addSample(0.3, 0.4, 10000)
+                .addSample(0.5, 0.6, 250000);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_BATCHES);
+
+        assertEquals(3, decoded.sampleCount);
+        assertArrayEquals(new int[] {0, 10000, 250000},
+                Arrays.copyOf(decoded.sampleOffsetsMicros, 3));
+        assertArrayEquals(new double[] {0.1, 0.3, 0.5}, Arrays.copyOf(decoded.samplesX, 3), 0);
+        assertArrayEquals(new double[] {0.2, 0.4, 0.6}, Arrays.copyOf(decoded.samplesY, 3), 0);
+    }
+
+    @Test
+    public void timestampsAreVersion3() {
+        WearEvent event = new WearEvent(WearEvent.EventType.PONG)
+                .setPlayerNum(2)
+                .setSentTimeMicros(1_600_000_000_000_000L)
+                .setEchoTimeMicros(1_600_000_000_000_123L);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_TIMESTAMPS);
+
+        assertEquals(1_600_000_000_000_000L, decoded.sentTimeMicros);
+        assertEquals(1_600_000_000_000_123L, decoded.echoTimeMicros);
+    }
+
+    @Test
+    public void quantizedPositionsAreVersion4() {
+        WearEvent full = new WearEvent(WearEvent.EventType.POSITION_UPDATE).setPlayerNum(1);
+        full.setQuantizedPosition(7, new PositionStreams.Quantization(12, -1, 1), 4000, 17);
+        WearEvent delta = new WearEvent(WearEvent.EventType.POSITION_UPDATE).setPlayerNum(1);
+        delta.setQuantizedDelta(7, -3, 5);
+        WearEvent ack = new WearEvent(WearEvent.EventType.KEYFRAME_ACK)
+                .setPlayerNum(1)
+                .setKeyframeId(7);
+
+        WearEvent decodedFull = roundTrip(full, WearEventCodec.VERSION_QUANTIZED);
+        WearEvent decodedDelta = roundTrip(delta, WearEventCodec.VERSION_QUANTIZED);
+        WearEvent decodedAck = roundTrip(ack, WearEventCodec.VERSION_QUANTIZED);
+
+        assertTrue(decodedFull.quantized);
+        assertTrue(decodedFull.quantFull);
+        assertEquals(7, decodedFull.keyframeId);
+        assertEquals(12, decodedFull.quantBits);
+        assertEquals(-1, decodedFull.quantMin, 0);
+        assertEquals(1, decodedFull.quantMax, 0);
+        assertEquals(4000, decodedFull.quantX);
+        assertEquals(17, decodedFull.quantY);
+        assertTrue(decodedDelta.quantized);
+        assertFalse(decodedDelta.quantFull);
+        assertEquals(-3, decodedDelta.quantX);
+        assertEquals(5, decodedDelta.quantY);
+        assertEquals(7, decodedAck.keyframeId);
+    }
+
+    @Test
+    public void sequenceIsVersion6() {
+        WearEvent event = new WearEvent(WearEvent.EventType.PAUSE_GAME)
+                .setPlayerNum(4)
+                .setSequence(123456, 42);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_RELIABLE);
+
+        assertEquals(123456, decoded.channelEpoch);
+        assertEquals(42, decoded.sequence);
+    }
+
+    @Test
+    public void gestureIsVersion8() {
+        WearEvent event = new WearEvent(WearEvent.EventType.GESTURE)
+                .setPlayerNum(1)
+                .setGesture(WearEvent.GestureType.FLICK_LEFT, 0.5f, 987654321L);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_GESTURES);
+
+        assertEquals(WearEvent.GestureType.FLICK_LEFT, decoded.gestureType);
+        // The confidence is sent as a byte.
+        assertEquals(0.5f, decoded.gestureConfidence, 1 / 255f);
+        assertEquals(987654321L, decoded.gestureTimeMicros);
+    }
+
+    @Test
+    public void receiveTimeIsVersion10() {
+        WearEvent event = new WearEvent(WearEvent.EventType.PONG)
+                .setPlayerNum(1)
+                .setSentTimeMicros(2000)
+                .setEchoTimeMicros(1000)
+                .setReceivedTimeMicros(1500);
+
+        WearEvent decoded = roundTrip(event, WearEventCodec.VERSION_CLOCK_SYNC);
+
+        assertEquals(1500, decoded.receivedTimeMicros);
+        assertEquals(2000, decoded.sentTimeMicros);
+        assertEquals(1000, decoded.echoTimeMicros);
+    }
+
+    @Test
+    public void everyVersionUpToOursDecodes() {
+        // Versions 5, 7 and 9 changed behaviour rather than frames, so a frame stamped with any
+        // version up to ours has to be readable.
+        byte[] frame = WearEventCodec.encode(
+                new WearEvent(WearEvent.EventType.DISCONNECT).setPlayerNum(2));
+        for (int version = 1; version <= WearEventCodec.VERSION; version++) {
+            frame[0] = (byte) (HEADER | version);
+            WearEvent decoded = WearEventCodec.decode(frame);
+            assertNotNull("version " + version, decoded);
+            assertEquals(WearEvent.EventType.DISCONNECT, decoded.eventType);
+            assertEquals(2, decoded.playerNum);
+        }
+    }
+
+    @Test
+    public void newerVersionIsRejected() {
+        byte[] frame = WearEventCodec.encode(new WearEvent(WearEvent.EventType.DISCONNECT));
+        frame[0] = (byte) (HEADER | (WearEventCodec.VERSION + 1));
+
+        assertNull(WearEventCodec.decode(frame));
+    }
+
+    @Test
+    public void unknownEventTypeDecodesAsUnknown() {
+        byte[] frame = WearEventCodec.encode(new WearEvent(WearEvent.EventType.DISCONNECT));
+        frame[1] = (byte) 250;
+
+        assertEquals(WearEvent.EventType.UNKNOWN, WearEventCodec.decode(frame).eventType);
+    }
+
+    @Test
+    public void peersWithoutAVersionGetJson() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_UPDATE)
+                .setPlayerNum(1)
+                .setPosition(0.5, 0.5);
+
+        byte[] payload = WearEventCodec.encodeFor(event, 0);
+
+        assertFalse(WearEventCodec.isBinary(payload));
+        WearEvent decoded = WearEventCodec.decode(payload);
+        assertEquals(WearEvent.EventType.POSITION_UPDATE, decoded.eventType);
+        assertEquals(0.5, decoded.posX, 0);
+    }
+
+    @Test
+    public void olderPeersDontGetNewerFields() {
+        WearEvent pong = new WearEvent(WearEvent.EventType.PONG)
+                .setPlayerNum(1)
+                .setSentTimeMicros(2000)
+                .setEchoTimeMicros(1000)
+                .setReceivedTimeMicros(1500)
+                .setSequence(9, 3);
+
+        byte[] frame = WearEventCodec.encodeFor(pong, WearEventCodec.VERSION_TIMESTAMPS);
+
+        assertEquals(HEADER | WearEventCodec.VERSION_TIMESTAMPS, frame[0] & 0xFF);
+        assertEquals(frame.length,
+                WearEventCodec.encodedSize(pong, WearEventCodec.VERSION_TIMESTAMPS));
+        WearEvent decoded = WearEventCodec.decode(frame);
+        assertEquals(2000, decoded.sentTimeMicros);
+        assertEquals(1000, decoded.echoTimeMicros);
+        assertEquals(0, decoded.receivedTimeMicros);
+        assertEquals(0, decoded.sequence);
+    }
+
+    @Test
+    public void framesForAPeerNeverNeedANewerVersion() {
+        WearEvent event = new WearEvent(WearEvent.EventType.GESTURE)
+                .setPlayerNum(1)
+                .setProtocolVersion(WearEventCodec.VERSION)
+                .setSentTimeMicros(2000)
+                .setReceivedTimeMicros(1500)
+                .setSequence(9, 3)
+                .setGesture(WearEvent.GestureType.SHAKE, 1, 1000);
+        event.setKeyframeId(4);
+
+        for (int version = WearEventCodec.VERSION_BINARY; version <= WearEventCodec.VERSION;
+                version++) {
+            byte[] frame = WearEventCodec.encodeFor(event, version);
+            assertTrue("version " + version, (frame[0] & 0x0F) <= version);
+            assertEquals(frame.length, WearEventCodec.encodedSize(event, version));
+            assertNotNull(WearEventCodec.decode(frame));
+        }
+    }
+
+    @Test
+    public void eventsOlderPeersCantReadAreNotEncodedForThem() {
+        WearEvent gesture = new WearEvent(WearEvent.EventType.GESTURE)
+                .setGesture(WearEvent.GestureType.SHAKE, 1, 1000);
+        WearEvent ack = new WearEvent(WearEvent.EventType.ACK).setSequence(1, 1);
+        WearEvent position = new WearEvent(WearEvent.EventType.POSITION_UPDATE).setPosition(0, 0);
+
+        assertFalse(WearEventCodec.canEncodeFor(gesture, WearEventCodec.VERSION_GESTURES - 1));
+        assertTrue(WearEventCodec.canEncodeFor(gesture, WearEventCodec.VERSION_GESTURES));
+        assertFalse(WearEventCodec.canEncodeFor(ack, WearEventCodec.VERSION_RELIABLE - 1));
+        assertTrue(WearEventCodec.canEncodeFor(ack, WearEventCodec.VERSION_RELIABLE));
+        assertTrue(WearEventCodec.canEncodeFor(position, 0));
+        assertTrue(WearEventCodec.canEncodeFor(position, WearEventCodec.VERSION_BINARY));
+    }
+
+    @Test
+    public void encodedSizeMatchesEncoding() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_BATCH)
+                .setPlayerNum(300)
+                .setTargetController("x")
+                .setSentTimeMicros(1)
+                .addSample(1, 2, 0)
+                .addSample(3, 4, 1 << 20);
+
+        assertEquals(WearEventCodec.encodedSize(event), WearEventCodec.encode(event).length);
+    }
+
+    @Test
+    public void truncatedFramesReturnNull() {
+        WearEvent event = new WearEvent(WearEvent.EventType.POSITION_BATCH)
+                .setPlayerNum(1)
+                .setTargetController("controller")
+                .setSentTimeMicros(12345)
+                .addSample(0.1, 0.2, 0)
+                .addSample(0.3, 0.4, 1000);
+        byte[] frame = WearEventCodec.encode(event);
+
+        for (int length = 1; length < frame.length; length++) {
+            assertNull("length " + length,
+                    WearEventCodec.decode(ByteBuffer.wrap(Arrays.copyOf(frame, length))));
+        }
+    }
+
+    @Test
+    public void hugeStringLengthIsRejected() {
+        // Claims a target controller of Integer.MAX_VALUE bytes.
+        byte[] frame = {(byte) (HEADER | 1), (byte) WearEvent.EventType.PAIR_REQUEST.ordinal(),
+                2, (byte) WearEventCodec.FIELD_TARGET_CONTROLLER,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a'};
+
+        assertNull(WearEventCodec.decode(frame));
+    }
+
+    @Test
+    public void negativeStringLengthIsRejected() {
+        byte[] frame = {(byte) (HEADER | 1), (byte) WearEvent.EventType.PAIR_REQUEST.ordinal(),
+                2, (byte) WearEventCodec.FIELD_URI,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 'a'};
+
+        assertNull(WearEventCodec.decode(frame));
+    }
+
+    @Test
+    public void hugeSampleCountIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) (HEADER | 2));
+        buffer.put((byte) WearEvent.EventType.POSITION_BATCH.ordinal());
+        WearEventCodec.putVarint(buffer, WearEventCodec.zigZag(1));
+        WearEventCodec.putVarint(buffer, WearEventCodec.FIELD_SAMPLES);
+        // Large enough that multiplying it by the sample size overflows.
+        WearEventCodec.putVarint(buffer, Integer.MAX_VALUE / 8);
+        buffer.put(new byte[17]);
+
+        assertNull(WearEventCodec.decode(Arrays.copyOf(buffer.array(), buffer.position())));
+    }
+
+    @Test
+    public void garbageNeverThrows() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            byte[] frame = new byte[1 + random.nextInt(40)];
+            random.nextBytes(frame);
+            frame[0] = (byte) (HEADER | (1 + random.nextInt(WearEventCodec.VERSION)));
+            WearEventCodec.decode(frame);
+        }
+    }
+
+    @Test
+    public void emptyAndJsonGarbageReturnNull() {
+        assertNull(WearEventCodec.decode(new byte[0]));
+        assertNull(WearEventCodec.decode("not json".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void unknownJsonNamesDecodeAsUnknown() {
+        WearEvent event = WearEventCodec.decode(
+                "{\"eventType\":\"TELEPORT\",\"playerNum\":2}".getBytes(StandardCharsets.UTF_8));
+        WearEvent accepted = WearEventCodec.decode(
+                "{\"eventType\":\"PAIR_ACCEPTED\",\"controllerType\":\"STEERING_WHEEL\"}"
+                        .getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(WearEvent.EventType.UNKNOWN, event.eventType);
+        assertEquals(2, event.playerNum);
+        assertEquals(WearEvent.ControllerType.UNKNOWN, accepted.controllerType);
+        assertEquals("STEERING_WHEEL", accepted.controllerTypeString);
+    }
+
+    private static WearEvent roundTrip(WearEvent event, int expectedVersion) {
+        byte[] frame = WearEventCodec.encode(event);
+        assertEquals(HEADER | expectedVersion, frame[0] & 0xFF);
+        assertEquals(frame.length, WearEventCodec.encodedSize(event));
+        WearEvent decoded = WearEventCodec.decode(frame);
+        assertNotNull(decoded);
+        assertEquals(event.eventType, decoded.eventType);
+        return decoded;
+    }
+}
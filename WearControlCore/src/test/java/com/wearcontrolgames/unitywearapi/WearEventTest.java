@@ -0,0 +1,61 @@
+package com.wearcontrolgames.unitywearapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WearEventTest {
+    @Test
+    public void gestureSurvivesJson() {
+        WearEvent event = new WearEvent(WearEvent.EventType.GESTURE)
+                .setPlayerNum(2)
+                .setGesture(WearEvent.GestureType.SHAKE, 0.75f, 123456789L);
+
+        WearEvent decoded = WearEvent.deserialize(event.serialize());
+
+        assertEquals(WearEvent.GestureType.SHAKE, decoded.gestureType);
+        assertEquals("SHAKE", decoded.gestureTypeString);
+        assertEquals(0.75f, decoded.gestureConfidence, 0);
+        assertEquals(123456789L, decoded.gestureTimeMicros);
+    }
+
+    @Test
+    public void missingGestureAndLinkStateSerialize() {
+        WearEvent gesture = new WearEvent(WearEvent.EventType.GESTURE).setPlayerNum(2);
+        WearEvent link = new WearEvent(WearEvent.EventType.LINK_STATE).setLinkState(null, 30);
+        assertNull(link.linkStateString);
+
+        WearEvent decodedGesture = WearEvent.deserialize(gesture.serialize());
+        WearEvent decodedLink = WearEvent.deserialize(link.serialize());
+
+        assertEquals(WearEvent.GestureType.UNKNOWN, decodedGesture.gestureType);
+        assertEquals(2, decodedGesture.playerNum);
+        assertEquals(WearEvent.LinkState.UNKNOWN, decodedLink.linkState);
+        assertEquals(30, decodedLink.sendRate, 0);
+    }
+
+    @Test
+    public void eventsFromOlderSendersAreKept() {
+        WearEvent decoded = WearEvent.deserialize("{\"eventType\":\"GESTURE\",\"playerNum\":1}");
+
+        assertNotNull(decoded);
+        assertEquals(WearEvent.GestureType.UNKNOWN, decoded.gestureType);
+        assertEquals(0, decoded.gestureTimeMicros);
+    }
+
+    @Test
+    public void valuesFromNewerSendersReadAsUnknown() {
+        WearEvent gesture = WearEvent.deserialize(
+                "{\"eventType\":\"GESTURE\",\"gestureType\":\"DOUBLE_TAP\","
+                        + "\"gestureConfidence\":1,\"gestureTimeMicros\":5}");
+        WearEvent link = WearEvent.deserialize(
+                "{\"eventType\":\"LINK_STATE\",\"linkState\":\"EXCELLENT\",\"sendRate\":60}");
+
+        assertEquals(WearEvent.GestureType.UNKNOWN, gesture.gestureType);
+        assertEquals(5, gesture.gestureTimeMicros);
+        assertEquals(WearEvent.LinkState.UNKNOWN, link.linkState);
+        assertEquals(60, link.sendRate, 0);
+    }
+}
@@ -0,0 +1,32 @@
+﻿using System;
+using System.Runtime.InteropServices;
+
+/**
+ * A player's smoothed position read by WearDataLayer.SampleSmoothedPositions. This is a struct so
+ * positions can be read into a reused array every frame without creating garbage. The layout it's
+ * read from is documented on WearDataLayerCore.sampleSmoothedPositions in the Android library.
+ */
+public struct SmoothedPosition {
+    public const int Size = 16;
+
+    // Flags in state, the same values as SMOOTHED_* on the Android side.
+    public const int Interpolated = 1;
+    public const int Extrapolated = 1 << 1;
+    public const int Holding = 1 << 2;
+
+    public int playerNum;
+    public float posX;
+    public float posY;
+    public int state;
+
+    // Shared scratch space for reading the two floats without allocating.
+    private static readonly float[] position = new float[2];
+
+    internal void Read(IntPtr record) {
+        playerNum = Marshal.ReadInt32(record, 0);
+        Marshal.Copy(new IntPtr(record.ToInt64() + 4), position, 0, 2);
+        posX = position[0];
+        posY = position[1];
+        state = Marshal.ReadInt32(record, 12);
+    }
+}
@@ -1,9 +1,27 @@
-﻿using System.Collections;
+﻿using System;
+using System.Collections;
 using System.Collections.Generic;
 using UnityEngine;
 
 public class WearDataLayer {
     private AndroidJavaObject wearLayer;
+    private AndroidJavaObject metrics;
+
+    // Set up by EnablePolling. The method id and arguments are cached so PollEvents makes a single
+    // JNI call and allocates nothing.
+    private AndroidJavaObject pollBuffer;
+    private IntPtr pollBufferAddress;
+    private IntPtr pollEventsMethod;
+    private jvalue[] pollEventsArgs;
+    private int pollCapacity;
+
+    // Set up by EnableInputSmoothing, the same way as polling.
+    private AndroidJavaObject smoothingBuffer;
+    private IntPtr smoothingBufferAddress;
+    private IntPtr sampleSmoothedMethod;
+    private jvalue[] sampleSmoothedArgs;
+    private int smoothingCapacity;
+
     public WearDataLayer(AndroidJavaObject obj) {
         this.wearLayer = obj;
     }
@@ -16,6 +34,23 @@ public class WearDataLayer {
         wearLayer.Call("addListener", listener);
     }
 
+    /** Pass as playerNum to get every player's events. */
+    public const int AllPlayers = -1;
+
+    /**
+     * Only calls the listener for events of the given types, or of every type if none are given,
+     * and for the given player or AllPlayers. Events the listener didn't ask for never cross over
+     * from Java, so a pairing dialog doesn't pay for every position update.
+     */
+    public void AddListener(WearDataListener listener, int playerNum,
+            params WearEvent.EventType[] eventTypes) {
+        string[] names = new string[eventTypes.Length];
+        for (int i = 0; i < eventTypes.Length; i++) {
+            names[i] = eventTypes[i].ToString();
+        }
+        wearLayer.Call("addListener", listener, names, playerNum);
+    }
+
     public void RequestPair(string targetController, int playerNum) {
         wearLayer.Call("requestPair", targetController, playerNum);
     }
@@ -31,4 +66,161 @@ public class WearDataLayer {
     public void Disconnect(int playerNum) {
         wearLayer.Call("disconnect", playerNum);
     }
+
+    public void Ping(int playerNum) {
+        wearLayer.Call("ping", playerNum);
+    }
+
+    /**
+     * Streams updates to paired watches over a persistent channel instead of one message each.
+     * See setChannelStreamingEnabled on the Android side.
+     */
+    public void EnableChannelStreaming(bool enabled) {
+        wearLayer.Call("setChannelStreamingEnabled", enabled);
+    }
+
+    /**
+     * Adapts the rate position updates are sent to each watch to how well its link is doing, and
+     * reports changes as LINK_STATE events. See setAdaptiveSendRateEnabled on the Android side.
+     */
+    public void EnableAdaptiveSendRate(float minPerSecond, float maxPerSecond) {
+        wearLayer.Call("setAdaptiveSendRate", minPerSecond, maxPerSecond);
+        wearLayer.Call("setAdaptiveSendRateEnabled", true);
+    }
+
+    public float GetSendRate(int playerNum) {
+        return wearLayer.Call<float>("getSendRate", playerNum);
+    }
+
+    /**
+     * Disconnects players whose watch hasn't been heard from for missThreshold heartbeat
+     * intervals, and reports watches that have gone quiet as SUSPECT LINK_STATE events first.
+     * See setLivenessDetectionEnabled on the Android side.
+     */
+    public void EnableLivenessDetection(long heartbeatIntervalMillis, int missThreshold) {
+        wearLayer.Call("setLivenessDetection", heartbeatIntervalMillis, missThreshold);
+        wearLayer.Call("setLivenessDetectionEnabled", true);
+    }
+
+    /**
+     * Estimates each watch's clock offset and drift, so events carry when they were sent on the
+     * phone's clock. See setClockSyncEnabled on the Android side.
+     */
+    public void EnableClockSync() {
+        wearLayer.Call("setClockSyncEnabled", true);
+    }
+
+    public long GetClockOffsetMicros(int playerNum) {
+        return wearLayer.Call<long>("getClockOffsetMicros", playerNum);
+    }
+
+    /**
+     * Records every event to a session file at path, e.g. under Application.persistentDataPath,
+     * until StopRecording. See SessionReplayer on the Android side to play it back.
+     */
+    public void StartRecording(string path) {
+        using (AndroidJavaObject file = new AndroidJavaObject("java.io.File", path)) {
+            wearLayer.Call("startRecording", file);
+        }
+    }
+
+    public void StopRecording() {
+        wearLayer.Call("stopRecording");
+    }
+
+    public WearMetrics GetMetrics() {
+        if (metrics == null) {
+            metrics = wearLayer.Call<AndroidJavaObject>("getMetrics");
+        }
+        return JsonUtility.FromJson<WearMetrics>(metrics.Call<string>("snapshot"));
+    }
+
+    /**
+     * Starts queuing events on the Android side for PollEvents, which is much cheaper than a
+     * WearDataListener when events arrive every frame. maxEventsPerPoll is how many events a
+     * single PollEvents call can return.
+     */
+    public void EnablePolling(int maxEventsPerPoll) {
+        pollCapacity = maxEventsPerPoll;
+        pollBuffer = wearLayer.Call<AndroidJavaObject>("allocatePollBuffer", maxEventsPerPoll);
+        pollBufferAddress = AndroidJNI.GetDirectBufferAddress(pollBuffer.GetRawObject());
+        pollEventsMethod = AndroidJNIHelper.GetMethodID(
+                wearLayer.GetRawClass(), "pollEvents", "(Ljava/nio/ByteBuffer;)I");
+        pollEventsArgs = new jvalue[1];
+        pollEventsArgs[0].l = pollBuffer.GetRawObject();
+        wearLayer.Call("setEventPollingEnabled", true);
+    }
+
+    /**
+     * Copies events received since the last call into records, oldest first, and returns how
+     * many were copied. records must hold at least the maxEventsPerPoll passed to EnablePolling.
+     * Call it until it returns less than that to catch up on everything. Allocates nothing unless
+     * a record carries a target controller name.
+     */
+    public int PollEvents(WearEventRecord[] records) {
+        if (pollEventsMethod == IntPtr.Zero) {
+            return 0;
+        }
+        if (records.Length < pollCapacity) {
+            throw new ArgumentException("records must hold at least " + pollCapacity + " events");
+        }
+        int count = AndroidJNI.CallIntMethod(wearLayer.GetRawObject(), pollEventsMethod, pollEventsArgs);
+        long address = pollBufferAddress.ToInt64();
+        for (int i = 0; i < count; i++) {
+            records[i].Read(new IntPtr(address + i * WearEventRecord.Size));
+        }
+        return count;
+    }
+
+    /**
+     * Starts buffering each player's position updates on the Android side so
+     * SampleSmoothedPositions can return smoothly interpolated positions every frame. maxPlayers
+     * is how many players a single SampleSmoothedPositions call can return.
+     */
+    public void EnableInputSmoothing(int maxPlayers) {
+        smoothingCapacity = maxPlayers;
+        smoothingBuffer = wearLayer.Call<AndroidJavaObject>("allocateSmoothingBuffer", maxPlayers);
+        smoothingBufferAddress = AndroidJNI.GetDirectBufferAddress(smoothingBuffer.GetRawObject());
+        sampleSmoothedMethod = AndroidJNIHelper.GetMethodID(
+                wearLayer.GetRawClass(), "sampleSmoothedPositions", "(Ljava/nio/ByteBuffer;)I");
+        sampleSmoothedArgs = new jvalue[1];
+        sampleSmoothedArgs[0].l = smoothingBuffer.GetRawObject();
+        wearLayer.Call("setInputSmoothingEnabled", true);
+    }
+
+    /**
+     * Changes how positions from the controller type are smoothed. See setInputSmoothing on the
+     * Android side for what the values mean.
+     */
+    public void SetInputSmoothing(WearEvent.ControllerType controllerType, float bufferMillis,
+            float maxExtrapolationMillis, float snapDistance) {
+        using (AndroidJavaClass types = new AndroidJavaClass(
+                "com.wearcontrolgames.unitywearapi.WearEvent$ControllerType")) {
+            using (AndroidJavaObject type = types.CallStatic<AndroidJavaObject>(
+                    "valueOf", controllerType.ToString())) {
+                wearLayer.Call("setInputSmoothing", type, bufferMillis, maxExtrapolationMillis,
+                        snapDistance);
+            }
+        }
+    }
+
+    /**
+     * Copies the smoothed position of every player with samples into positions and returns how
+     * many were copied. Call it once per frame. Allocates nothing.
+     */
+    public int SampleSmoothedPositions(SmoothedPosition[] positions) {
+        if (sampleSmoothedMethod == IntPtr.Zero) {
+            return 0;
+        }
+        if (positions.Length < smoothingCapacity) {
+            throw new ArgumentException("positions must hold at least " + smoothingCapacity + " players");
+        }
+        int count = AndroidJNI.CallIntMethod(
+                wearLayer.GetRawObject(), sampleSmoothedMethod, sampleSmoothedArgs);
+        long address = smoothingBufferAddress.ToInt64();
+        for (int i = 0; i < count; i++) {
+            positions[i].Read(new IntPtr(address + i * SmoothedPosition.Size));
+        }
+        return count;
+    }
 }
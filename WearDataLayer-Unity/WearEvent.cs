@@ -23,7 +23,15 @@ public class WearEvent {
         UNPAUSE_GAME,
         RESTART_GAME,
         NODES_AVAILABLE,
-        NODES_UNAVAILABLE
+        NODES_UNAVAILABLE,
+        POSITION_BATCH,
+        PING,
+        PONG,
+        KEYFRAME_ACK,
+        ACK,
+        LINK_STATE,
+        RESUME,
+        PAIR_RESUMED
     }
     public EventType eventType;
 
@@ -35,16 +43,53 @@ public class WearEvent {
     }
     public ControllerType controllerType;
 
+    public enum GestureType {
+        UNKNOWN,
+        FLICK_LEFT,
+        FLICK_RIGHT,
+        FLICK_UP,
+        FLICK_DOWN,
+        SHAKE,
+        WRIST_TWIST
+    }
+
     public int playerNum;
     public string targetController;
 
+    public enum LinkState {
+        UNKNOWN,
+        GOOD,
+        DEGRADED,
+        POOR,
+        SUSPECT
+    }
+
     // Required fields for a position update event. The Unity side should handle which it cares
     // about.
     public float posX;
     public float posY;
 
-    // Required for gestures.
-    // TODO: Create an enum for the gestures we care about.
+    // Only filled for POSITION_BATCH, which is delivered when the data layer is asked to keep
+    // batches together. Offsets are in microseconds since the first sample.
+    public int sampleCount;
+    public double[] samplesX;
+    public double[] samplesY;
+    public int[] sampleOffsetsMicros;
+
+    // Required for gestures. The confidence runs from 0 to 1, and the time is the watch's wall
+    // clock in microseconds when the gesture happened.
+    public GestureType gestureType;
+    public float gestureConfidence;
+    public long gestureTimeMicros;
+
+    // Only filled for LINK_STATE. The rate is how many position updates per second the player's
+    // watch is currently sent.
+    public LinkState linkState;
+    public float sendRate;
+
+    // When the watch sent the event, on the phone's clock in microseconds, or 0 until clock sync
+    // has estimated the watch's clock. See WearDataLayer.EnableClockSync.
+    public long localSentTimeMicros;
 
     public WearEvent(AndroidJavaObject obj) {
         Enum.TryParse<EventType>(obj.Get<string>("eventTypeString"), true, out eventType);
@@ -53,6 +98,22 @@ public class WearEvent {
         Enum.TryParse<ControllerType>(obj.Get<string>("controllerTypeString"), true, out controllerType);
         posX = (float) obj.Get<double>("posX");
         posY = (float) obj.Get<double>("posY");
+        if (eventType == EventType.POSITION_BATCH) {
+            sampleCount = obj.Get<int>("sampleCount");
+            samplesX = obj.Get<double[]>("samplesX");
+            samplesY = obj.Get<double[]>("samplesY");
+            sampleOffsetsMicros = obj.Get<int[]>("sampleOffsetsMicros");
+        }
+        if (eventType == EventType.GESTURE) {
+            Enum.TryParse<GestureType>(obj.Get<string>("gestureTypeString"), true, out gestureType);
+            gestureConfidence = obj.Get<float>("gestureConfidence");
+            gestureTimeMicros = obj.Get<long>("gestureTimeMicros");
+        }
+        if (eventType == EventType.LINK_STATE) {
+            Enum.TryParse<LinkState>(obj.Get<string>("linkStateString"), true, out linkState);
+            sendRate = obj.Get<float>("sendRate");
+        }
+        localSentTimeMicros = obj.Get<long>("localSentTimeMicros");
     }
 
     public WearEvent(EventType type) {
@@ -0,0 +1,63 @@
+﻿using System;
+using System.Runtime.InteropServices;
+using System.Text;
+
+/**
+ * One event read by WearDataLayer.PollEvents. This is a struct so a whole frame of events can be
+ * decoded into a reused array without creating garbage. The layout it's read from is documented
+ * on WearDataLayerCore.pollEvents in the Android library.
+ */
+public struct WearEventRecord {
+    public const int Size = 64;
+    private const int MaxTargetLength = 24;
+
+    public WearEvent.EventType eventType;
+    public int playerNum;
+    public WearEvent.ControllerType controllerType;
+    // Only set on the events that carry it, e.g. PAIR_REQUEST. Null otherwise.
+    public string targetController;
+    public float posX;
+    public float posY;
+    // System.nanoTime() on the Android side when the sample was taken, 0 if unknown.
+    public long timestampNanos;
+    // Only set on GESTURE records, which carry them in the controller type and x slots.
+    public WearEvent.GestureType gestureType;
+    public float gestureConfidence;
+    // Only set on LINK_STATE records, which carry them the same way.
+    public WearEvent.LinkState linkState;
+    public float sendRate;
+
+    // Shared scratch space for the rare records that carry a target controller name.
+    private static readonly byte[] targetBytes = new byte[MaxTargetLength];
+
+    internal void Read(IntPtr record) {
+        eventType = (WearEvent.EventType) Marshal.ReadInt32(record, 0);
+        playerNum = Marshal.ReadInt32(record, 4);
+        controllerType = (WearEvent.ControllerType) Marshal.ReadInt32(record, 8);
+        posX = (float) BitConverter.Int64BitsToDouble(Marshal.ReadInt64(record, 16));
+        posY = (float) BitConverter.Int64BitsToDouble(Marshal.ReadInt64(record, 24));
+        timestampNanos = Marshal.ReadInt64(record, 32);
+        if (eventType == WearEvent.EventType.GESTURE) {
+            gestureType = (WearEvent.GestureType) Marshal.ReadInt32(record, 8);
+            gestureConfidence = posX;
+        } else {
+            gestureType = WearEvent.GestureType.UNKNOWN;
+            gestureConfidence = 0;
+        }
+        if (eventType == WearEvent.EventType.LINK_STATE) {
+            linkState = (WearEvent.LinkState) Marshal.ReadInt32(record, 8);
+            sendRate = posX;
+        } else {
+            linkState = WearEvent.LinkState.UNKNOWN;
+            sendRate = 0;
+        }
+
+        int targetLength = Marshal.ReadInt32(record, 12);
+        if (targetLength > 0) {
+            Marshal.Copy(new IntPtr(record.ToInt64() + 40), targetBytes, 0, targetLength);
+            targetController = Encoding.ASCII.GetString(targetBytes, 0, targetLength);
+        } else {
+            targetController = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+﻿using System;
+
+/**
+ * A snapshot of the data layer's metrics, read with WearDataLayer.GetMetrics. Times are in
+ * microseconds. Handy for an on screen network overlay.
+ */
+[Serializable]
+public class WearMetrics {
+    [Serializable]
+    public class Histogram {
+        public long count;
+        public long minMicros;
+        public long maxMicros;
+        public long meanMicros;
+        public long p50Micros;
+        public long p90Micros;
+        public long p99Micros;
+    }
+
+    // Traffic for one event type or one node, depending on which list it's in.
+    [Serializable]
+    public class Counters {
+        public string name;
+        public long sent;
+        public long received;
+        public long dropped;
+        public long bytesSent;
+        public long bytesReceived;
+    }
+
+    // Round trip times of WearDataLayer.Ping.
+    public Histogram rtt;
+    // How old messages were when they arrived. This includes any offset between the two clocks.
+    public Histogram oneWayAge;
+    public Counters[] eventTypes;
+    public Counters[] nodes;
+}